@@ -4,24 +4,27 @@
 # shellcheck disable=SC2002
 CURRENT_VERSION=$(cat gradle.properties | grep version | cut -d "=" -f2)
 ARTIFACT_NAME=kms-jwt
-ARTIFACT_PATH=io/accelerate/${ARTIFACT_NAME}
-ARTIFACT_PATH_WITH_VERSION=${ARTIFACT_PATH}/${CURRENT_VERSION}
+ARTIFACT_MODULES="kms-jwt kms-jwt-test-support"
 
 # Publish to Maven Local
 ./gradlew publishToMavenLocal
 
 # Prep the publish folder
 rm -rf build/publish
-mkdir -p build/publish/${ARTIFACT_PATH}
+for ARTIFACT_MODULE in ${ARTIFACT_MODULES}; do
+    ARTIFACT_PATH=io/accelerate/${ARTIFACT_MODULE}
+    ARTIFACT_PATH_WITH_VERSION=${ARTIFACT_PATH}/${CURRENT_VERSION}
+    mkdir -p build/publish/${ARTIFACT_PATH}
 
-# Copy from Maven Local
-cp -R "$HOME/.m2/repository/${ARTIFACT_PATH_WITH_VERSION}"  build/publish/${ARTIFACT_PATH}
+    # Copy from Maven Local
+    cp -R "$HOME/.m2/repository/${ARTIFACT_PATH_WITH_VERSION}"  build/publish/${ARTIFACT_PATH}
 
-# MD5 and SHA1
-# shellcheck disable=SC2044
-for file in $(find "build/publish/${ARTIFACT_PATH_WITH_VERSION}" -type f); do
-    md5sum "$file" | cut -d ' ' -f 1 > "$file.md5"
-    shasum -a 1 "$file" | cut -d ' ' -f 1  > "$file.sha1"
+    # MD5 and SHA1
+    # shellcheck disable=SC2044
+    for file in $(find "build/publish/${ARTIFACT_PATH_WITH_VERSION}" -type f); do
+        md5sum "$file" | cut -d ' ' -f 1 > "$file.md5"
+        shasum -a 1 "$file" | cut -d ' ' -f 1  > "$file.sha1"
+    done
 done
 
 (cd build/publish/ && zip -r ${ARTIFACT_NAME}.zip io/)
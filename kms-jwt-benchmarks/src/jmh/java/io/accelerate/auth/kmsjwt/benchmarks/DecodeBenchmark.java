@@ -0,0 +1,58 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"0", "1000"})
+    public long injectedLatencyMicros;
+
+    @Param({"false", "true"})
+    public boolean keyCache;
+
+    private JWTDecoder decoder;
+    private String jwt;
+
+    @Setup
+    public void setUp() throws KeyOperationException {
+        StubKeyProtection keyProtection = new StubKeyProtection(injectedLatencyMicros);
+        JWTDecoder.Builder builder = JWTDecoder.builder(keyProtection);
+        if (keyCache) {
+            builder.keyCache(1_000, Duration.ofHours(1));
+        }
+        decoder = builder.build();
+        jwt = JWTEncoder.builder(new StubKeyProtection(0))
+                .expiration(Date.from(Instant.now().plus(Duration.ofDays(1))))
+                .claim("usr", "benchmark_user")
+                .claim("tdl_wrm", List.of("SUM", "HLO"))
+                .claim("tdl_chx", "UPR")
+                .compact();
+    }
+
+    @Benchmark
+    public Claims decodeAndVerify() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Claims decodeAndVerifyMultiThreaded() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt);
+    }
+}
@@ -0,0 +1,45 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class EncodeBenchmark {
+
+    @Param({"0", "1000"})
+    public long injectedLatencyMicros;
+
+    private StubKeyProtection keyProtection;
+
+    @Setup
+    public void setUp() {
+        keyProtection = new StubKeyProtection(injectedLatencyMicros);
+    }
+
+    @Benchmark
+    public String encode() throws KeyOperationException {
+        return mint();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String encodeMultiThreaded() throws KeyOperationException {
+        return mint();
+    }
+
+    private String mint() throws KeyOperationException {
+        return JWTEncoder.builder(keyProtection)
+                .claim("usr", "benchmark_user")
+                .claim("tdl_wrm", List.of("SUM", "HLO"))
+                .claim("tdl_chx", "UPR")
+                .compact();
+    }
+}
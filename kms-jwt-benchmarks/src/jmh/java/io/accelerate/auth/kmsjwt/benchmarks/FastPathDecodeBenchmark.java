@@ -0,0 +1,74 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.token.ClaimsReader;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import io.accelerate.auth.kmsjwt.token.LazyClaims;
+import io.accelerate.auth.kmsjwt.token.TdlClaims;
+import io.jsonwebtoken.Claims;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compares jjwt's parser with the HS256 fast path once the data key is cached,
+ * i.e. the CPU and allocation cost of verification itself (see gc.alloc.rate.norm).
+ * The typed and lazy variants skip the claims map altogether.
+ */
+@State(Scope.Benchmark)
+public class FastPathDecodeBenchmark {
+    private static final ClaimsReader<LazyClaims> USERNAME = ClaimsReader.lazy("usr");
+
+    @Param({"false", "true"})
+    public boolean fastPath;
+
+    private JWTDecoder decoder;
+    private String jwt;
+
+    @Setup
+    public void setUp() throws KeyOperationException {
+        JWTDecoder.Builder builder = JWTDecoder.builder(new StubKeyProtection(0))
+                .keyCache(1_000, Duration.ofHours(1));
+        if (fastPath) {
+            builder.fastPathVerification();
+        }
+        decoder = builder.build();
+        jwt = JWTEncoder.builder(new StubKeyProtection(0))
+                .expiration(Date.from(Instant.now().plus(Duration.ofDays(1))))
+                .claim("usr", "benchmark_user")
+                .claim("tdl_wrm", List.of("SUM", "HLO"))
+                .claim("tdl_chx", "UPR")
+                .compact();
+    }
+
+    @Benchmark
+    public Claims decodeAndVerify() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt);
+    }
+
+    @Benchmark
+    public TdlClaims decodeAndVerifyTyped() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt, TdlClaims.READER);
+    }
+
+    @Benchmark
+    public String decodeAndVerifyLazy() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt, USERNAME).getString("usr");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Claims decodeAndVerifyMultiThreaded() throws JWTVerificationException {
+        return decoder.decodeAndVerify(jwt);
+    }
+}
@@ -0,0 +1,59 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.KMSDecrypt;
+import io.accelerate.auth.kmsjwt.key.KMSEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.testing.FakeKms;
+import io.accelerate.auth.kmsjwt.testing.Latency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * KMSDecrypt against the in-memory KMS: the AWS SDK request and response handling, AES-GCM and
+ * metrics, plus a long-tailed round trip (p99 ten times the median) when a latency is given.
+ */
+@State(Scope.Benchmark)
+public class KMSDecryptBenchmark {
+
+    @Param({"0", "2000"})
+    public long medianLatencyMicros;
+
+    private KMSDecrypt kmsDecrypt;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setUp() throws KeyOperationException {
+        Duration median = Duration.ofNanos(medianLatencyMicros * 1_000);
+        FakeKms kms = FakeKms.builder()
+                .latency(median.isZero() ? Latency.none() : Latency.logNormal(median, median.multipliedBy(10)))
+                .build();
+        String keyArn = kms.createKey();
+        kmsDecrypt = new KMSDecrypt(kms.client(), Set.of(keyArn), new InMemoryMetrics());
+        ciphertext = new KMSEncrypt(kms.client(), keyArn).encrypt(new byte[32]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        kmsDecrypt.close();
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws KeyOperationException {
+        return kmsDecrypt.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public byte[] decryptMultiThreaded() throws KeyOperationException {
+        return kmsDecrypt.decrypt(ciphertext);
+    }
+}
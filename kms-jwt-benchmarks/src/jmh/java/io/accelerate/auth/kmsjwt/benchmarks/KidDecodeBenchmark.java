@@ -0,0 +1,47 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import javax.crypto.SecretKey;
+import java.util.Base64;
+
+/**
+ * The key lookup step of JWTDecoder in isolation: Base64-decode the kid header,
+ * decrypt it and turn the plaintext into an HMAC key.
+ */
+@State(Scope.Benchmark)
+public class KidDecodeBenchmark {
+
+    @Param({"0", "1000"})
+    public long injectedLatencyMicros;
+
+    private KeyDecrypt keyDecrypt;
+    private String kid;
+
+    @Setup
+    public void setUp() {
+        keyDecrypt = new StubKeyProtection(injectedLatencyMicros);
+        SecretKey secretKey = Jwts.SIG.HS256.key().build();
+        kid = Base64.getEncoder().encodeToString(new StubKeyProtection(0).encrypt(secretKey.getEncoded()));
+    }
+
+    @Benchmark
+    public SecretKey decodeKid() throws KeyOperationException {
+        return Keys.hmacShaKeyFor(keyDecrypt.decrypt(Base64.getDecoder().decode(kid)));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public SecretKey decodeKidMultiThreaded() throws KeyOperationException {
+        return Keys.hmacShaKeyFor(keyDecrypt.decrypt(Base64.getDecoder().decode(kid)));
+    }
+}
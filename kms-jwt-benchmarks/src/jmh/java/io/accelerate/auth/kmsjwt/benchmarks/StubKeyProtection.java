@@ -0,0 +1,45 @@
+package io.accelerate.auth.kmsjwt.benchmarks;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link DummyKeyProtection} with a fixed latency injected into every call, standing
+ * in for a KMS round trip. A latency of zero adds no overhead at all.
+ */
+public class StubKeyProtection implements KeyEncrypt, KeyDecrypt {
+    private final DummyKeyProtection delegate = new DummyKeyProtection();
+    private final long latencyNanos;
+
+    public StubKeyProtection(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] plaintext) {
+        injectLatency();
+        return delegate.encrypt(plaintext);
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) {
+        injectLatency();
+        return delegate.decrypt(ciphertext);
+    }
+
+    private void injectLatency() {
+        if (latencyNanos == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + latencyNanos;
+        long remaining = latencyNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
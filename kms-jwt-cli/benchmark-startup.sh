@@ -0,0 +1,35 @@
+#!/usr/bin/env bash
+# Time-to-first-token of `generate` against a local stub KMS, with and without the CDS archive.
+# Usage: kms-jwt-cli/benchmark-startup.sh [runs]   (run ./gradlew :kms-jwt-cli:shadowJarCds first)
+set -euo pipefail
+
+DIR="$(cd "$(dirname "$0")" && pwd)"
+RUNS="${1:-10}"
+PORT=4599
+JAR="$(ls "$DIR"/build/libs/kms-jwt-cli-*-all.jar | head -n 1)"
+JSA="${JAR%.jar}.jsa"
+KEY="arn:aws:kms:eu-west-2:000000000000:key/00000000-0000-0000-0000-000000000000"
+
+java -jar "$JAR" stub-kms --port "$PORT" > /dev/null &
+STUB_PID=$!
+trap 'kill $STUB_PID' EXIT
+until (: > "/dev/tcp/127.0.0.1/$PORT") 2>/dev/null; do sleep 0.1; done
+
+median_millis() {
+  local label="$1"; shift
+  local timings=()
+  for _ in $(seq "$RUNS"); do
+    local start end
+    start=$(date +%s%N)
+    java "$@" -jar "$JAR" --endpoint "http://127.0.0.1:$PORT" generate \
+        --region eu-west-2 --key "$KEY" --username benchmark --journey "SUM,UPR" | grep -q '^JWT_TOKEN='
+    end=$(date +%s%N)
+    timings+=($(( (end - start) / 1000000 )))
+  done
+  printf '%-14s median %4d ms over %d runs\n' "$label" \
+      "$(printf '%s\n' "${timings[@]}" | sort -n | sed -n "$(( (RUNS + 1) / 2 ))p")" "$RUNS"
+}
+
+median_millis "no CDS" -Xshare:off
+median_millis "default CDS" -Xshare:auto
+median_millis "AppCDS" -XX:SharedArchiveFile="$JSA" -Xshare:auto
@@ -0,0 +1,54 @@
+package io.accelerate.auth.kmsjwt;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * A resource that starts building on a background thread as soon as it is created, so that its set-up
+ * (e.g. loading the AWS SDK and building a KMS client) overlaps with the rest of start-up instead of
+ * preceding it. {@link #get()} waits for it; {@link #close()} closes it once built, without waiting.
+ */
+final class Background<T extends AutoCloseable> implements Supplier<T>, AutoCloseable {
+    private final CompletableFuture<T> value = new CompletableFuture<>();
+
+    private Background() { }
+
+    static <T extends AutoCloseable> Background<T> build(String name, Supplier<T> factory) {
+        Background<T> background = new Background<>();
+        Thread.ofPlatform().daemon().name(name).start(() -> {
+            try {
+                background.value.complete(factory.get());
+            } catch (Throwable e) {
+                background.value.completeExceptionally(e);
+            }
+        });
+        return background;
+    }
+
+    @Override
+    public T get() {
+        try {
+            return value.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        value.thenAccept(resource -> {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                // nothing left to do with it
+            }
+        });
+    }
+}
@@ -0,0 +1,110 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Mints one token per CSV row ({@code username,journey[,expiryDays]}) on virtual
+ * threads and streams {@code username,token} rows out in input order. Rows that
+ * cannot be turned into a token are reported and skipped.
+ */
+final class BatchGeneration {
+    private static final Logger log = LoggerFactory.getLogger(BatchGeneration.class);
+
+    private final KeyEncrypt keyEncrypt;
+    private final int concurrency;
+    private final int defaultExpiresInDays;
+
+    BatchGeneration(KeyEncrypt keyEncrypt, int concurrency, int defaultExpiresInDays) {
+        this.keyEncrypt = keyEncrypt;
+        this.concurrency = concurrency;
+        this.defaultExpiresInDays = defaultExpiresInDays;
+    }
+
+    Summary run(BufferedReader input, PrintStream output) throws IOException {
+        long start = System.nanoTime();
+        Tally tally = new Tally();
+
+        try (OrderedWindow<Result> window = new OrderedWindow<>(concurrency, result -> {
+            if (result.error() == null) {
+                output.println(Csv.escape(result.username()) + "," + result.token());
+                tally.generated++;
+            } else {
+                log.warn("Skipping line {}: {}", result.lineNumber(), result.error());
+                tally.rejected++;
+            }
+        })) {
+            long lineNumber = 0;
+            String line;
+            while ((line = input.readLine()) != null) {
+                long currentLine = ++lineNumber;
+                String row = line.trim();
+                if (row.isEmpty() || row.startsWith("#") || (currentLine == 1 && isHeader(row))) {
+                    continue;
+                }
+                window.submit(() -> mint(currentLine, row));
+            }
+        }
+
+        output.flush();
+        return new Summary(tally.generated, tally.rejected, System.nanoTime() - start);
+    }
+
+    private Result mint(long lineNumber, String row) {
+        String username = null;
+        try {
+            List<String> fields = Csv.parseLine(row);
+            if (fields.size() < 2 || fields.size() > 3) {
+                throw new IllegalArgumentException("Expected username,journey[,expiryDays] but found " + fields.size() + " fields");
+            }
+            username = fields.get(0);
+            if (username.isEmpty()) {
+                throw new IllegalArgumentException("Username must not be empty");
+            }
+            int expiresInDays = fields.size() == 3 && !fields.get(2).isEmpty()
+                    ? parseExpiry(fields.get(2))
+                    : defaultExpiresInDays;
+            String token = GenerateTokenApp.mintTdlToken(keyEncrypt, username, fields.get(1), expiresInDays);
+            return new Result(lineNumber, username, token, null);
+        } catch (KeyOperationException | RuntimeException e) {
+            return new Result(lineNumber, username, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static int parseExpiry(String value) {
+        try {
+            int days = Integer.parseInt(value);
+            if (days <= 0) {
+                throw new IllegalArgumentException("Expiry days must be positive: " + value);
+            }
+            return days;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expiry days is not a number: " + value);
+        }
+    }
+
+    private static boolean isHeader(String row) {
+        return row.toLowerCase().startsWith("username,");
+    }
+
+    private record Result(long lineNumber, String username, String token, String error) {
+    }
+
+    private static final class Tally {
+        private long generated;
+        private long rejected;
+    }
+
+    record Summary(long generated, long rejected, long elapsedNanos) {
+        double tokensPerSecond() {
+            return elapsedNanos == 0 ? 0 : generated / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+}
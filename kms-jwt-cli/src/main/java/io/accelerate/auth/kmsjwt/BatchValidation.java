@@ -0,0 +1,91 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import io.jsonwebtoken.Claims;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Verifies one token per input line on virtual threads and writes one NDJSON
+ * result per token, in input order.
+ */
+final class BatchValidation {
+    private final JWTDecoder decoder;
+    private final int concurrency;
+
+    BatchValidation(JWTDecoder decoder, int concurrency) {
+        this.decoder = decoder;
+        this.concurrency = concurrency;
+    }
+
+    Summary run(BufferedReader input, PrintStream output) throws IOException {
+        long start = System.nanoTime();
+        Tally tally = new Tally();
+
+        try (OrderedWindow<Result> window = new OrderedWindow<>(concurrency, result -> {
+            output.println(result.json());
+            tally.record(result.valid());
+        })) {
+            long index = 0;
+            String line;
+            while ((line = input.readLine()) != null) {
+                long tokenIndex = index++;
+                String token = line.trim();
+                if (!token.isEmpty()) {
+                    window.submit(() -> verify(tokenIndex, token));
+                }
+            }
+        }
+
+        output.flush();
+        return new Summary(tally.valid, tally.invalid, System.nanoTime() - start);
+    }
+
+    private Result verify(long index, String token) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("index", index);
+        boolean valid;
+        try {
+            Claims claims = decoder.decodeAndVerify(token);
+            line.put("valid", true);
+            line.put("claims", Json.claims(claims));
+            valid = true;
+        } catch (JWTVerificationException | RuntimeException e) {
+            line.put("valid", false);
+            line.put("error", String.valueOf(e.getMessage()));
+            valid = false;
+        }
+        return new Result(valid, Json.write(line));
+    }
+
+    private record Result(boolean valid, String json) {
+    }
+
+    private static final class Tally {
+        private long valid;
+        private long invalid;
+
+        void record(boolean isValid) {
+            if (isValid) {
+                valid++;
+            } else {
+                invalid++;
+            }
+        }
+    }
+
+    record Summary(long valid, long invalid, long elapsedNanos) {
+        long total() {
+            return valid + invalid;
+        }
+
+        double tokensPerSecond() {
+            return elapsedNanos == 0 ? 0 : total() / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.accelerate.auth.kmsjwt;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.Configurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Configures logback in code rather than from {@code logback.xml}, which spares every CLI run
+ * the XML parsing and Joran set-up. A {@code logback.configurationFile} system property, or a
+ * {@code logback-test.xml} or {@code logback.xml} on the classpath, still wins.
+ */
+public class ConsoleLogConfigurator extends ContextAwareBase implements Configurator {
+    static final String PATTERN = "%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n";
+    private static final String[] CONFIGURATION_RESOURCES = {"logback-test.xml", "logback.xml"};
+
+    @Override
+    public ExecutionStatus configure(LoggerContext context) {
+        if (System.getProperty("logback.configurationFile") != null || hasConfigurationResource()) {
+            return ExecutionStatus.INVOKE_NEXT_IF_ANY;
+        }
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern(PATTERN);
+        encoder.start();
+
+        ConsoleAppender<ILoggingEvent> appender = new ConsoleAppender<>();
+        appender.setContext(context);
+        appender.setName("STDOUT");
+        appender.setEncoder(encoder);
+        appender.start();
+
+        Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+        root.setLevel(Level.INFO);
+        root.addAppender(appender);
+        return ExecutionStatus.DO_NOT_INVOKE_NEXT_IF_ANY;
+    }
+
+    private static boolean hasConfigurationResource() {
+        ClassLoader classLoader = ConsoleLogConfigurator.class.getClassLoader();
+        for (String resource : CONFIGURATION_RESOURCES) {
+            if (classLoader.getResource(resource) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -6,11 +6,14 @@ import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
 import io.accelerate.auth.kmsjwt.key.KMSDecrypt;
 import io.accelerate.auth.kmsjwt.key.KMSEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
 import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
 import io.accelerate.auth.kmsjwt.token.JWTDecoder;
 import io.accelerate.auth.kmsjwt.token.JWTEncoder;
 import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
-import io.jsonwebtoken.Claims;
+import io.accelerate.auth.kmsjwt.token.PreValidation;
+import io.accelerate.auth.kmsjwt.token.TdlClaims;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
@@ -18,18 +21,27 @@ import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kms.KmsClient;
 
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class GenerateTokenApp {
 
-    private static final Logger log = LoggerFactory.getLogger(GenerateTokenApp.class);
     private static final String WARMUP_CHALLENGES_CLAIM = "tdl_wrm";
     private static final String OFFICIAL_CHALLENGE_CLAIM = "tdl_chx";
 
@@ -38,6 +50,11 @@ public class GenerateTokenApp {
 
     private final GenerateCommand generate = new GenerateCommand();
     private final ValidateCommand validate = new ValidateCommand();
+    private final ValidateBatchCommand validateBatch = new ValidateBatchCommand();
+    private final GenerateBatchCommand generateBatch = new GenerateBatchCommand();
+    private final ServeCommand serve = new ServeCommand();
+    private final LoadTestCommand loadTest = new LoadTestCommand();
+    private final StubKmsCommand stubKms = new StubKmsCommand();
 
     public static void main(String[] args) {
         int exitCode = new GenerateTokenApp().execute(args);
@@ -50,7 +67,13 @@ public class GenerateTokenApp {
         JCommander commander = JCommander.newBuilder()
                 .addObject(this)
                 .addCommand("generate", generate)
+                .addCommand("generate-batch", generateBatch)
                 .addCommand("validate", validate)
+                .addCommand("validate-batch", validateBatch)
+                .addCommand("serve", serve)
+                .addCommand("loadtest", loadTest)
+                .addCommand("stub-kms", stubKms)
+                .addCommand("train-cds", new TrainCdsCommand())
                 .programName("kms-jwt-cli")
                 .build();
 
@@ -62,7 +85,7 @@ public class GenerateTokenApp {
         try {
             commander.parse(args);
         } catch (ParameterException e) {
-            log.error(e.getMessage());
+            log().error(e.getMessage());
             commander.usage();
             return 1;
         }
@@ -79,69 +102,237 @@ public class GenerateTokenApp {
                     handleGenerate();
                     yield 0;
                 }
+                case "generate-batch" -> {
+                    handleGenerateBatch();
+                    yield 0;
+                }
                 case "validate" -> {
                     handleValidate();
                     yield 0;
                 }
+                case "validate-batch" -> {
+                    handleValidateBatch();
+                    yield 0;
+                }
+                case "serve" -> {
+                    handleServe();
+                    yield 0;
+                }
+                case "loadtest" -> {
+                    handleLoadTest();
+                    yield 0;
+                }
+                case "stub-kms" -> {
+                    handleStubKms();
+                    yield 0;
+                }
+                case "train-cds" -> handleTrainCds();
                 default -> {
                     commander.usage();
                     yield 1;
                 }
             };
-        } catch (KeyOperationException | JWTVerificationException | IllegalArgumentException e) {
-            log.error(e.getMessage());
+        } catch (KeyOperationException | JWTVerificationException | IllegalArgumentException | IllegalStateException
+                 | UncheckedIOException e) {
+            log().error(e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return 1;
         }
     }
 
     private void handleGenerate() throws KeyOperationException {
-        log.info("Generating JWT for user \"{}\" with journey \"{}\", valid for {} days",
-                generate.username, generate.journey, generate.expiresInDays);
-        try (KmsClient kmsClient = buildClient(generate.region)) {
-            KMSEncrypt kmsEncrypt = new KMSEncrypt(kmsClient, generate.keyArn);
-            Date expiryDate = expirationDate(generate.expiresInDays);
-            JourneyClaims journeyClaims = splitJourney(generate.journey);
-            String jwt = JWTEncoder.builder(kmsEncrypt)
-                    .setExpiration(expiryDate)
-                    .claim("usr", generate.username)
-                    .claim(WARMUP_CHALLENGES_CLAIM, journeyClaims.warmupChallenges())
-                    .claim(OFFICIAL_CHALLENGE_CLAIM, journeyClaims.officialChallenge())
-                    .compact();
+        try (Background<KmsClient> kmsClient = Background.build("kms-client", () -> buildClient(generate.region))) {
+            log().info("Generating JWT for user \"{}\" with journey \"{}\", valid for {} days",
+                    generate.username, generate.journey, generate.expiresInDays);
+            KeyEncrypt kmsEncrypt = plaintext -> new KMSEncrypt(kmsClient.get(), generate.keyArn).encrypt(plaintext);
+            String jwt = mintTdlToken(kmsEncrypt, generate.username, generate.journey, generate.expiresInDays);
 
             System.out.println("~~~~~~~~~~~~~~~~~~~~~~~");
             System.out.println("JWT_TOKEN=" + jwt);
         }
     }
 
+    private void handleGenerateBatch() {
+        log().info("Generating JWT batch using key \"{}\" in region \"{}\" with concurrency {}",
+                generateBatch.keyArn, generateBatch.region, generateBatch.concurrency);
+        try (KmsClient kmsClient = buildClient(generateBatch.region);
+             BufferedReader input = openInput(generateBatch.input);
+             PrintStream output = openOutput(generateBatch.output)) {
+            KMSEncrypt kmsEncrypt = new KMSEncrypt(kmsClient, generateBatch.keyArn);
+
+            BatchGeneration.Summary summary = new BatchGeneration(kmsEncrypt, generateBatch.concurrency, generateBatch.expiresInDays)
+                    .run(input, output);
+
+            log().info("Generated {} tokens, rejected {} rows in {} ms ({} tokens/s)",
+                    summary.generated(), summary.rejected(),
+                    summary.elapsedNanos() / 1_000_000, String.format("%.1f", summary.tokensPerSecond()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to process user batch: " + e.getMessage(), e);
+        }
+    }
+
+    static String mintTdlToken(KeyEncrypt keyEncrypt, String username, String journey, int expiresInDays)
+            throws KeyOperationException {
+        Date expiryDate = expirationDate(expiresInDays);
+        JourneyClaims journeyClaims = splitJourney(journey);
+        return JWTEncoder.withTokenId(JWTEncoder.builder(keyEncrypt))
+                .setExpiration(expiryDate)
+                .claim("usr", username)
+                .claim(WARMUP_CHALLENGES_CLAIM, journeyClaims.warmupChallenges())
+                .claim(OFFICIAL_CHALLENGE_CLAIM, journeyClaims.officialChallenge())
+                .compact();
+    }
+
     private void handleValidate() throws KeyOperationException, JWTVerificationException {
-        log.info("Validating JWT using key \"{}\" in region \"{}\"", validate.keyArn, validate.region);
-        try (KmsClient kmsClient = buildClient(validate.region)) {
-            KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(validate.keyArn));
-            JWTDecoder decoder = new JWTDecoder(kmsDecrypt);
-            Claims claims = decoder.decodeAndVerify(validate.token);
+        try (Background<KmsClient> kmsClient = Background.build("kms-client", () -> buildClient(validate.region));
+             Background<KMSDecrypt> kmsDecrypt = Background.build("kms-decrypt",
+                     () -> new KMSDecrypt(kmsClient.get(), Set.of(validate.keyArn)))) {
+            log().info("Validating JWT using key \"{}\" in region \"{}\"", validate.keyArn, validate.region);
+            JWTDecoder decoder = new JWTDecoder(ciphertext -> kmsDecrypt.get().decrypt(ciphertext));
+            TdlClaims claims = decoder.decodeAndVerify(validate.token, TdlClaims.READER);
 
             System.out.println("~~~~~~~~~~~~~~~~~~~~~~~");
             System.out.println("JWT_VALIDATED=true");
-            printClaim(claims, "usr");
-            printClaim(claims, WARMUP_CHALLENGES_CLAIM);
-            printClaim(claims, OFFICIAL_CHALLENGE_CLAIM);
+            printClaim("usr", claims.username());
+            printClaim(WARMUP_CHALLENGES_CLAIM, claims.warmupChallenges() == null
+                    ? null : String.join(",", claims.warmupChallenges()));
+            printClaim(OFFICIAL_CHALLENGE_CLAIM, claims.officialChallenge());
         }
     }
 
-    private void printClaim(Claims claims, String key) {
-        Object value = claims.get(key);
-        if (value != null) {
-            if (value instanceof List<?> list) {
-                String joined = list.stream()
-                        .map(String::valueOf)
-                        .collect(Collectors.joining(","));
-                System.out.println("JWT_CLAIM_" + key + "=" + joined);
-                return;
+    private void handleValidateBatch() {
+        log().info("Validating JWT batch using key \"{}\" in region \"{}\" with concurrency {}",
+                validateBatch.keyArn, validateBatch.region, validateBatch.concurrency);
+        try (KmsClient kmsClient = buildClient(validateBatch.region);
+             BufferedReader input = openInput(validateBatch.input);
+             PrintStream output = openOutput(validateBatch.output)) {
+            KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(validateBatch.keyArn));
+            JWTDecoder decoder = JWTDecoder.builder(kmsDecrypt)
+                    .keyCache(validateBatch.keyCacheSize, Duration.ofMinutes(15))
+                    .coalesceKeyDecrypts()
+                    .build();
+
+            BatchValidation.Summary summary = new BatchValidation(decoder, validateBatch.concurrency)
+                    .run(input, output);
+
+            log().info("Validated {} tokens: {} valid, {} invalid in {} ms ({} tokens/s)",
+                    summary.total(), summary.valid(), summary.invalid(),
+                    summary.elapsedNanos() / 1_000_000, String.format("%.1f", summary.tokensPerSecond()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to process token batch: " + e.getMessage(), e);
+        }
+    }
+
+    private void handleServe() throws InterruptedException {
+        log().info("Serving JWT verification on {}:{} using key \"{}\" in region \"{}\"",
+                serve.host, serve.port, serve.keyArn, serve.region);
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (KmsClient kmsClient = buildClient(serve.region);
+             KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(serve.keyArn), metrics, Duration.ofMinutes(5))) {
+            JWTDecoder decoder = JWTDecoder.builder(kmsDecrypt)
+                    .keyCache(serve.keyCacheSize, Duration.ofMinutes(15))
+                    .coalesceKeyDecrypts()
+                    .negativeKeyCache(serve.keyCacheSize, Duration.ofSeconds(30))
+                    .preValidation(PreValidation.defaults())
+                    .fastPathVerification()
+                    .metrics(metrics)
+                    .build();
+            KeyEncrypt keyEncrypt = serve.allowGenerate ? new KMSEncrypt(kmsClient, serve.keyArn, metrics) : null;
+
+            try (VerificationServer server = new VerificationServer(new InetSocketAddress(serve.host, serve.port),
+                    decoder, keyEncrypt, metrics, serve.expiresInDays, Duration.ofSeconds(serve.shutdownGraceSeconds))) {
+                Runtime.getRuntime().addShutdownHook(new Thread(server::close, "kms-jwt-serve-shutdown"));
+                server.start();
+                log().info("Listening on http://{}:{}", server.address().getHostString(), server.address().getPort());
+                server.awaitStopped();
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to serve on " + serve.host + ":" + serve.port + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void handleLoadTest() throws InterruptedException {
+        LoadTest.Settings settings = new LoadTest.Settings(loadTest.ratePerSecond, loadTest.concurrency,
+                Duration.ofSeconds(loadTest.durationSeconds), Duration.ofSeconds(loadTest.reportIntervalSeconds), loadTest.reuseRatio);
+        log().info("Load testing key \"{}\" in region \"{}\"", loadTest.keyArn, loadTest.region);
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (KmsClient kmsClient = buildClient(loadTest.region);
+             KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(loadTest.keyArn), metrics, Duration.ofMinutes(5))) {
+            JWTDecoder decoder = JWTDecoder.builder(kmsDecrypt)
+                    .keyCache(loadTest.keyCacheSize, Duration.ofMinutes(15))
+                    .coalesceKeyDecrypts()
+                    .fastPathVerification()
+                    .metrics(metrics)
+                    .build();
+            KMSEncrypt kmsEncrypt = new KMSEncrypt(kmsClient, loadTest.keyArn, metrics);
+
+            new LoadTest(kmsEncrypt, decoder, metrics, settings).run(System.out);
+        }
+    }
+
+    private void handleStubKms() throws InterruptedException {
+        try (StubKms kms = StubKms.start(stubKms.port)) {
+            log().info("Stub KMS listening on {} with key \"{}\", NOT for real keys", kms.endpoint(), StubKms.KEY_ARN);
+            Thread.currentThread().join();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to start stub KMS: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs generate and validate against a stub KMS, so that a JVM started with
+     * {@code -XX:ArchiveClassesAtExit} or {@code -XX:+AutoCreateSharedArchive} archives the classes they load.
+     */
+    private int handleTrainCds() throws KeyOperationException {
+        try (StubKms kms = StubKms.start(0);
+             KmsClient kmsClient = new GenerateTokenApp().withEndpoint(kms.endpoint()).buildClient(StubKms.REGION)) {
+            String jwt = mintTdlToken(new KMSEncrypt(kmsClient, StubKms.KEY_ARN), "cds-training", "SUM,UPR", 1);
+            int generated = new GenerateTokenApp().execute(new String[]{"--endpoint", kms.endpoint(), "generate",
+                    "--region", StubKms.REGION, "--key", StubKms.KEY_ARN, "--username", "cds-training", "--journey", "SUM,UPR"});
+            int validated = new GenerateTokenApp().execute(new String[]{"--endpoint", kms.endpoint(), "validate",
+                    "--region", StubKms.REGION, "--key", StubKms.KEY_ARN, "--token", jwt});
+            return generated == 0 && validated == 0 ? 0 : 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to start stub KMS: " + e.getMessage(), e);
+        }
+    }
+
+    private GenerateTokenApp withEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    private static BufferedReader openInput(String input) throws IOException {
+        if (input == null || input.equals("-")) {
+            return new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return Files.newBufferedReader(Path.of(input), StandardCharsets.UTF_8);
+    }
+
+    private static PrintStream openOutput(String output) throws IOException {
+        if (output == null || output.equals("-")) {
+            return new PrintStream(System.out, false, StandardCharsets.UTF_8) {
+                @Override
+                public void close() {
+                    flush();
+                }
+            };
+        }
+        return new PrintStream(new FileOutputStream(output), false, StandardCharsets.UTF_8);
+    }
+
+    private static void printClaim(String key, String value) {
+        if (value != null) {
             System.out.println("JWT_CLAIM_" + key + "=" + value);
         }
     }
 
+    private static Logger log() {
+        return LogHolder.LOG;
+    }
+
     private KmsClient buildClient(String region) {
         var builder = KmsClient.builder()
                 .region(Region.of(region));
@@ -150,7 +341,7 @@ public class GenerateTokenApp {
             builder = builder.endpointOverride(URI.create(endpoint))
                     .credentialsProvider(StaticCredentialsProvider.create(
                             AwsBasicCredentials.create("test", "test")));
-            log.info("Using custom KMS endpoint: {}", endpoint);
+            log().info("Using custom KMS endpoint: {}", endpoint);
         }
 
         return builder.build();
@@ -183,6 +374,14 @@ public class GenerateTokenApp {
         return new JourneyClaims(warmups, official);
     }
 
+    /**
+     * Defers logback initialisation until the first log line, so that it overlaps with the KMS client
+     * being built in the background rather than delaying everything at class initialisation.
+     */
+    private static final class LogHolder {
+        private static final Logger LOG = LoggerFactory.getLogger(GenerateTokenApp.class);
+    }
+
     private record JourneyClaims(List<String> warmupChallenges, String officialChallenge) {
     }
 
@@ -205,6 +404,28 @@ public class GenerateTokenApp {
         private int expiresInDays = 2;
     }
 
+    @Parameters(commandDescription = "Generate one JWT token per CSV row (username,journey[,expiryDays]) and write username,token rows")
+    private static class GenerateBatchCommand {
+
+        @Parameter(names = {"-r", "--region"}, description = "The region where the KMS key lives", required = true)
+        private String region;
+
+        @Parameter(names = {"-k", "--key"}, description = "The ARN of the key to be used", required = true)
+        private String keyArn;
+
+        @Parameter(names = {"-i", "--input"}, description = "CSV file of users. Quote journeys that contain commas. Default \"-\" reads stdin")
+        private String input = "-";
+
+        @Parameter(names = {"-o", "--output"}, description = "File to write username,token rows to. Default \"-\" writes to stdout")
+        private String output = "-";
+
+        @Parameter(names = {"-c", "--concurrency"}, description = "Maximum number of tokens minted at the same time. Default 16")
+        private int concurrency = 16;
+
+        @Parameter(names = {"-x", "--expire-in"}, description = "Expiry period in days for rows that do not set one. Default 2 days")
+        private int expiresInDays = 2;
+    }
+
     @Parameters(commandDescription = "Validate a JWT token")
     private static class ValidateCommand {
 
@@ -217,4 +438,93 @@ public class GenerateTokenApp {
         @Parameter(names = {"-t", "--token"}, description = "JWT token value to validate", required = true)
         private String token;
     }
+
+    @Parameters(commandDescription = "Validate a batch of JWT tokens, one per line, and report the results as NDJSON")
+    private static class ValidateBatchCommand {
+
+        @Parameter(names = {"-r", "--region"}, description = "The region where the KMS key lives", required = true)
+        private String region;
+
+        @Parameter(names = {"-k", "--key"}, description = "An allowed KMS key ARN", required = true)
+        private String keyArn;
+
+        @Parameter(names = {"-i", "--input"}, description = "File with one token per line. Default \"-\" reads stdin")
+        private String input = "-";
+
+        @Parameter(names = {"-o", "--output"}, description = "File to write NDJSON results to. Default \"-\" writes to stdout")
+        private String output = "-";
+
+        @Parameter(names = {"-c", "--concurrency"}, description = "Maximum number of tokens verified at the same time. Default 64")
+        private int concurrency = 64;
+
+        @Parameter(names = {"--key-cache-size"}, description = "Number of decrypted keys to keep in memory. Default 10000")
+        private int keyCacheSize = 10_000;
+    }
+
+    @Parameters(commandDescription = "Serve token verification over local HTTP: POST /verify, GET /stats and, if allowed, POST /generate")
+    private static class ServeCommand {
+
+        @Parameter(names = {"-r", "--region"}, description = "The region where the KMS key lives", required = true)
+        private String region;
+
+        @Parameter(names = {"-k", "--key"}, description = "An allowed KMS key ARN, also used by /generate", required = true)
+        private String keyArn;
+
+        @Parameter(names = {"--host"}, description = "Address to listen on. Default 127.0.0.1")
+        private String host = "127.0.0.1";
+
+        @Parameter(names = {"-p", "--port"}, description = "Port to listen on. Default 8089")
+        private int port = 8089;
+
+        @Parameter(names = {"--allow-generate"}, description = "Also mint tokens on POST /generate")
+        private boolean allowGenerate;
+
+        @Parameter(names = {"-x", "--expire-in"}, description = "Expiry period in days for /generate requests that do not set one. Default 2 days")
+        private int expiresInDays = 2;
+
+        @Parameter(names = {"--key-cache-size"}, description = "Number of decrypted keys to keep in memory. Default 10000")
+        private int keyCacheSize = 10_000;
+
+        @Parameter(names = {"--shutdown-grace"}, description = "Seconds to wait for requests in progress on shutdown. Default 10")
+        private int shutdownGraceSeconds = 10;
+    }
+
+    @Parameters(commandDescription = "Mint and verify tokens at a target rate or concurrency and report throughput and latency percentiles")
+    private static class LoadTestCommand {
+
+        @Parameter(names = {"-r", "--region"}, description = "The region where the KMS key lives", required = true)
+        private String region;
+
+        @Parameter(names = {"-k", "--key"}, description = "The ARN of the key to mint and verify with", required = true)
+        private String keyArn;
+
+        @Parameter(names = {"--rate"}, description = "Target operations per second, started on schedule whatever the latency. Default 0 runs at a fixed concurrency instead")
+        private double ratePerSecond;
+
+        @Parameter(names = {"-c", "--concurrency"}, description = "Operations in flight; with --rate, the most allowed in flight. Default 64")
+        private int concurrency = 64;
+
+        @Parameter(names = {"-d", "--duration"}, description = "Seconds to run for. Default 60")
+        private int durationSeconds = 60;
+
+        @Parameter(names = {"--report-interval"}, description = "Seconds between progress reports. Default 5")
+        private int reportIntervalSeconds = 5;
+
+        @Parameter(names = {"--reuse"}, description = "Share of operations that verify an already minted token instead of minting one. Default 0.9")
+        private double reuseRatio = 0.9;
+
+        @Parameter(names = {"--key-cache-size"}, description = "Number of decrypted keys to keep in memory. Default 10000")
+        private int keyCacheSize = 10_000;
+    }
+
+    @Parameters(commandDescription = "Serve a stub of KMS on the loopback interface for benchmarks. NOT for real keys", hidden = true)
+    private static class StubKmsCommand {
+
+        @Parameter(names = {"-p", "--port"}, description = "Port to listen on. Default 4599")
+        private int port = 4599;
+    }
+
+    @Parameters(commandDescription = "Exercise generate and validate against a stub KMS to train a CDS archive", hidden = true)
+    private static class TrainCdsCommand {
+    }
 }
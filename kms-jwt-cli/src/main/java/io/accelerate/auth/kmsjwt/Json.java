@@ -0,0 +1,30 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.jsonwebtoken.jackson.io.JacksonSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class Json {
+    private static final JacksonSerializer<Map<String, ?>> SERIALIZER = new JacksonSerializer<>();
+
+    private Json() { }
+
+    static String write(Map<String, ?> value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        SERIALIZER.serialize(value, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    static Map<String, Object> claims(Map<String, ?> claims) {
+        Map<String, Object> converted = new LinkedHashMap<>();
+        for (Map.Entry<String, ?> entry : claims.entrySet()) {
+            Object value = entry.getValue();
+            converted.put(entry.getKey(), value instanceof Date date ? date.getTime() / 1000 : value);
+        }
+        return converted;
+    }
+}
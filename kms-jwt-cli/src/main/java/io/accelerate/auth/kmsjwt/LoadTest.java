@@ -0,0 +1,253 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.LatencyHistogram;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives sustained encode and verify load on virtual threads and reports throughput, errors and latency
+ * percentiles at intervals, then for the whole run. Each operation verifies a token; with probability
+ * {@code 1 - reuseRatio} it first mints a new one, which costs a KMS Encrypt and, on verification, a Decrypt.
+ * <p>
+ * At a target rate the load is open-loop: operations start on a fixed schedule whether or not earlier ones
+ * have finished, and response time is measured from the scheduled start. A slow KMS therefore shows up in
+ * the percentiles instead of quietly lowering the rate (coordinated omission). Service time, from the
+ * actual start, is reported alongside. At a fixed concurrency there is no schedule, so only service time applies.
+ */
+final class LoadTest {
+    private static final int TOKEN_POOL_SIZE = 1024;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final KeyEncrypt keyEncrypt;
+    private final JWTDecoder decoder;
+    private final InMemoryMetrics metrics;
+    private final Settings settings;
+    private final AtomicReferenceArray<String> tokens = new AtomicReferenceArray<>(TOKEN_POOL_SIZE);
+    private final AtomicLong tokensMinted = new AtomicLong();
+    private final Window total = new Window();
+    private final AtomicReference<Window> current = new AtomicReference<>(new Window());
+
+    /**
+     * @param ratePerSecond target operations per second, or 0 to run at a fixed concurrency instead
+     * @param concurrency   operations in flight at a fixed concurrency; at a target rate, the cap on operations in flight
+     * @param reuseRatio    share of operations that verify an already minted token rather than mint a new one
+     */
+    record Settings(double ratePerSecond, int concurrency, Duration duration, Duration reportInterval, double reuseRatio) {
+        Settings {
+            if (ratePerSecond < 0 || concurrency <= 0) {
+                throw new IllegalArgumentException("Rate must not be negative and concurrency must be positive");
+            }
+            if (duration.isNegative() || duration.isZero() || reportInterval.isNegative() || reportInterval.isZero()) {
+                throw new IllegalArgumentException("Duration and report interval must be positive");
+            }
+            if (reuseRatio < 0 || reuseRatio > 1) {
+                throw new IllegalArgumentException("Token reuse ratio must be between 0 and 1");
+            }
+        }
+
+        boolean openLoop() {
+            return ratePerSecond > 0;
+        }
+    }
+
+    LoadTest(KeyEncrypt keyEncrypt, JWTDecoder decoder, InMemoryMetrics metrics, Settings settings) {
+        this.keyEncrypt = keyEncrypt;
+        this.decoder = decoder;
+        this.metrics = metrics;
+        this.settings = settings;
+    }
+
+    Summary run(PrintStream output) throws InterruptedException {
+        output.println(settings.openLoop()
+                ? String.format(Locale.ROOT, "Open-loop at %.1f ops/s (at most %d in flight) for %d s, reusing %.0f%% of tokens",
+                        settings.ratePerSecond(), settings.concurrency(), settings.duration().toSeconds(), settings.reuseRatio() * 100)
+                : String.format(Locale.ROOT, "Closed-loop at concurrency %d for %d s, reusing %.0f%% of tokens",
+                        settings.concurrency(), settings.duration().toSeconds(), settings.reuseRatio() * 100));
+        output.println(settings.openLoop()
+                ? "elapsed      ops/s   errors  throttled   response time p50/p90/p99/p99.9/max (ms)"
+                : "elapsed      ops/s   errors  throttled   service time p50/p90/p99/p99.9/max (ms)");
+
+        long start = System.nanoTime();
+        long end = start + settings.duration().toNanos();
+        Thread reporter = Thread.ofVirtual().name("loadtest-reporter").start(() -> report(output, start, end));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (settings.openLoop()) {
+                runOpenLoop(executor, start, end);
+            } else {
+                runClosedLoop(executor, end);
+            }
+        } finally {
+            reporter.interrupt();
+            reporter.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Summary summary = new Summary(total.completed.sum(), total.errors.sum(), total.throttled.sum(), tokensMinted.get(), elapsed);
+        printSummary(output, summary);
+        return summary;
+    }
+
+    private void runOpenLoop(ExecutorService executor, long start, long end) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(settings.concurrency());
+        double intervalNanos = 1_000_000_000.0 / settings.ratePerSecond();
+        for (long i = 0; ; i++) {
+            long scheduled = start + (long) (i * intervalNanos);
+            if (scheduled - end >= 0) {
+                return;
+            }
+            parkUntil(scheduled);
+            inFlight.acquire();
+            executor.execute(() -> {
+                try {
+                    operate(scheduled);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    private void runClosedLoop(ExecutorService executor, long end) {
+        for (int i = 0; i < settings.concurrency(); i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() - end < 0) {
+                    operate(System.nanoTime());
+                }
+            });
+        }
+    }
+
+    private void operate(long scheduled) {
+        long started = System.nanoTime();
+        boolean failed = false;
+        boolean throttled = false;
+        try {
+            decoder.decodeAndVerify(token());
+        } catch (Exception e) {
+            failed = true;
+            throttled = Outcomes.ofKmsFailure(e) == Outcome.THROTTLED;
+        }
+        long finished = System.nanoTime();
+        total.record(finished - scheduled, finished - started, failed, throttled);
+        current.get().record(finished - scheduled, finished - started, failed, throttled);
+    }
+
+    private String token() throws Exception {
+        long minted = tokensMinted.get();
+        if (minted > 0 && ThreadLocalRandom.current().nextDouble() < settings.reuseRatio()) {
+            String token = tokens.get(ThreadLocalRandom.current().nextInt((int) Math.min(minted, TOKEN_POOL_SIZE)));
+            if (token != null) {
+                return token;
+            }
+        }
+        long number = tokensMinted.getAndIncrement();
+        String token = GenerateTokenApp.mintTdlToken(keyEncrypt, "loadtest-" + number, "SUM,UPR", 1);
+        tokens.set((int) (number % TOKEN_POOL_SIZE), token);
+        return token;
+    }
+
+    private void report(PrintStream output, long start, long end) {
+        long interval = settings.reportInterval().toNanos();
+        long next = start + interval;
+        while (next - end <= 0) {
+            if (!parkUntilInterruptibly(next)) {
+                return;
+            }
+            Window window = current.getAndSet(new Window());
+            LatencyHistogram.Snapshot latency = settings.openLoop() ? window.responseTimes.snapshot() : window.serviceTimes.snapshot();
+            output.println(String.format(Locale.ROOT, "%6.1fs %10.1f %8d %10d   %s",
+                    (next - start) / 1e9, window.completed.sum() / (interval / 1e9),
+                    window.errors.sum(), window.throttled.sum(), percentiles(latency)));
+            next += interval;
+        }
+    }
+
+    private void printSummary(PrintStream output, Summary summary) {
+        output.println("~~~~~~~~~~~~~~~~~~~~~~~");
+        output.println(String.format(Locale.ROOT, "Completed %d operations in %.1f s: %.1f ops/s, %d errors, %d throttled",
+                summary.completed(), summary.elapsedNanos() / 1e9, summary.operationsPerSecond(), summary.errors(), summary.throttled()));
+        if (settings.openLoop() && summary.operationsPerSecond() < settings.ratePerSecond() * 0.95) {
+            output.println(String.format(Locale.ROOT, "Target rate of %.1f ops/s was NOT sustained", settings.ratePerSecond()));
+        }
+        output.println(String.format(Locale.ROOT, "Minted %d tokens; KMS Encrypt %d calls (%d throttled), KMS Decrypt %d calls (%d throttled)",
+                summary.minted(),
+                metrics.latency(Operation.KMS_ENCRYPT).count(), metrics.count(Operation.KMS_ENCRYPT, Outcome.THROTTLED),
+                metrics.latency(Operation.KMS_DECRYPT).count(), metrics.count(Operation.KMS_DECRYPT, Outcome.THROTTLED)));
+        if (settings.openLoop()) {
+            output.println("Response time p50/p90/p99/p99.9/max (ms): " + percentiles(total.responseTimes.snapshot()));
+        }
+        output.println("Service time  p50/p90/p99/p99.9/max (ms): " + percentiles(total.serviceTimes.snapshot()));
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot snapshot) {
+        StringBuilder line = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ROOT, "%.2f/", snapshot.percentile(percentile) / 1e6));
+        }
+        return line.append(String.format(Locale.ROOT, "%.2f", snapshot.max() / 1e6)).toString();
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * @return {@code false} when interrupted before the deadline
+     */
+    private static boolean parkUntilInterruptibly(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Window {
+        private final LatencyHistogram responseTimes = new LatencyHistogram();
+        private final LatencyHistogram serviceTimes = new LatencyHistogram();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+
+        void record(long responseTime, long serviceTime, boolean failed, boolean wasThrottled) {
+            responseTimes.record(responseTime);
+            serviceTimes.record(serviceTime);
+            completed.increment();
+            if (failed) {
+                errors.increment();
+            }
+            if (wasThrottled) {
+                throttled.increment();
+            }
+        }
+    }
+
+    record Summary(long completed, long errors, long throttled, long minted, long elapsedNanos) {
+        double operationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : completed / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.accelerate.auth.kmsjwt;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks on virtual threads and hands their results to a sink in submission
+ * order. No more than {@code size} tasks are in flight or waiting for the sink,
+ * so arbitrarily long inputs can be streamed with bounded memory.
+ */
+final class OrderedWindow<R> implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Deque<Future<R>> pending = new ArrayDeque<>();
+    private final int size;
+    private final Consumer<R> sink;
+
+    OrderedWindow(int size, Consumer<R> sink) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.size = size;
+        this.sink = sink;
+    }
+
+    void submit(Callable<R> task) {
+        if (pending.size() >= size) {
+            sink.accept(await(pending.removeFirst()));
+        }
+        pending.add(executor.submit(task));
+    }
+
+    @Override
+    public void close() {
+        try {
+            while (!pending.isEmpty()) {
+                sink.accept(await(pending.removeFirst()));
+            }
+        } finally {
+            executor.close();
+        }
+    }
+
+    private static <R> R await(Future<R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch results", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch task failed unexpectedly", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package io.accelerate.auth.kmsjwt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.jsonwebtoken.jackson.io.JacksonDeserializer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Answers the Encrypt, Decrypt and DescribeKey calls of the KMS JSON protocol on the loopback interface,
+ * so that the CLI's real code paths can run without AWS: for the CDS training run and startup benchmarks.
+ * Ciphertexts are just the key ID and the plaintext side by side. Never use it for real keys.
+ */
+final class StubKms implements AutoCloseable {
+    static final String REGION = "eu-west-2";
+    static final String KEY_ARN = "arn:aws:kms:eu-west-2:000000000000:key/00000000-0000-0000-0000-000000000000";
+
+    private static final JacksonDeserializer<Map<String, ?>> JSON = new JacksonDeserializer<>();
+
+    private final HttpServer server;
+
+    private StubKms(HttpServer server) {
+        this.server = server;
+    }
+
+    static StubKms start(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        StubKms stubKms = new StubKms(server);
+        server.createContext("/", stubKms::handle);
+        server.start();
+        return stubKms;
+    }
+
+    String endpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String target = String.valueOf(exchange.getRequestHeaders().getFirst("X-Amz-Target"));
+            Map<String, ?> request = JSON.deserialize(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            Map<String, ?> response = switch (target.substring(target.indexOf('.') + 1)) {
+                case "Encrypt" -> encrypt(request);
+                case "Decrypt" -> decrypt(request);
+                case "DescribeKey" -> describeKey(request);
+                default -> null;
+            };
+            if (response == null) {
+                send(exchange, 400, Map.of("__type", "UnsupportedOperationException", "message", "Not supported by the stub: " + target));
+            } else {
+                send(exchange, 200, response);
+            }
+        }
+    }
+
+    private static Map<String, ?> encrypt(Map<String, ?> request) {
+        byte[] keyId = String.valueOf(request.get("KeyId")).getBytes(StandardCharsets.UTF_8);
+        byte[] plaintext = Base64.getDecoder().decode((String) request.get("Plaintext"));
+        ByteBuffer ciphertext = ByteBuffer.allocate(2 + keyId.length + plaintext.length)
+                .putShort((short) keyId.length)
+                .put(keyId)
+                .put(plaintext);
+        return Map.of("CiphertextBlob", Base64.getEncoder().encodeToString(ciphertext.array()),
+                "KeyId", new String(keyId, StandardCharsets.UTF_8),
+                "EncryptionAlgorithm", "SYMMETRIC_DEFAULT");
+    }
+
+    private static Map<String, ?> decrypt(Map<String, ?> request) {
+        ByteBuffer ciphertext = ByteBuffer.wrap(Base64.getDecoder().decode((String) request.get("CiphertextBlob")));
+        byte[] keyId = new byte[ciphertext.getShort()];
+        ciphertext.get(keyId);
+        byte[] plaintext = new byte[ciphertext.remaining()];
+        ciphertext.get(plaintext);
+        return Map.of("Plaintext", Base64.getEncoder().encodeToString(plaintext),
+                "KeyId", new String(keyId, StandardCharsets.UTF_8),
+                "EncryptionAlgorithm", "SYMMETRIC_DEFAULT");
+    }
+
+    private static Map<String, ?> describeKey(Map<String, ?> request) {
+        String keyId = String.valueOf(request.get("KeyId"));
+        String arn = keyId.startsWith("arn:") ? keyId : KEY_ARN;
+        return Map.of("KeyMetadata", Map.of("KeyId", arn.substring(arn.lastIndexOf('/') + 1), "Arn", arn, "Enabled", true));
+    }
+
+    private static void send(HttpExchange exchange, int status, Map<String, ?> body) {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package io.accelerate.auth.kmsjwt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.LatencyHistogram;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import io.jsonwebtoken.Claims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Verifies (and optionally mints) tokens over local HTTP with one warm decoder, so that callers
+ * pay neither JVM startup nor KMS client set-up per token. Each exchange runs on its own virtual thread.
+ * <ul>
+ *     <li>{@code POST /verify} with the token as the body, or in an {@code Authorization: Bearer} header</li>
+ *     <li>{@code POST /generate?username=...&journey=...[&expireInDays=...]}, when a key encrypt is given</li>
+ *     <li>{@code GET /stats} for request latency percentiles and verification outcomes</li>
+ * </ul>
+ */
+final class VerificationServer implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(VerificationServer.class);
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50Micros", "p90Micros", "p99Micros", "p999Micros"};
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final JWTDecoder decoder;
+    private final KeyEncrypt keyEncrypt;
+    private final InMemoryMetrics metrics;
+    private final int defaultExpiresInDays;
+    private final Duration shutdownGrace;
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final long startedAtNanos = System.nanoTime();
+
+    /**
+     * @param keyEncrypt used by {@code /generate}, or {@code null} to leave that endpoint out
+     * @param metrics    the listener {@code decoder} reports to, summarised by {@code /stats}
+     */
+    VerificationServer(InetSocketAddress address, JWTDecoder decoder, KeyEncrypt keyEncrypt, InMemoryMetrics metrics,
+                       int defaultExpiresInDays, Duration shutdownGrace) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.decoder = decoder;
+        this.keyEncrypt = keyEncrypt;
+        this.metrics = metrics;
+        this.defaultExpiresInDays = defaultExpiresInDays;
+        this.shutdownGrace = shutdownGrace;
+        server.setExecutor(executor);
+        route("/verify", "POST", this::verify);
+        if (keyEncrypt != null) {
+            route("/generate", "POST", this::generate);
+        }
+        route("/stats", "GET", exchange -> new Response(200, stats()));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    void awaitStopped() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Stops accepting connections, waits up to the shutdown grace period for exchanges in progress
+     * and then interrupts any that are still running.
+     */
+    @Override
+    public synchronized void close() {
+        if (stopped.getCount() == 0) {
+            return;
+        }
+        log.info("Stopping, waiting up to {} s for requests in progress", shutdownGrace.toSeconds());
+        server.stop((int) shutdownGrace.toSeconds());
+        // server.stop has already waited out the grace period for exchanges in progress
+        executor.shutdownNow();
+        stopped.countDown();
+    }
+
+    private void route(String path, String method, Handler handler) {
+        LatencyHistogram latency = new LatencyHistogram();
+        latencies.put(path.substring(1), latency);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            try (exchange) {
+                Response response;
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    response = error(404, "Not found");
+                } else if (!exchange.getRequestMethod().equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", method);
+                    response = error(405, "Method not allowed");
+                } else {
+                    response = handler.handle(exchange);
+                }
+                send(exchange, response);
+            } catch (RuntimeException e) {
+                log.warn("Request to {} failed: {}", path, e.getMessage());
+            } finally {
+                latency.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    private Response verify(HttpExchange exchange) throws IOException {
+        String token = bearerToken(exchange);
+        if (token == null) {
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                return error(413, "Token is too large");
+            }
+            token = new String(body, StandardCharsets.UTF_8).trim();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            Claims claims = decoder.decodeAndVerify(token);
+            result.put("valid", true);
+            result.put("claims", Json.claims(claims));
+            return new Response(200, result);
+        } catch (JWTVerificationException e) {
+            result.put("valid", false);
+            result.put("error", String.valueOf(e.getMessage()));
+            return new Response(401, result);
+        }
+    }
+
+    private Response generate(HttpExchange exchange) {
+        Map<String, String> parameters = queryParameters(exchange.getRequestURI().getRawQuery());
+        String username = parameters.get("username");
+        if (username == null || username.isBlank()) {
+            return error(400, "username is required");
+        }
+        try {
+            int expiresInDays = parameters.containsKey("expireInDays")
+                    ? Integer.parseInt(parameters.get("expireInDays"))
+                    : defaultExpiresInDays;
+            String jwt = GenerateTokenApp.mintTdlToken(keyEncrypt, username, parameters.get("journey"), expiresInDays);
+            return new Response(200, Map.of("token", jwt));
+        } catch (IllegalArgumentException e) {
+            return error(400, String.valueOf(e.getMessage()));
+        } catch (KeyOperationException e) {
+            return error(503, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("uptimeSeconds", Duration.ofNanos(System.nanoTime() - startedAtNanos).toSeconds());
+        Map<String, Object> requests = new LinkedHashMap<>();
+        latencies.forEach((endpoint, latency) -> requests.put(endpoint, summary(latency.snapshot())));
+        stats.put("requests", requests);
+        Map<String, Object> outcomes = new LinkedHashMap<>();
+        metrics.outcomes(Operation.JWT_VERIFY).forEach((outcome, count) -> outcomes.put(outcome.name(), count));
+        stats.put("verifyOutcomes", outcomes);
+        stats.put("kmsDecrypt", summary(metrics.latency(Operation.KMS_DECRYPT)));
+        return stats;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", snapshot.count());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            summary.put(PERCENTILE_NAMES[i], snapshot.percentile(PERCENTILES[i]) / 1_000);
+        }
+        summary.put("maxMicros", snapshot.max() / 1_000);
+        return summary;
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return authorization.substring(7).trim();
+        }
+        return null;
+    }
+
+    /**
+     * @return the request body, or {@code null} when it is larger than {@link #MAX_BODY_BYTES}
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readNBytes(MAX_BODY_BYTES + 1);
+            return bytes.length > MAX_BODY_BYTES ? null : bytes;
+        }
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, Map.of("error", message));
+    }
+
+    private static void send(HttpExchange exchange, Response response) {
+        byte[] body = (Json.write(response.body()) + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.status(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private record Response(int status, Map<String, ?> body) {
+    }
+}
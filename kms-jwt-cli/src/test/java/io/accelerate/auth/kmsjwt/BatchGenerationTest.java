@@ -0,0 +1,110 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+class BatchGenerationTest {
+    private static final KeyEncrypt KEY_ENCRYPT = plaintext -> {
+        byte[] ciphertext = Arrays.copyOf(plaintext, plaintext.length + 1);
+        ciphertext[plaintext.length] = 'X';
+        return ciphertext;
+    };
+    private static final JWTDecoder DECODER = new JWTDecoder(ciphertext -> Arrays.copyOf(ciphertext, ciphertext.length - 1));
+
+    @Test
+    void mints_one_verifiable_token_per_row_in_input_order() throws Exception {
+        String input = """
+                username,journey,expiryDays
+                # a comment
+
+                alice,"SUM,UPR",5
+                bob,CHK
+                "carol, jr",HLO,
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchGeneration.Summary summary = run(KEY_ENCRYPT, input, output);
+
+        List<String> rows = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(summary.generated(), is(3L));
+        assertThat(summary.rejected(), is(0L));
+        assertThat(rows.size(), is(3));
+
+        Claims alice = verify(rows.get(0), "alice");
+        assertThat(alice.get("tdl_wrm", List.class), is(List.of("SUM")));
+        assertThat(alice.get("tdl_chx", String.class), is("UPR"));
+        assertThat(daysUntil(alice.getExpiration()), is(5L));
+        assertThat(daysUntil(verify(rows.get(1), "bob").getExpiration()), is(2L));
+        assertThat(verify(rows.get(2), "\"carol, jr\"").get("usr", String.class), is("carol, jr"));
+    }
+
+    @Test
+    void skips_and_counts_rows_that_cannot_be_minted() throws Exception {
+        String input = """
+                alice
+                ,SUM
+                bob,SUM,-1
+                carol,SUM,soon
+                dave,SUM,1,extra
+                erin," , "
+                frank,SUM
+                """;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchGeneration.Summary summary = run(KEY_ENCRYPT, input, output);
+
+        List<String> rows = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(summary.generated(), is(1L));
+        assertThat(summary.rejected(), is(6L));
+        assertThat(rows.size(), is(1));
+        verify(rows.get(0), "frank");
+    }
+
+    @Test
+    void counts_key_encryption_failures_as_rejected_rows() throws Exception {
+        KeyEncrypt failing = plaintext -> {
+            throw new KeyOperationException("KMS unavailable");
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchGeneration.Summary summary = run(failing, "alice,SUM\nbob,SUM\n", output);
+
+        assertThat(summary.generated(), is(0L));
+        assertThat(summary.rejected(), is(2L));
+        assertThat(output.size(), is(0));
+    }
+
+    private static BatchGeneration.Summary run(KeyEncrypt keyEncrypt, String input, ByteArrayOutputStream output) throws Exception {
+        try (PrintStream printStream = new PrintStream(output, false, StandardCharsets.UTF_8)) {
+            return new BatchGeneration(keyEncrypt, 4, 2).run(new BufferedReader(new StringReader(input)), printStream);
+        }
+    }
+
+    private static Claims verify(String row, String expectedUsernameField) throws Exception {
+        int separator = row.lastIndexOf(',');
+        assertThat(row.substring(0, separator), is(expectedUsernameField));
+        return DECODER.decodeAndVerify(row.substring(separator + 1));
+    }
+
+    private static long daysUntil(Date expiry) {
+        long millis = expiry.getTime() - System.currentTimeMillis();
+        assertThat(millis, greaterThan(0L));
+        return Math.round(millis / 86_400_000.0);
+    }
+}
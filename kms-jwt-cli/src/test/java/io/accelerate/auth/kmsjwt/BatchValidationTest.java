@@ -0,0 +1,73 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+class BatchValidationTest {
+    private static final KeyEncrypt KEY_ENCRYPT = plaintext -> {
+        byte[] ciphertext = Arrays.copyOf(plaintext, plaintext.length + 1);
+        ciphertext[plaintext.length] = 'X';
+        return ciphertext;
+    };
+    private static final JWTDecoder DECODER = new JWTDecoder(ciphertext -> Arrays.copyOf(ciphertext, ciphertext.length - 1));
+
+    @Test
+    void writes_one_result_per_token_in_input_order() throws Exception {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            input.append(GenerateTokenApp.mintTdlToken(KEY_ENCRYPT, "user-" + i, "SUM,UPR", 1)).append('\n');
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchValidation.Summary summary = run(input.toString(), output);
+
+        List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(summary.valid(), is(50L));
+        assertThat(summary.invalid(), is(0L));
+        assertThat(lines.size(), is(50));
+        for (int i = 0; i < 50; i++) {
+            assertThat(lines.get(i), startsWith("{\"index\":" + i + ",\"valid\":true,\"claims\":{"));
+            assertThat(lines.get(i), containsString("\"usr\":\"user-" + i + "\""));
+        }
+    }
+
+    @Test
+    void reports_invalid_tokens_and_keeps_line_indexes_across_blank_lines() throws Exception {
+        String valid = GenerateTokenApp.mintTdlToken(KEY_ENCRYPT, "alice", "SUM", 1);
+        int signature = valid.lastIndexOf('.') + 1;
+        String tampered = valid.substring(0, signature) + (valid.charAt(signature) == 'A' ? 'B' : 'A') + valid.substring(signature + 1);
+        String input = "not-a-token\n\n  " + valid + "  \n" + tampered + "\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        BatchValidation.Summary summary = run(input, output);
+
+        List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertThat(summary.valid(), is(1L));
+        assertThat(summary.invalid(), is(2L));
+        assertThat(summary.total(), is(3L));
+        assertThat(lines.size(), is(3));
+        assertThat(lines.get(0), startsWith("{\"index\":0,\"valid\":false,\"error\":"));
+        assertThat(lines.get(1), startsWith("{\"index\":2,\"valid\":true,"));
+        assertThat(lines.get(2), startsWith("{\"index\":3,\"valid\":false,\"error\":"));
+    }
+
+    private static BatchValidation.Summary run(String input, ByteArrayOutputStream output) throws Exception {
+        try (PrintStream printStream = new PrintStream(output, false, StandardCharsets.UTF_8)) {
+            return new BatchValidation(DECODER, 8).run(new BufferedReader(new StringReader(input)), printStream);
+        }
+    }
+}
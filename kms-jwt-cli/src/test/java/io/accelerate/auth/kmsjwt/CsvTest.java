@@ -0,0 +1,47 @@
+package io.accelerate.auth.kmsjwt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvTest {
+
+    @Test
+    void splits_on_commas_and_trims_fields() {
+        assertThat(Csv.parseLine("alice, SUM ,3"), is(List.of("alice", "SUM", "3")));
+        assertThat(Csv.parseLine("alice,,"), is(List.of("alice", "", "")));
+        assertThat(Csv.parseLine(""), is(List.of("")));
+    }
+
+    @Test
+    void keeps_commas_and_escaped_quotes_inside_quoted_fields() {
+        assertThat(Csv.parseLine("alice,\"SUM,UPR\",2"), is(List.of("alice", "SUM,UPR", "2")));
+        assertThat(Csv.parseLine("\"say \"\"hi\"\"\",x"), is(List.of("say \"hi\"", "x")));
+    }
+
+    @Test
+    void rejects_unterminated_quoted_field() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> Csv.parseLine("alice,\"SUM,UPR"));
+
+        assertThat(e.getMessage(), is("Unterminated quoted field"));
+    }
+
+    @Test
+    void escapes_only_values_that_need_quoting() {
+        assertThat(Csv.escape("alice"), is("alice"));
+        assertThat(Csv.escape("a,b"), is("\"a,b\""));
+        assertThat(Csv.escape("say \"hi\""), is("\"say \"\"hi\"\"\""));
+        assertThat(Csv.escape("two\nlines"), is("\"two\nlines\""));
+    }
+
+    @Test
+    void escaped_values_parse_back_to_themselves() {
+        for (String value : new String[]{"alice", "a,b", "say \"hi\"", "\"quoted\""}) {
+            assertThat(Csv.parseLine(Csv.escape(value) + ",next"), is(List.of(value, "next")));
+        }
+    }
+}
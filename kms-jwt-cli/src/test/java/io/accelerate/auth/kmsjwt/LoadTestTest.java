@@ -0,0 +1,90 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KMSDecrypt;
+import io.accelerate.auth.kmsjwt.key.KMSEncrypt;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.testing.FakeKms;
+import io.accelerate.auth.kmsjwt.testing.Latency;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+class LoadTestTest {
+    private static final Pattern MEDIAN = Pattern.compile("(Response|Service) time +p50/p90/p99/p99\\.9/max \\(ms\\): ([0-9.]+)/");
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+
+    @Test
+    void response_time_includes_the_wait_for_a_free_slot_when_kms_cannot_keep_up() throws Exception {
+        FakeKms kms = FakeKms.builder()
+                .latency(Latency.fixed(Duration.ofMillis(10)))
+                .build();
+
+        // Each operation mints and verifies a token in about 20 ms, one at a time, but one is due every 10 ms
+        LoadTest.Summary summary = run(kms, new LoadTest.Settings(100, 1, Duration.ofSeconds(1), Duration.ofSeconds(1), 0));
+
+        assertThat(summary.errors(), is(0L));
+        assertThat(summary.operationsPerSecond(), lessThan(95.0));
+        assertThat(printed(), containsString("Target rate of 100.0 ops/s was NOT sustained"));
+        double serviceMillis = medianMillis("Service");
+        assertThat(serviceMillis, greaterThan(15.0));
+        assertThat(medianMillis("Response"), greaterThan(5 * serviceMillis));
+    }
+
+    @Test
+    void counts_throttled_kms_calls_as_throttled_errors() throws Exception {
+        FakeKms kms = FakeKms.builder().build();
+        kms.failNext(3, FakeKms::throttlingException, FakeKms.Api.DECRYPT);
+
+        LoadTest.Summary summary = run(kms, new LoadTest.Settings(0, 1, Duration.ofMillis(200), Duration.ofSeconds(1), 0));
+
+        assertThat(summary.completed(), greaterThan(3L));
+        assertThat(summary.errors(), is(3L));
+        assertThat(summary.throttled(), is(3L));
+        assertThat(metrics.count(Operation.KMS_DECRYPT, Outcome.THROTTLED), is(3L));
+        assertThat(printed(), containsString(", 3 errors, 3 throttled"));
+    }
+
+    private LoadTest.Summary run(FakeKms kms, LoadTest.Settings settings) throws InterruptedException {
+        KmsClient kmsClient = kms.client();
+        String keyArn = kms.createKey();
+        JWTDecoder decoder = JWTDecoder.builder(new KMSDecrypt(kmsClient, Set.of(keyArn), metrics))
+                .metrics(metrics)
+                .build();
+        LoadTest loadTest = new LoadTest(new KMSEncrypt(kmsClient, keyArn, metrics), decoder, metrics, settings);
+        try (PrintStream printStream = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+            return loadTest.run(printStream);
+        }
+    }
+
+    private String printed() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private double medianMillis(String kind) {
+        Matcher matcher = MEDIAN.matcher(printed());
+        while (matcher.find()) {
+            if (matcher.group(1).equals(kind)) {
+                return Double.parseDouble(matcher.group(2));
+            }
+        }
+        throw new AssertionError(kind + " time percentiles not printed:\n" + printed());
+    }
+}
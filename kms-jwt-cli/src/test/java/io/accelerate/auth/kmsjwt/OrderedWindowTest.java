@@ -0,0 +1,101 @@
+package io.accelerate.auth.kmsjwt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OrderedWindowTest {
+
+    @Test
+    void hands_results_to_the_sink_in_submission_order() {
+        List<Integer> results = new ArrayList<>();
+
+        try (OrderedWindow<Integer> window = new OrderedWindow<>(4, results::add)) {
+            for (int i = 0; i < 20; i++) {
+                int value = i;
+                window.submit(() -> {
+                    Thread.sleep((20 - value) % 5);
+                    return value;
+                });
+            }
+        }
+
+        assertThat(results.size(), is(20));
+        for (int i = 0; i < 20; i++) {
+            assertThat(results.get(i), is(i));
+        }
+    }
+
+    @Test
+    void keeps_no_more_than_its_size_in_flight() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Integer> results = new ArrayList<>();
+
+        try (OrderedWindow<Integer> window = new OrderedWindow<>(3, results::add)) {
+            for (int i = 0; i < 30; i++) {
+                int value = i;
+                window.submit(() -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    Thread.sleep(1);
+                    inFlight.decrementAndGet();
+                    return value;
+                });
+            }
+        }
+
+        assertThat(results.size(), is(30));
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(3));
+    }
+
+    @Test
+    void submit_waits_for_the_oldest_task_once_full() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> results = new ArrayList<>();
+
+        try (OrderedWindow<String> window = new OrderedWindow<>(1, results::add)) {
+            window.submit(() -> {
+                release.await(5, TimeUnit.SECONDS);
+                return "first";
+            });
+            Thread submitter = Thread.ofVirtual().start(() -> window.submit(() -> "second"));
+            submitter.join(50);
+            assertThat(submitter.isAlive(), is(true));
+
+            release.countDown();
+            submitter.join();
+            assertThat(results, is(List.of("first")));
+        }
+
+        assertThat(results, is(List.of("first", "second")));
+    }
+
+    @Test
+    void reports_a_failed_task_as_illegal_state() {
+        OrderedWindow<String> window = new OrderedWindow<>(2, result -> { });
+        window.submit(() -> {
+            throw new Exception("boom");
+        });
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, window::close);
+
+        assertThat(e.getMessage(), is("Batch task failed unexpectedly"));
+        assertThat(e.getCause(), instanceOf(Exception.class));
+        assertThat(e.getCause().getMessage(), is("boom"));
+    }
+
+    @Test
+    void rejects_non_positive_size() {
+        assertThrows(IllegalArgumentException.class, () -> new OrderedWindow<String>(0, result -> { }));
+    }
+}
@@ -0,0 +1,210 @@
+package io.accelerate.auth.kmsjwt;
+
+import io.accelerate.auth.kmsjwt.key.KMSDecrypt;
+import io.accelerate.auth.kmsjwt.key.KMSEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.testing.FakeKms;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.startsWith;
+
+class VerificationServerTest {
+    private static final Pattern TOKEN = Pattern.compile("\\{\"token\":\"([^\"]+)\"}");
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private FakeKms kms;
+    private KmsClient kmsClient;
+    private String keyArn;
+    private InMemoryMetrics metrics;
+    private KMSEncrypt kmsEncrypt;
+    private VerificationServer server;
+
+    @BeforeEach
+    void setUp() {
+        kms = FakeKms.builder().build();
+        kmsClient = kms.client();
+        keyArn = kms.createKey();
+        metrics = new InMemoryMetrics();
+        kmsEncrypt = new KMSEncrypt(kmsClient, keyArn);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void routes_only_known_paths_and_methods() throws Exception {
+        start(null);
+
+        HttpResponse<String> wrongMethod = send(HttpRequest.newBuilder(uri("/verify")).GET());
+        assertThat(wrongMethod.statusCode(), is(405));
+        assertThat(wrongMethod.headers().firstValue("Allow").orElse(null), is("POST"));
+        assertThat(wrongMethod.body(), is("{\"error\":\"Method not allowed\"}\n"));
+
+        HttpResponse<String> subPath = send(post("/verify/extra", "token"));
+        assertThat(subPath.statusCode(), is(404));
+        assertThat(subPath.body(), is("{\"error\":\"Not found\"}\n"));
+
+        assertThat(send(post("/unknown", "")).statusCode(), is(404));
+        assertThat(send(HttpRequest.newBuilder(uri("/stats")).POST(HttpRequest.BodyPublishers.noBody())).statusCode(), is(405));
+    }
+
+    @Test
+    void verifies_a_token_sent_as_the_body() throws Exception {
+        start(null);
+        String jwt = GenerateTokenApp.mintTdlToken(kmsEncrypt, "alice", "SUM,UPR", 1);
+
+        HttpResponse<String> response = send(post("/verify", jwt + "\n"));
+
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.headers().firstValue("Content-Type").orElse(null), is("application/json"));
+        assertThat(response.body(), startsWith("{\"valid\":true,\"claims\":{"));
+        assertThat(response.body(), containsString("\"usr\":\"alice\""));
+    }
+
+    @Test
+    void prefers_a_bearer_token_over_the_body() throws Exception {
+        start(null);
+        String jwt = GenerateTokenApp.mintTdlToken(kmsEncrypt, "alice", "SUM,UPR", 1);
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/verify"))
+                .header("Authorization", "bearer " + jwt)
+                .POST(HttpRequest.BodyPublishers.ofString("not-a-token")));
+
+        assertThat(response.statusCode(), is(200));
+        assertThat(response.body(), containsString("\"usr\":\"alice\""));
+    }
+
+    @Test
+    void rejects_invalid_tokens_with_401_and_the_reason() throws Exception {
+        start(null);
+
+        HttpResponse<String> response = send(post("/verify", "not-a-token"));
+
+        assertThat(response.statusCode(), is(401));
+        assertThat(response.body(), matchesPattern("\\{\"valid\":false,\"error\":\"[^\"]+\"}\n"));
+    }
+
+    @Test
+    void rejects_bodies_over_the_limit_with_413() throws Exception {
+        start(null);
+
+        HttpResponse<String> response = send(post("/verify", "x".repeat(16 * 1024 + 1)));
+
+        assertThat(response.statusCode(), is(413));
+        assertThat(response.body(), is("{\"error\":\"Token is too large\"}\n"));
+        assertThat(send(post("/verify", "x".repeat(16 * 1024))).statusCode(), is(401));
+    }
+
+    @Test
+    void generates_tokens_only_when_given_a_key_encrypt() throws Exception {
+        start(null);
+        assertThat(send(post("/generate?username=alice&journey=SUM", "")).statusCode(), is(404));
+        server.close();
+
+        start(kmsEncrypt);
+        HttpResponse<String> response = send(post("/generate?username=alice%20smith&journey=SUM%2CUPR&expireInDays=3", ""));
+
+        assertThat(response.statusCode(), is(200));
+        Matcher token = TOKEN.matcher(response.body().trim());
+        assertThat(token.matches(), is(true));
+        HttpResponse<String> verified = send(post("/verify", token.group(1)));
+        assertThat(verified.statusCode(), is(200));
+        assertThat(verified.body(), containsString("\"usr\":\"alice smith\""));
+
+        assertThat(send(post("/generate?journey=SUM", "")).body(), is("{\"error\":\"username is required\"}\n"));
+        assertThat(send(post("/generate?username=alice", "")).statusCode(), is(400));
+        assertThat(send(post("/generate?username=alice&journey=SUM&expireInDays=soon", "")).statusCode(), is(400));
+    }
+
+    @Test
+    void reports_request_latencies_and_verify_outcomes_on_stats() throws Exception {
+        start(null);
+        String jwt = GenerateTokenApp.mintTdlToken(kmsEncrypt, "alice", "SUM,UPR", 1);
+        send(post("/verify", jwt));
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/stats")).GET());
+
+        assertThat(response.statusCode(), is(200));
+        // An exchange's latency is recorded just after its response is sent, so the /verify one may not be in yet
+        String latency = "\\{\"count\":%s,\"p50Micros\":\\d+,\"p90Micros\":\\d+,\"p99Micros\":\\d+,\"p999Micros\":\\d+,\"maxMicros\":\\d+}";
+        assertThat(response.body(), matchesPattern("\\{\"uptimeSeconds\":\\d+,"
+                + "\"requests\":\\{\"verify\":" + String.format(latency, "[01]") + ",\"stats\":" + String.format(latency, "0") + "},"
+                + "\"verifyOutcomes\":\\{\"SUCCESS\":1},"
+                + "\"kmsDecrypt\":" + String.format(latency, "1") + "}\n"));
+    }
+
+    @Test
+    void close_interrupts_requests_still_running_after_the_grace_period() throws Exception {
+        CountDownLatch decrypting = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        JWTDecoder hangingDecoder = new JWTDecoder(ciphertext -> {
+            decrypting.countDown();
+            try {
+                Thread.sleep(Duration.ofMinutes(1));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new KeyOperationException("Interrupted", e);
+            }
+            return ciphertext;
+        });
+        server = new VerificationServer(new InetSocketAddress("127.0.0.1", 0), hangingDecoder, null, metrics, 2, Duration.ZERO);
+        server.start();
+        String jwt = GenerateTokenApp.mintTdlToken(kmsEncrypt, "alice", "SUM,UPR", 1);
+        http.sendAsync(post("/verify", jwt).build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(decrypting.await(5, TimeUnit.SECONDS), is(true));
+
+        long start = System.nanoTime();
+        server.close();
+
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(5)));
+        assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    private void start(KeyEncrypt keyEncrypt) throws IOException {
+        JWTDecoder decoder = JWTDecoder.builder(new KMSDecrypt(kmsClient, Set.of(keyArn), metrics))
+                .metrics(metrics)
+                .build();
+        server = new VerificationServer(new InetSocketAddress("127.0.0.1", 0), decoder, keyEncrypt, metrics, 2, Duration.ZERO);
+        server.start();
+    }
+
+    private URI uri(String pathAndQuery) {
+        return URI.create("http://127.0.0.1:" + server.address().getPort() + pathAndQuery);
+    }
+
+    private HttpRequest.Builder post(String pathAndQuery, String body) {
+        return HttpRequest.newBuilder(uri(pathAndQuery)).POST(HttpRequest.BodyPublishers.ofString(body));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
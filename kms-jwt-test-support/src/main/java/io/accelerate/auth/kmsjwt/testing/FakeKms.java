@@ -0,0 +1,596 @@
+package io.accelerate.auth.kmsjwt.testing;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AlreadyExistsException;
+import software.amazon.awssdk.services.kms.model.CreateAliasRequest;
+import software.amazon.awssdk.services.kms.model.CreateAliasResponse;
+import software.amazon.awssdk.services.kms.model.CreateKeyRequest;
+import software.amazon.awssdk.services.kms.model.CreateKeyResponse;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.DisableKeyRequest;
+import software.amazon.awssdk.services.kms.model.DisableKeyResponse;
+import software.amazon.awssdk.services.kms.model.DisabledException;
+import software.amazon.awssdk.services.kms.model.EnableKeyRequest;
+import software.amazon.awssdk.services.kms.model.EnableKeyResponse;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+import software.amazon.awssdk.services.kms.model.EncryptResponse;
+import software.amazon.awssdk.services.kms.model.EncryptionAlgorithmSpec;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.IncorrectKeyException;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+import software.amazon.awssdk.services.kms.model.KeyMetadata;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyState;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory KMS for tests and benchmarks, reached through {@link #client()} and {@link #asyncClient()}.
+ * Symmetric keys are real AES-256 keys with KMS-style key IDs and ARNs, and ciphertexts are AES-GCM with the
+ * encryption context as additional data, so tampered or mismatched ciphertexts fail the way they do in KMS.
+ * Aliases, disabled keys, latency, a requests-per-second quota and injected faults make it behave like
+ * a production KMS without leaving the process. Nothing is persisted.
+ */
+public final class FakeKms {
+    private static final byte CIPHERTEXT_VERSION = 1;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int MAX_PLAINTEXT_BYTES = 4096;
+
+    /**
+     * The KMS operations the fake supports. Encrypt, decrypt and generate data key share the requests-per-second quota.
+     */
+    public enum Api {
+        CREATE_KEY(false),
+        CREATE_ALIAS(false),
+        DESCRIBE_KEY(false),
+        ENABLE_KEY(false),
+        DISABLE_KEY(false),
+        ENCRYPT(true),
+        DECRYPT(true),
+        GENERATE_DATA_KEY(true);
+
+        private final boolean cryptographic;
+
+        Api(boolean cryptographic) {
+            this.cryptographic = cryptographic;
+        }
+    }
+
+    private final String region;
+    private final String accountId;
+    private final Latency latency;
+    private final Map<Api, Latency> latencies;
+    private final int requestsPerSecond;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final ConcurrentMap<String, Key> keys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> aliases = new ConcurrentHashMap<>();
+    private final List<Fault> faults = new CopyOnWriteArrayList<>();
+    private final Map<Api, LongAdder> requests = new EnumMap<>(Api.class);
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder injectedFaults = new LongAdder();
+    private double quotaTokens;
+    private long quotaRefilledAtNanos = System.nanoTime();
+
+    private FakeKms(Builder builder) {
+        this.region = builder.region;
+        this.accountId = builder.accountId;
+        this.latency = builder.latency;
+        this.latencies = new EnumMap<>(builder.latencies);
+        this.requestsPerSecond = builder.requestsPerSecond;
+        this.quotaTokens = requestsPerSecond;
+        for (Api api : Api.values()) {
+            requests.put(api, new LongAdder());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A synchronous client. Calls block for their latency; closing it does nothing.
+     */
+    public KmsClient client() {
+        return new FakeKmsClient(this);
+    }
+
+    /**
+     * An asynchronous client that completes each call on a virtual thread once its latency has passed.
+     * Failures complete the future with a {@code CompletionException}, as the AWS SDK does.
+     */
+    public KmsAsyncClient asyncClient() {
+        return new FakeKmsAsyncClient(this);
+    }
+
+    /**
+     * Creates a symmetric key without going through a client, i.e. without latency, quota or faults.
+     *
+     * @return the key ARN
+     */
+    public String createKey() {
+        return createKey(CreateKeyRequest.builder().build()).keyMetadata().arn();
+    }
+
+    /**
+     * Points {@code aliasName} (e.g. {@code alias/my-key}) at a key, replacing any previous target.
+     * Like {@link #createKey()}, this bypasses latency, quota and faults.
+     */
+    public void setAlias(String aliasName, String keyId) {
+        checkAliasName(aliasName);
+        aliases.put(aliasName, resolve(keyId).id());
+    }
+
+    public void setEnabled(String keyId, boolean enabled) {
+        resolve(keyId).enabled = enabled;
+    }
+
+    /**
+     * Fails the next {@code count} calls to any of {@code apis} (to any operation when none are given).
+     */
+    public void failNext(int count, Supplier<? extends SdkException> failure, Api... apis) {
+        faults.add(new Fault(apis, 1.0, new AtomicInteger(count), failure));
+    }
+
+    /**
+     * Fails each call to any of {@code apis} (to any operation when none are given) with the given probability, until {@link #clearFaults()}.
+     */
+    public void failRandomly(double probability, Supplier<? extends SdkException> failure, Api... apis) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("Probability must be between 0 and 1");
+        }
+        faults.add(new Fault(apis, probability, null, failure));
+    }
+
+    public void clearFaults() {
+        faults.clear();
+    }
+
+    /**
+     * @return the calls made to {@code api}, including those throttled or failed on purpose
+     */
+    public long requests(Api api) {
+        return requests.get(api).sum();
+    }
+
+    /**
+     * @return the calls rejected because they went over the requests-per-second quota
+     */
+    public long throttled() {
+        return throttled.sum();
+    }
+
+    public long injectedFaults() {
+        return injectedFaults.sum();
+    }
+
+    public static KmsException throttlingException() {
+        return error("ThrottlingException", 400, "Rate exceeded");
+    }
+
+    public static KmsException internalException() {
+        return error("KMSInternalException", 500, "An internal error occurred");
+    }
+
+    public static KmsException dependencyTimeoutException() {
+        return error("DependencyTimeoutException", 503, "The system timed out while trying to fulfill the request");
+    }
+
+    <T> T call(Api api, Supplier<T> operation) {
+        requests.get(api).increment();
+        pause(latencies.getOrDefault(api, latency).nextNanos(ThreadLocalRandom.current()));
+        if (api.cryptographic && !withinQuota()) {
+            throttled.increment();
+            throw throttlingException();
+        }
+        for (Fault fault : faults) {
+            if (fault.triggers(api)) {
+                injectedFaults.increment();
+                throw fault.failure.get();
+            }
+        }
+        return operation.get();
+    }
+
+    CreateKeyResponse createKey(CreateKeyRequest request) {
+        KeySpec keySpec = request.keySpec() == null ? KeySpec.SYMMETRIC_DEFAULT : request.keySpec();
+        KeyUsageType keyUsage = request.keyUsage() == null ? KeyUsageType.ENCRYPT_DECRYPT : request.keyUsage();
+        if (keySpec != KeySpec.SYMMETRIC_DEFAULT || keyUsage != KeyUsageType.ENCRYPT_DECRYPT) {
+            throw error("UnsupportedOperationException", 400, "Only symmetric encryption keys are supported by the fake KMS");
+        }
+        byte[] material = new byte[32];
+        secureRandom.nextBytes(material);
+        String id = UUID.randomUUID().toString();
+        Key key = new Key(id, "arn:aws:kms:" + region + ":" + accountId + ":key/" + id, request.description(),
+                Instant.now(), new SecretKeySpec(material, "AES"));
+        keys.put(id, key);
+        return CreateKeyResponse.builder().keyMetadata(key.metadata(accountId)).build();
+    }
+
+    CreateAliasResponse createAlias(CreateAliasRequest request) {
+        checkAliasName(request.aliasName());
+        String target = resolve(request.targetKeyId()).id();
+        if (aliases.putIfAbsent(request.aliasName(), target) != null) {
+            throw AlreadyExistsException.builder()
+                    .message("An alias with the name " + aliasArn(request.aliasName()) + " already exists")
+                    .statusCode(400)
+                    .awsErrorDetails(details("AlreadyExistsException", "Alias already exists"))
+                    .build();
+        }
+        return CreateAliasResponse.builder().build();
+    }
+
+    DescribeKeyResponse describeKey(DescribeKeyRequest request) {
+        return DescribeKeyResponse.builder().keyMetadata(resolve(request.keyId()).metadata(accountId)).build();
+    }
+
+    EnableKeyResponse enableKey(EnableKeyRequest request) {
+        resolve(request.keyId()).enabled = true;
+        return EnableKeyResponse.builder().build();
+    }
+
+    DisableKeyResponse disableKey(DisableKeyRequest request) {
+        resolve(request.keyId()).enabled = false;
+        return DisableKeyResponse.builder().build();
+    }
+
+    EncryptResponse encrypt(EncryptRequest request) {
+        Key key = enabled(resolve(request.keyId()));
+        byte[] plaintext = request.plaintext() == null ? new byte[0] : request.plaintext().asByteArray();
+        if (plaintext.length == 0 || plaintext.length > MAX_PLAINTEXT_BYTES) {
+            throw error("ValidationException", 400, "Plaintext must be between 1 and " + MAX_PLAINTEXT_BYTES + " bytes");
+        }
+        return EncryptResponse.builder()
+                .keyId(key.arn())
+                .ciphertextBlob(SdkBytes.fromByteArray(seal(key, plaintext, request.encryptionContext())))
+                .encryptionAlgorithm(EncryptionAlgorithmSpec.SYMMETRIC_DEFAULT)
+                .build();
+    }
+
+    DecryptResponse decrypt(DecryptRequest request) {
+        byte[] ciphertext = request.ciphertextBlob() == null ? new byte[0] : request.ciphertextBlob().asByteArray();
+        if (ciphertext.length < 2 || ciphertext[0] != CIPHERTEXT_VERSION) {
+            throw invalidCiphertext();
+        }
+        int keyIdLength = ciphertext[1] & 0xff;
+        int ivOffset = 2 + keyIdLength;
+        Key key = ciphertext.length < ivOffset + IV_BYTES + TAG_BITS / 8
+                ? null
+                : keys.get(new String(ciphertext, 2, keyIdLength, StandardCharsets.US_ASCII));
+        if (key == null) {
+            throw invalidCiphertext();
+        }
+        if (request.keyId() != null && !resolve(request.keyId()).id().equals(key.id())) {
+            throw IncorrectKeyException.builder()
+                    .message("The key ID in the request does not identify a CMK that can perform this operation.")
+                    .statusCode(400)
+                    .awsErrorDetails(details("IncorrectKeyException", "Incorrect key"))
+                    .build();
+        }
+        enabled(key);
+        byte[] plaintext = open(key, ciphertext, ivOffset, request.encryptionContext());
+        return DecryptResponse.builder()
+                .keyId(key.arn())
+                .plaintext(SdkBytes.fromByteArray(plaintext))
+                .encryptionAlgorithm(EncryptionAlgorithmSpec.SYMMETRIC_DEFAULT)
+                .build();
+    }
+
+    GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest request) {
+        Key key = enabled(resolve(request.keyId()));
+        int length;
+        if (request.numberOfBytes() != null && request.keySpec() == null) {
+            length = request.numberOfBytes();
+        } else if (request.numberOfBytes() == null && request.keySpec() == DataKeySpec.AES_256) {
+            length = 32;
+        } else if (request.numberOfBytes() == null && request.keySpec() == DataKeySpec.AES_128) {
+            length = 16;
+        } else {
+            throw error("ValidationException", 400, "Exactly one of KeySpec and NumberOfBytes is required");
+        }
+        if (length < 1 || length > 1024) {
+            throw error("ValidationException", 400, "NumberOfBytes must be between 1 and 1024");
+        }
+        byte[] plaintext = new byte[length];
+        secureRandom.nextBytes(plaintext);
+        return GenerateDataKeyResponse.builder()
+                .keyId(key.arn())
+                .plaintext(SdkBytes.fromByteArray(plaintext))
+                .ciphertextBlob(SdkBytes.fromByteArray(seal(key, plaintext, request.encryptionContext())))
+                .build();
+    }
+
+    /**
+     * Ciphertexts are the version, the key ID, the IV and the AES-GCM output, so that decrypt can find the key by itself.
+     */
+    private byte[] seal(Key key, byte[] plaintext, Map<String, String> encryptionContext) {
+        byte[] keyId = key.id().getBytes(StandardCharsets.US_ASCII);
+        byte[] iv = new byte[IV_BYTES];
+        secureRandom.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key.material(), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(additionalData(encryptionContext));
+            byte[] sealed = cipher.doFinal(plaintext);
+            return ByteBuffer.allocate(2 + keyId.length + iv.length + sealed.length)
+                    .put(CIPHERTEXT_VERSION)
+                    .put((byte) keyId.length)
+                    .put(keyId)
+                    .put(iv)
+                    .put(sealed)
+                    .array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    }
+
+    private static byte[] open(Key key, byte[] ciphertext, int ivOffset, Map<String, String> encryptionContext) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key.material(), new GCMParameterSpec(TAG_BITS, ciphertext, ivOffset, IV_BYTES));
+            cipher.updateAAD(additionalData(encryptionContext));
+            return cipher.doFinal(ciphertext, ivOffset + IV_BYTES, ciphertext.length - ivOffset - IV_BYTES);
+        } catch (AEADBadTagException e) {
+            throw invalidCiphertext();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    }
+
+    private static byte[] additionalData(Map<String, String> encryptionContext) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (encryptionContext != null) {
+                for (Map.Entry<String, String> entry : new TreeMap<>(encryptionContext).entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Accepts a key ID, key ARN, alias name or alias ARN, like KMS does.
+     */
+    private Key resolve(String keyId) {
+        String id = keyId == null ? "" : keyId;
+        String prefix = "arn:aws:kms:" + region + ":" + accountId + ":";
+        if (id.startsWith(prefix)) {
+            id = id.substring(prefix.length());
+            id = id.startsWith("key/") ? id.substring(4) : id;
+        }
+        if (id.startsWith("alias/")) {
+            id = aliases.getOrDefault(id, "");
+        }
+        Key key = keys.get(id);
+        if (key == null) {
+            throw NotFoundException.builder()
+                    .message("Key '" + keyId + "' does not exist")
+                    .statusCode(400)
+                    .awsErrorDetails(details("NotFoundException", "Key does not exist"))
+                    .build();
+        }
+        return key;
+    }
+
+    private static Key enabled(Key key) {
+        if (!key.enabled) {
+            throw DisabledException.builder()
+                    .message(key.arn() + " is disabled.")
+                    .statusCode(400)
+                    .awsErrorDetails(details("DisabledException", "Key is disabled"))
+                    .build();
+        }
+        return key;
+    }
+
+    private void checkAliasName(String aliasName) {
+        if (aliasName == null || !aliasName.startsWith("alias/") || aliasName.startsWith("alias/aws/") || aliasName.length() == 6) {
+            throw error("ValidationException", 400, "Alias must start with 'alias/' and must not start with 'alias/aws/'");
+        }
+    }
+
+    private String aliasArn(String aliasName) {
+        return "arn:aws:kms:" + region + ":" + accountId + ":" + aliasName;
+    }
+
+    private synchronized boolean withinQuota() {
+        if (requestsPerSecond <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        quotaTokens = Math.min(requestsPerSecond, quotaTokens + (now - quotaRefilledAtNanos) * requestsPerSecond / 1e9);
+        quotaRefilledAtNanos = now;
+        if (quotaTokens < 1) {
+            return false;
+        }
+        quotaTokens--;
+        return true;
+    }
+
+    private static void pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    private static InvalidCiphertextException invalidCiphertext() {
+        return InvalidCiphertextException.builder()
+                .message("The ciphertext is invalid or does not match the encryption context")
+                .statusCode(400)
+                .awsErrorDetails(details("InvalidCiphertextException", "Invalid ciphertext"))
+                .build();
+    }
+
+    private static KmsException error(String errorCode, int statusCode, String message) {
+        return KmsException.builder()
+                .message(message)
+                .statusCode(statusCode)
+                .awsErrorDetails(details(errorCode, message))
+                .build();
+    }
+
+    private static AwsErrorDetails details(String errorCode, String message) {
+        return AwsErrorDetails.builder().errorCode(errorCode).errorMessage(message).serviceName("Kms").build();
+    }
+
+    private static final class Key {
+        private final String id;
+        private final String arn;
+        private final String description;
+        private final Instant creationDate;
+        private final SecretKey material;
+        private volatile boolean enabled = true;
+
+        Key(String id, String arn, String description, Instant creationDate, SecretKey material) {
+            this.id = id;
+            this.arn = arn;
+            this.description = description;
+            this.creationDate = creationDate;
+            this.material = material;
+        }
+
+        String id() {
+            return id;
+        }
+
+        String arn() {
+            return arn;
+        }
+
+        SecretKey material() {
+            return material;
+        }
+
+        KeyMetadata metadata(String accountId) {
+            return KeyMetadata.builder()
+                    .keyId(id)
+                    .arn(arn)
+                    .awsAccountId(accountId)
+                    .description(description == null ? "" : description)
+                    .creationDate(creationDate)
+                    .enabled(enabled)
+                    .keyState(enabled ? KeyState.ENABLED : KeyState.DISABLED)
+                    .keySpec(KeySpec.SYMMETRIC_DEFAULT)
+                    .keyUsage(KeyUsageType.ENCRYPT_DECRYPT)
+                    .encryptionAlgorithms(EncryptionAlgorithmSpec.SYMMETRIC_DEFAULT)
+                    .multiRegion(false)
+                    .build();
+        }
+    }
+
+    private static final class Fault {
+        private final Set<Api> apis;
+        private final double probability;
+        private final AtomicInteger remaining;
+        private final Supplier<? extends SdkException> failure;
+
+        Fault(Api[] apis, double probability, AtomicInteger remaining, Supplier<? extends SdkException> failure) {
+            this.apis = apis.length == 0 ? Set.of(Api.values()) : Set.of(apis);
+            this.probability = probability;
+            this.remaining = remaining;
+            this.failure = failure;
+        }
+
+        boolean triggers(Api api) {
+            if (!apis.contains(api) || ThreadLocalRandom.current().nextDouble() >= probability) {
+                return false;
+            }
+            return remaining == null || remaining.getAndUpdate(left -> Math.max(0, left - 1)) > 0;
+        }
+    }
+
+    public static final class Builder {
+        private String region = "eu-west-2";
+        private String accountId = "000000000000";
+        private Latency latency = Latency.none();
+        private final Map<Api, Latency> latencies = new EnumMap<>(Api.class);
+        private int requestsPerSecond;
+
+        private Builder() { }
+
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+
+        public Builder accountId(String accountId) {
+            this.accountId = accountId;
+            return this;
+        }
+
+        /**
+         * The latency of every call, unless set for its operation. None by default.
+         */
+        public Builder latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Builder latency(Api api, Latency latency) {
+            this.latencies.put(api, latency);
+            return this;
+        }
+
+        /**
+         * Throttles encrypt, decrypt and generate data key calls over this many per second, as KMS does
+         * with its shared quota for cryptographic operations. Unlimited by default.
+         */
+        public Builder requestsPerSecond(int requestsPerSecond) {
+            if (requestsPerSecond <= 0) {
+                throw new IllegalArgumentException("Requests per second must be positive");
+            }
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        public FakeKms build() {
+            return new FakeKms(this);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.accelerate.auth.kmsjwt.testing;
+
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.CreateAliasRequest;
+import software.amazon.awssdk.services.kms.model.CreateAliasResponse;
+import software.amazon.awssdk.services.kms.model.CreateKeyRequest;
+import software.amazon.awssdk.services.kms.model.CreateKeyResponse;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.DisableKeyRequest;
+import software.amazon.awssdk.services.kms.model.DisableKeyResponse;
+import software.amazon.awssdk.services.kms.model.EnableKeyRequest;
+import software.amazon.awssdk.services.kms.model.EnableKeyResponse;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+import software.amazon.awssdk.services.kms.model.EncryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+final class FakeKmsAsyncClient implements KmsAsyncClient {
+    private final FakeKms kms;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    FakeKmsAsyncClient(FakeKms kms) {
+        this.kms = kms;
+    }
+
+    @Override
+    public CompletableFuture<CreateKeyResponse> createKey(CreateKeyRequest request) {
+        return call(FakeKms.Api.CREATE_KEY, () -> kms.createKey(request));
+    }
+
+    @Override
+    public CompletableFuture<CreateAliasResponse> createAlias(CreateAliasRequest request) {
+        return call(FakeKms.Api.CREATE_ALIAS, () -> kms.createAlias(request));
+    }
+
+    @Override
+    public CompletableFuture<DescribeKeyResponse> describeKey(DescribeKeyRequest request) {
+        return call(FakeKms.Api.DESCRIBE_KEY, () -> kms.describeKey(request));
+    }
+
+    @Override
+    public CompletableFuture<EnableKeyResponse> enableKey(EnableKeyRequest request) {
+        return call(FakeKms.Api.ENABLE_KEY, () -> kms.enableKey(request));
+    }
+
+    @Override
+    public CompletableFuture<DisableKeyResponse> disableKey(DisableKeyRequest request) {
+        return call(FakeKms.Api.DISABLE_KEY, () -> kms.disableKey(request));
+    }
+
+    @Override
+    public CompletableFuture<EncryptResponse> encrypt(EncryptRequest request) {
+        return call(FakeKms.Api.ENCRYPT, () -> kms.encrypt(request));
+    }
+
+    @Override
+    public CompletableFuture<DecryptResponse> decrypt(DecryptRequest request) {
+        return call(FakeKms.Api.DECRYPT, () -> kms.decrypt(request));
+    }
+
+    @Override
+    public CompletableFuture<GenerateDataKeyResponse> generateDataKey(GenerateDataKeyRequest request) {
+        return call(FakeKms.Api.GENERATE_DATA_KEY, () -> kms.generateDataKey(request));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    /**
+     * Lets calls in progress complete.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private <T> CompletableFuture<T> call(FakeKms.Api api, Supplier<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(kms.call(api, operation));
+                } catch (Throwable e) {
+                    result.completeExceptionally(new CompletionException(e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new CompletionException(new IllegalStateException("Client is closed", e)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+package io.accelerate.auth.kmsjwt.testing;
+
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.CreateAliasRequest;
+import software.amazon.awssdk.services.kms.model.CreateAliasResponse;
+import software.amazon.awssdk.services.kms.model.CreateKeyRequest;
+import software.amazon.awssdk.services.kms.model.CreateKeyResponse;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.DisableKeyRequest;
+import software.amazon.awssdk.services.kms.model.DisableKeyResponse;
+import software.amazon.awssdk.services.kms.model.EnableKeyRequest;
+import software.amazon.awssdk.services.kms.model.EnableKeyResponse;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+import software.amazon.awssdk.services.kms.model.EncryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+final class FakeKmsClient implements KmsClient {
+    private final FakeKms kms;
+
+    FakeKmsClient(FakeKms kms) {
+        this.kms = kms;
+    }
+
+    @Override
+    public CreateKeyResponse createKey(CreateKeyRequest request) {
+        return kms.call(FakeKms.Api.CREATE_KEY, () -> kms.createKey(request));
+    }
+
+    @Override
+    public CreateAliasResponse createAlias(CreateAliasRequest request) {
+        return kms.call(FakeKms.Api.CREATE_ALIAS, () -> kms.createAlias(request));
+    }
+
+    @Override
+    public DescribeKeyResponse describeKey(DescribeKeyRequest request) {
+        return kms.call(FakeKms.Api.DESCRIBE_KEY, () -> kms.describeKey(request));
+    }
+
+    @Override
+    public EnableKeyResponse enableKey(EnableKeyRequest request) {
+        return kms.call(FakeKms.Api.ENABLE_KEY, () -> kms.enableKey(request));
+    }
+
+    @Override
+    public DisableKeyResponse disableKey(DisableKeyRequest request) {
+        return kms.call(FakeKms.Api.DISABLE_KEY, () -> kms.disableKey(request));
+    }
+
+    @Override
+    public EncryptResponse encrypt(EncryptRequest request) {
+        return kms.call(FakeKms.Api.ENCRYPT, () -> kms.encrypt(request));
+    }
+
+    @Override
+    public DecryptResponse decrypt(DecryptRequest request) {
+        return kms.call(FakeKms.Api.DECRYPT, () -> kms.decrypt(request));
+    }
+
+    @Override
+    public GenerateDataKeyResponse generateDataKey(GenerateDataKeyRequest request) {
+        return kms.call(FakeKms.Api.GENERATE_DATA_KEY, () -> kms.generateDataKey(request));
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
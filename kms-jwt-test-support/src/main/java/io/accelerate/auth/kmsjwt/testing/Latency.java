@@ -0,0 +1,44 @@
+package io.accelerate.auth.kmsjwt.testing;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+/**
+ * How long a {@link FakeKms} call takes, sampled afresh for every call.
+ */
+@FunctionalInterface
+public interface Latency {
+    long nextNanos(RandomGenerator random);
+
+    static Latency none() {
+        return random -> 0;
+    }
+
+    static Latency fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static Latency uniform(Duration min, Duration max) {
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        if (minNanos > maxNanos) {
+            throw new IllegalArgumentException("Minimum latency must not exceed the maximum");
+        }
+        return minNanos == maxNanos ? fixed(min) : random -> random.nextLong(minNanos, maxNanos + 1);
+    }
+
+    /**
+     * A long-tailed distribution shaped like real KMS round trips: most calls close to the median,
+     * one in a hundred slower than {@code p99}.
+     */
+    static Latency logNormal(Duration median, Duration p99) {
+        if (median.isNegative() || median.isZero() || p99.compareTo(median) < 0) {
+            throw new IllegalArgumentException("Median latency must be positive and no greater than the 99th percentile");
+        }
+        double mu = Math.log(median.toNanos());
+        double z99 = 2.3263478740408408;
+        double sigma = (Math.log(p99.toNanos()) - mu) / z99;
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+}
@@ -0,0 +1,228 @@
+package io.accelerate.auth.kmsjwt.testing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.AlreadyExistsException;
+import software.amazon.awssdk.services.kms.model.CreateAliasRequest;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DisableKeyRequest;
+import software.amazon.awssdk.services.kms.model.DisabledException;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+import software.amazon.awssdk.services.kms.model.IncorrectKeyException;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+import software.amazon.awssdk.services.kms.model.KeyState;
+import software.amazon.awssdk.services.kms.model.KmsException;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FakeKmsTest {
+    private FakeKms kms;
+    private KmsClient client;
+    private String keyArn;
+
+    @BeforeEach
+    void setUp() {
+        kms = FakeKms.builder().build();
+        client = kms.client();
+        keyArn = kms.createKey();
+    }
+
+    @Test
+    void encrypts_and_decrypts_under_any_key_identifier() {
+        client.createAlias(CreateAliasRequest.builder().aliasName("alias/tokens").targetKeyId(keyArn).build());
+        String keyId = keyArn.substring(keyArn.lastIndexOf('/') + 1);
+
+        assertThat(keyArn, startsWith("arn:aws:kms:eu-west-2:000000000000:key/"));
+        for (String identifier : new String[]{keyArn, keyId, "alias/tokens", "arn:aws:kms:eu-west-2:000000000000:alias/tokens"}) {
+            byte[] ciphertext = encrypt(identifier, "secret", Map.of());
+            DecryptResponse decrypt = client.decrypt(DecryptRequest.builder().ciphertextBlob(SdkBytes.fromByteArray(ciphertext)).build());
+
+            assertThat(decrypt.plaintext().asUtf8String(), is("secret"));
+            assertThat(decrypt.keyId(), is(keyArn));
+        }
+    }
+
+    @Test
+    void rejects_tampered_ciphertext_and_mismatched_encryption_context() {
+        byte[] ciphertext = encrypt(keyArn, "secret", Map.of("purpose", "jwt"));
+        byte[] tampered = Arrays.copyOf(ciphertext, ciphertext.length);
+        tampered[tampered.length - 1] ^= 1;
+
+        assertThrows(InvalidCiphertextException.class, () -> decrypt(tampered, Map.of("purpose", "jwt")));
+        assertThrows(InvalidCiphertextException.class, () -> decrypt(ciphertext, Map.of("purpose", "other")));
+        assertThrows(InvalidCiphertextException.class, () -> decrypt(new byte[0], Map.of()));
+        assertThat(decrypt(ciphertext, Map.of("purpose", "jwt")), is("secret"));
+    }
+
+    @Test
+    void rejects_decrypt_under_another_key() {
+        byte[] ciphertext = encrypt(keyArn, "secret", Map.of());
+        String otherKeyArn = kms.createKey();
+
+        assertThrows(IncorrectKeyException.class, () -> client.decrypt(DecryptRequest.builder()
+                .keyId(otherKeyArn)
+                .ciphertextBlob(SdkBytes.fromByteArray(ciphertext))
+                .build()));
+    }
+
+    @Test
+    void reports_missing_disabled_and_duplicate_keys_like_kms() {
+        assertThrows(NotFoundException.class, () -> encrypt("alias/missing", "secret", Map.of()));
+        kms.setAlias("alias/tokens", keyArn);
+        assertThrows(AlreadyExistsException.class, () ->
+                client.createAlias(CreateAliasRequest.builder().aliasName("alias/tokens").targetKeyId(keyArn).build()));
+
+        client.disableKey(DisableKeyRequest.builder().keyId(keyArn).build());
+
+        assertThrows(DisabledException.class, () -> encrypt(keyArn, "secret", Map.of()));
+        assertThat(client.describeKey(DescribeKeyRequest.builder().keyId("alias/tokens").build()).keyMetadata().keyState(),
+                is(KeyState.DISABLED));
+    }
+
+    @Test
+    void generates_data_keys_that_decrypt() {
+        GenerateDataKeyResponse dataKey = client.generateDataKey(GenerateDataKeyRequest.builder()
+                .keyId(keyArn)
+                .keySpec(DataKeySpec.AES_256)
+                .build());
+
+        byte[] plaintext = client.decrypt(DecryptRequest.builder().ciphertextBlob(dataKey.ciphertextBlob()).build())
+                .plaintext().asByteArray();
+
+        assertThat(plaintext.length, is(32));
+        assertThat(Arrays.equals(plaintext, dataKey.plaintext().asByteArray()), is(true));
+    }
+
+    @Test
+    void throttles_cryptographic_calls_over_the_quota() {
+        FakeKms throttled = FakeKms.builder().requestsPerSecond(5).build();
+        KmsClient throttledClient = throttled.client();
+        String throttledKey = throttled.createKey();
+
+        KmsException failure = null;
+        for (int i = 0; i < 20 && failure == null; i++) {
+            try {
+                throttledClient.encrypt(EncryptRequest.builder().keyId(throttledKey).plaintext(SdkBytes.fromUtf8String("secret")).build());
+            } catch (KmsException e) {
+                failure = e;
+            }
+        }
+
+        assertThat(failure, instanceOf(KmsException.class));
+        assertThat(failure.isThrottlingException(), is(true));
+        assertThat(throttled.throttled(), is(1L));
+        for (int i = 0; i < 20; i++) {
+            throttledClient.describeKey(DescribeKeyRequest.builder().keyId(throttledKey).build());
+        }
+        assertThat(throttled.throttled(), is(1L));
+    }
+
+    @Test
+    void injects_faults_into_chosen_operations() {
+        byte[] ciphertext = encrypt(keyArn, "secret", Map.of());
+        kms.failNext(2, FakeKms::internalException, FakeKms.Api.DECRYPT);
+
+        for (int i = 0; i < 2; i++) {
+            KmsException e = assertThrows(KmsException.class, () -> decrypt(ciphertext, Map.of()));
+            assertThat(e.statusCode(), is(500));
+        }
+        encrypt(keyArn, "secret", Map.of());
+
+        assertThat(decrypt(ciphertext, Map.of()), is("secret"));
+        assertThat(kms.injectedFaults(), is(2L));
+        assertThat(kms.requests(FakeKms.Api.DECRYPT), is(3L));
+    }
+
+    @Test
+    void fails_randomly_until_cleared() {
+        kms.failRandomly(1.0, FakeKms::throttlingException);
+
+        assertThrows(KmsException.class, () -> encrypt(keyArn, "secret", Map.of()));
+        kms.clearFaults();
+
+        encrypt(keyArn, "secret", Map.of());
+    }
+
+    @Test
+    void waits_for_the_configured_latency() {
+        FakeKms slow = FakeKms.builder()
+                .latency(FakeKms.Api.ENCRYPT, Latency.fixed(Duration.ofMillis(50)))
+                .build();
+        String slowKey = slow.createKey();
+        long start = System.nanoTime();
+
+        slow.client().encrypt(EncryptRequest.builder().keyId(slowKey).plaintext(SdkBytes.fromUtf8String("secret")).build());
+
+        assertThat(System.nanoTime() - start, greaterThanOrEqualTo(Duration.ofMillis(50).toNanos()));
+    }
+
+    @Test
+    void log_normal_latency_has_the_requested_median_and_tail() {
+        Latency latency = Latency.logNormal(Duration.ofMillis(5), Duration.ofMillis(50));
+        SplittableRandom random = new SplittableRandom(42);
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = latency.nextNanos(random);
+        }
+        Arrays.sort(samples);
+
+        assertThat(samples[samples.length / 2], allOf(greaterThan(4_500_000L), lessThan(5_500_000L)));
+        assertThat(samples[samples.length * 99 / 100], allOf(greaterThan(45_000_000L), lessThanOrEqualTo(55_000_000L)));
+    }
+
+    @Test
+    void async_client_shares_keys_and_completes_failures_exceptionally() throws Exception {
+        byte[] ciphertext = encrypt(keyArn, "secret", Map.of());
+        try (KmsAsyncClient asyncClient = kms.asyncClient()) {
+            DecryptResponse decrypt = asyncClient.decrypt(DecryptRequest.builder()
+                    .ciphertextBlob(SdkBytes.fromByteArray(ciphertext))
+                    .build()).get();
+            assertThat(decrypt.plaintext().asUtf8String(), is("secret"));
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> asyncClient.decrypt(DecryptRequest.builder()
+                    .ciphertextBlob(SdkBytes.fromByteArray(new byte[]{1}))
+                    .build()).get());
+            assertThat(e.getCause(), instanceOf(InvalidCiphertextException.class));
+        }
+    }
+
+    private byte[] encrypt(String keyId, String plaintext, Map<String, String> encryptionContext) {
+        return client.encrypt(EncryptRequest.builder()
+                .keyId(keyId)
+                .plaintext(SdkBytes.fromByteArray(plaintext.getBytes(StandardCharsets.UTF_8)))
+                .encryptionContext(encryptionContext)
+                .build()).ciphertextBlob().asByteArray();
+    }
+
+    private String decrypt(byte[] ciphertext, Map<String, String> encryptionContext) {
+        return client.decrypt(DecryptRequest.builder()
+                .ciphertextBlob(SdkBytes.fromByteArray(ciphertext))
+                .encryptionContext(encryptionContext)
+                .build()).plaintext().asUtf8String();
+    }
+}
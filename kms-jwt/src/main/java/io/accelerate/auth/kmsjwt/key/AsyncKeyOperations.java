@@ -0,0 +1,71 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+final class AsyncKeyOperations {
+
+    private AsyncKeyOperations() { }
+
+    interface KeyOperation {
+        byte[] apply() throws KeyOperationException;
+    }
+
+    static CompletableFuture<byte[]> supply(KeyOperation operation, Executor executor) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(operation.apply());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new KeyOperationException("Key operation rejected: " + e.getMessage(), e));
+        }
+        return result;
+    }
+
+    static byte[] await(CompletableFuture<byte[]> operation) throws KeyOperationException {
+        try {
+            return operation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyOperationException("Interrupted while waiting for key operation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = asKeyOperationFailure(e.getCause());
+            if (cause instanceof KeyOperationException keyOperationException) {
+                throw keyOperationException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    static Throwable asKeyOperationFailure(Throwable error) {
+        Throwable cause = unwrap(error);
+        if (cause instanceof KeyOperationException || cause instanceof Error) {
+            return cause;
+        }
+        if (cause instanceof SdkException || !(cause instanceof RuntimeException)) {
+            return new KeyOperationException(cause.getMessage(), (Exception) cause);
+        }
+        return cause;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
@@ -0,0 +1,137 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps recently decrypted data keys in memory so that repeated verifications
+ * of the same token do not go back to KMS. Entries are keyed on the ciphertext
+ * bytes, expire after a fixed TTL and are evicted least-recently-used first.
+ * Optionally, an expired key is still served for a while when KMS calls are being
+ * rejected by {@link KmsResilience} (open breaker or concurrency limit).
+ */
+public class CachingKeyDecrypt implements KeyDecrypt {
+    public static final String CACHE_NAME = "decrypted-keys";
+
+    private final KeyDecrypt delegate;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long maxStalenessMillis;
+    private final Clock clock;
+    private final MetricsListener metrics;
+    private final LinkedHashMap<ByteBuffer, CachedKey> entries;
+    private final LongAdder staleServed = new LongAdder();
+
+    public CachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl) {
+        this(delegate, maxEntries, ttl, Clock.systemUTC());
+    }
+
+    public CachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl, Clock clock) {
+        this(delegate, maxEntries, ttl, clock, MetricsListener.NOOP);
+    }
+
+    public CachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl, Clock clock, MetricsListener metrics) {
+        this(delegate, maxEntries, ttl, Duration.ZERO, clock, metrics);
+    }
+
+    /**
+     * @param maxStaleness how long after expiry a key is still served when KMS calls are rejected
+     */
+    public CachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl, Duration maxStaleness, Clock clock,
+                             MetricsListener metrics) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Cache TTL must be positive");
+        }
+        if (maxStaleness.isNegative()) {
+            throw new IllegalArgumentException("Maximum staleness must not be negative");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.maxStalenessMillis = maxStaleness.toMillis();
+        this.clock = clock;
+        this.metrics = metrics;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedKey> eldest) {
+                return size() > CachingKeyDecrypt.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        ByteBuffer cacheKey = ByteBuffer.wrap(ciphertext.clone());
+        long now = clock.millis();
+
+        CachedKey cached;
+        CachedKey stale = null;
+        synchronized (entries) {
+            cached = entries.get(cacheKey);
+            if (cached != null && cached.expiresAtMillis() <= now) {
+                if (now < cached.expiresAtMillis() + maxStalenessMillis) {
+                    stale = cached;
+                } else {
+                    entries.remove(cacheKey);
+                }
+                cached = null;
+            }
+        }
+        metrics.cacheAccessed(CACHE_NAME, cached != null);
+        if (cached != null) {
+            return cached.plaintext().clone();
+        }
+
+        byte[] plaintext;
+        try {
+            plaintext = delegate.decrypt(ciphertext);
+        } catch (KeyOperationException e) {
+            if (stale == null || !isCallRejected(e)) {
+                throw e;
+            }
+            staleServed.increment();
+            return stale.plaintext().clone();
+        }
+        synchronized (entries) {
+            entries.put(cacheKey, new CachedKey(plaintext.clone(), now + ttlMillis));
+        }
+        return plaintext;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long staleServed() {
+        return staleServed.sum();
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static boolean isCallRejected(Throwable e) {
+        for (Throwable cause = e; cause != null && cause.getCause() != cause; cause = cause.getCause()) {
+            if (cause instanceof KmsResilience.CallRejectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private record CachedKey(byte[] plaintext, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,67 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Makes sure only one decrypt is in flight per distinct ciphertext. Concurrent
+ * callers for the same ciphertext wait for the first caller's result, including
+ * its failure. Nothing is retained once the call completes.
+ */
+public class CoalescingKeyDecrypt implements KeyDecrypt {
+    private final KeyDecrypt delegate;
+    private final ConcurrentMap<ByteBuffer, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    public CoalescingKeyDecrypt(KeyDecrypt delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        ByteBuffer key = ByteBuffer.wrap(ciphertext.clone());
+        CompletableFuture<byte[]> ownCall = new CompletableFuture<>();
+        CompletableFuture<byte[]> existingCall = inFlight.putIfAbsent(key, ownCall);
+        if (existingCall != null) {
+            return await(existingCall).clone();
+        }
+
+        try {
+            byte[] plaintext = delegate.decrypt(ciphertext);
+            ownCall.complete(plaintext.clone());
+            return plaintext;
+        } catch (Throwable e) {
+            ownCall.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, ownCall);
+        }
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> call) throws KeyOperationException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyOperationException("Interrupted while waiting for key decryption", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KeyOperationException keyOperationException) {
+                throw new KeyOperationException(keyOperationException.getMessage(), keyOperationException);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new KeyOperationException(String.valueOf(cause.getMessage()), e);
+        }
+    }
+}
@@ -1,25 +1,50 @@
 package io.accelerate.auth.kmsjwt.key;
 
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.kms.model.DecryptRequest;
 import software.amazon.awssdk.services.kms.model.DecryptResponse;
-import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
 
-import java.util.Collections;
-import java.util.HashSet;
+import java.time.Duration;
 import java.util.Set;
 
-public class KMSDecrypt implements KeyDecrypt {
+public class KMSDecrypt implements KeyDecrypt, AutoCloseable {
+    private static final Duration FIRST_RESOLUTION_TIMEOUT = Duration.ofSeconds(10);
+
     private final KmsClient kmsClient;
-    private final Set<String> providedKeyIdentifiers;
-    private final Set<String> resolvedKeyArns;
+    private final KeyArnResolver keyArns;
+    private final MetricsListener metrics;
 
     public KMSDecrypt(KmsClient kmsClient, Set<String> supportedKeyARNs) {
+        this(kmsClient, supportedKeyARNs, MetricsListener.NOOP);
+    }
+
+    public KMSDecrypt(KmsClient kmsClient, Set<String> supportedKeyARNs, MetricsListener metrics) {
+        this.kmsClient = kmsClient;
+        this.metrics = metrics;
+        this.keyArns = new KeyArnResolver(kmsClient, supportedKeyARNs);
+        this.keyArns.refresh();
+    }
+
+    /**
+     * Returns straight away and resolves the key identifiers (e.g. aliases) in the background,
+     * then again every {@code refreshInterval} so that retargeted aliases are picked up.
+     * Identifiers that cannot be resolved are retried rather than left as they are.
+     * Until the first resolution completes, a decrypt under a key that is not yet known waits for it.
+     */
+    public KMSDecrypt(KmsClient kmsClient, Set<String> supportedKeyARNs, MetricsListener metrics, Duration refreshInterval) {
+        if (refreshInterval.isNegative() || refreshInterval.isZero()) {
+            throw new IllegalArgumentException("Refresh interval must be positive");
+        }
         this.kmsClient = kmsClient;
-        this.providedKeyIdentifiers = Set.copyOf(supportedKeyARNs);
-        this.resolvedKeyArns = resolveKeyArns(this.providedKeyIdentifiers);
+        this.metrics = metrics;
+        this.keyArns = new KeyArnResolver(kmsClient, supportedKeyARNs);
+        this.keyArns.startRefreshing(refreshInterval);
     }
 
     public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
@@ -27,37 +52,42 @@ public class KMSDecrypt implements KeyDecrypt {
                 .ciphertextBlob(SdkBytes.fromByteArray(ciphertext))
                 .build();
 
+        long start = System.nanoTime();
         DecryptResponse decrypt;
         try {
             decrypt = kmsClient.decrypt(req);
         } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_DECRYPT, null, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
             throw new KeyOperationException(e.getMessage(), e);
         }
 
         String keyId = decrypt.keyId();
-        if (!providedKeyIdentifiers.contains(keyId) && !resolvedKeyArns.contains(keyId)){
-            throw new KeyOperationException("Ciphertext signed by unexpected key");
+        if (!keyArns.isAllowed(keyId) && !keyArns.isResolved()) {
+            keyArns.awaitFirstResolution(FIRST_RESOLUTION_TIMEOUT);
+        }
+        if (!keyArns.isAllowed(keyId)) {
+            metrics.operationCompleted(Operation.KMS_DECRYPT, keyId, System.nanoTime() - start, Outcome.UNEXPECTED_KEY);
+            throw keyArns.isResolved()
+                    ? new UnexpectedKeyException()
+                    : new KeyOperationException("Ciphertext signed by unexpected key");
         }
 
+        metrics.operationCompleted(Operation.KMS_DECRYPT, keyId, System.nanoTime() - start, Outcome.SUCCESS);
         return decrypt.plaintext().asByteArray();
     }
 
-    private Set<String> resolveKeyArns(Set<String> keyIdentifiers) {
-        Set<String> resolved = new HashSet<>();
-        for (String keyIdentifier : keyIdentifiers) {
-            resolved.add(resolveKeyArn(keyIdentifier));
-        }
-        return Collections.unmodifiableSet(resolved);
+    @Override
+    public void close() {
+        keyArns.close();
     }
 
-    private String resolveKeyArn(String keyIdentifier) {
-        try {
-            return kmsClient.describeKey(DescribeKeyRequest.builder().keyId(keyIdentifier).build())
-                    .keyMetadata()
-                    .arn();
-        } catch (SdkException e) {
-            return keyIdentifier;
+    /**
+     * The ciphertext was made under a key that is not allowed, established once every allowed
+     * key identifier had been resolved, so retrying cannot help.
+     */
+    public static final class UnexpectedKeyException extends KeyOperationException {
+        UnexpectedKeyException() {
+            super("Ciphertext signed by unexpected key");
         }
     }
-
 }
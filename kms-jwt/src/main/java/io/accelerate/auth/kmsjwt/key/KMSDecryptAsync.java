@@ -0,0 +1,84 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public class KMSDecryptAsync implements KeyDecryptAsync {
+    private final KmsAsyncClient kmsClient;
+    private final Set<String> providedKeyIdentifiers;
+    private final CompletableFuture<Set<String>> resolvedKeyArns;
+    private volatile boolean fullyResolved;
+
+    public KMSDecryptAsync(KmsAsyncClient kmsClient, Set<String> supportedKeyARNs) {
+        this.kmsClient = kmsClient;
+        this.providedKeyIdentifiers = Set.copyOf(supportedKeyARNs);
+        this.resolvedKeyArns = resolveKeyArns(this.providedKeyIdentifiers);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> decryptAsync(byte[] ciphertext) {
+        DecryptRequest req = DecryptRequest.builder()
+                .ciphertextBlob(SdkBytes.fromByteArray(ciphertext))
+                .build();
+
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            kmsClient.decrypt(req).whenComplete((decrypt, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(AsyncKeyOperations.asKeyOperationFailure(error));
+                    return;
+                }
+                resolvedKeyArns.thenAccept(resolved -> {
+                    String keyId = decrypt.keyId();
+                    if (!providedKeyIdentifiers.contains(keyId) && !resolved.contains(keyId)) {
+                        result.completeExceptionally(fullyResolved
+                                ? new KMSDecrypt.UnexpectedKeyException()
+                                : new KeyOperationException("Ciphertext signed by unexpected key"));
+                        return;
+                    }
+                    result.complete(decrypt.plaintext().asByteArray());
+                });
+            });
+        } catch (SdkException e) {
+            result.completeExceptionally(new KeyOperationException(e.getMessage(), e));
+        }
+        return result;
+    }
+
+    private CompletableFuture<Set<String>> resolveKeyArns(Set<String> keyIdentifiers) {
+        List<CompletableFuture<String>> resolutions = keyIdentifiers.stream()
+                .map(this::resolveKeyArn)
+                .toList();
+        return CompletableFuture.allOf(resolutions.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    Set<String> resolved = new HashSet<>();
+                    for (CompletableFuture<String> resolution : resolutions) {
+                        String arn = resolution.join();
+                        if (arn != null) {
+                            resolved.add(arn);
+                        }
+                    }
+                    fullyResolved = resolved.size() == resolutions.size();
+                    return Collections.unmodifiableSet(resolved);
+                });
+    }
+
+    private CompletableFuture<String> resolveKeyArn(String keyIdentifier) {
+        try {
+            return kmsClient.describeKey(DescribeKeyRequest.builder().keyId(keyIdentifier).build())
+                    .thenApply(response -> response.keyMetadata().arn())
+                    .exceptionally(e -> null);
+        } catch (SdkException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package io.accelerate.auth.kmsjwt.key;
 
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.kms.KmsClient;
@@ -9,10 +13,16 @@ import software.amazon.awssdk.services.kms.model.EncryptResponse;
 public class KMSEncrypt implements KeyEncrypt {
     private final KmsClient kmsClient;
     private final String keyARN;
+    private final MetricsListener metrics;
 
     public KMSEncrypt(KmsClient kmsClient, String keyARN) {
+        this(kmsClient, keyARN, MetricsListener.NOOP);
+    }
+
+    public KMSEncrypt(KmsClient kmsClient, String keyARN, MetricsListener metrics) {
         this.kmsClient = kmsClient;
         this.keyARN = keyARN;
+        this.metrics = metrics;
     }
 
     public byte[] encrypt(byte[] plaintext) throws KeyOperationException {
@@ -21,12 +31,15 @@ public class KMSEncrypt implements KeyEncrypt {
                 .plaintext(SdkBytes.fromByteArray(plaintext))
                 .build();
 
+        long start = System.nanoTime();
         EncryptResponse encrypt;
         try {
             encrypt = kmsClient.encrypt(req);
         } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_ENCRYPT, keyARN, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
             throw new KeyOperationException(e.getMessage(), e);
         }
+        metrics.operationCompleted(Operation.KMS_ENCRYPT, keyARN, System.nanoTime() - start, Outcome.SUCCESS);
 
         return encrypt.ciphertextBlob().asByteArray();
     }
@@ -0,0 +1,40 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.model.EncryptRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+public class KMSEncryptAsync implements KeyEncryptAsync {
+    private final KmsAsyncClient kmsClient;
+    private final String keyARN;
+
+    public KMSEncryptAsync(KmsAsyncClient kmsClient, String keyARN) {
+        this.kmsClient = kmsClient;
+        this.keyARN = keyARN;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> encryptAsync(byte[] plaintext) {
+        EncryptRequest req = EncryptRequest.builder()
+                .keyId(keyARN)
+                .plaintext(SdkBytes.fromByteArray(plaintext))
+                .build();
+
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        try {
+            kmsClient.encrypt(req).whenComplete((encrypt, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(AsyncKeyOperations.asKeyOperationFailure(error));
+                    return;
+                }
+                result.complete(encrypt.ciphertextBlob().asByteArray());
+            });
+        } catch (SdkException e) {
+            result.completeExceptionally(new KeyOperationException(e.getMessage(), e));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,222 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DisabledException;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+import software.amazon.awssdk.services.kms.model.KmsInvalidStateException;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fetches the public keys of KMS signing keys with GetPublicKey and keeps them, so that signed tokens
+ * are verified without calling KMS. Concurrent lookups of a key not seen yet share one call.
+ * Every {@code refreshInterval} a lookup also refreshes the key in the background: a key that KMS now
+ * reports disabled, pending deletion or deleted is dropped (so its tokens are rejected from then on),
+ * while throttling and other transient failures keep the key and retry later. A key that cannot be fetched,
+ * or was dropped, is rejected locally for a few seconds before KMS is asked again, so that tokens naming it
+ * do not each cost a GetPublicKey call.
+ */
+public class KMSPublicKeys implements PublicKeyLookup {
+    private static final Logger log = LoggerFactory.getLogger(KMSPublicKeys.class);
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("kms-get-public-key").start(task);
+    private static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(15);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+    private static final Duration FAILURE_TTL = Duration.ofSeconds(5);
+
+    private final KmsClient kmsClient;
+    private final Set<String> allowedKeyArns;
+    private final MetricsListener metrics;
+    private final long refreshIntervalMillis;
+    private final Clock clock;
+    private final ConcurrentMap<String, CompletableFuture<Entry>> keys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+
+    /**
+     * @param allowedKeyArns ARNs of the keys tokens may be signed with. Tokens name their key by ARN,
+     *                       so aliases are not resolved here.
+     */
+    public KMSPublicKeys(KmsClient kmsClient, Set<String> allowedKeyArns) {
+        this(kmsClient, allowedKeyArns, MetricsListener.NOOP, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    public KMSPublicKeys(KmsClient kmsClient, Set<String> allowedKeyArns, MetricsListener metrics, Duration refreshInterval) {
+        this(kmsClient, allowedKeyArns, metrics, refreshInterval, Clock.systemUTC());
+    }
+
+    KMSPublicKeys(KmsClient kmsClient, Set<String> allowedKeyArns, MetricsListener metrics, Duration refreshInterval,
+                  Clock clock) {
+        if (refreshInterval.isNegative() || refreshInterval.isZero()) {
+            throw new IllegalArgumentException("Refresh interval must be positive");
+        }
+        this.kmsClient = kmsClient;
+        this.allowedKeyArns = Set.copyOf(allowedKeyArns);
+        this.metrics = metrics;
+        this.refreshIntervalMillis = refreshInterval.toMillis();
+        this.clock = clock;
+    }
+
+    @Override
+    public PublicKey publicKey(String keyArn, SigningAlgorithm algorithm) throws KeyOperationException {
+        if (!allowedKeyArns.contains(keyArn)) {
+            throw new KeyOperationException("Token signed by unexpected key");
+        }
+        Failure failure = failures.get(keyArn);
+        if (failure != null && clock.millis() < failure.retryAtMillis()) {
+            throw new KeyOperationException("Public key of " + keyArn + " recently unavailable: " + failure.message());
+        }
+        CompletableFuture<Entry> ownFetch = new CompletableFuture<>();
+        CompletableFuture<Entry> existingFetch = keys.putIfAbsent(keyArn, ownFetch);
+        Entry entry;
+        if (existingFetch == null) {
+            try {
+                entry = fetch(keyArn);
+                failures.remove(keyArn);
+                ownFetch.complete(entry);
+            } catch (KeyOperationException | RuntimeException e) {
+                rememberFailure(keyArn, e);
+                keys.remove(keyArn, ownFetch);
+                ownFetch.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            entry = await(existingFetch);
+            if (clock.millis() >= entry.refreshAtMillis && entry.refreshing.compareAndSet(false, true)) {
+                VIRTUAL_THREADS.execute(() -> refresh(keyArn, entry));
+            }
+        }
+        if (entry.algorithm != algorithm) {
+            throw new KeyOperationException("Key " + keyArn + " signs " + entry.algorithm + " tokens, not " + algorithm);
+        }
+        return entry.publicKey;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    private void refresh(String keyArn, Entry stale) {
+        try {
+            keys.replace(keyArn, CompletableFuture.completedFuture(fetch(keyArn)));
+        } catch (KeyOperationException | RuntimeException e) {
+            if (e.getCause() instanceof NotFoundException || e.getCause() instanceof DisabledException
+                    || e.getCause() instanceof KmsInvalidStateException) {
+                log.warn("Dropping public key of {}: {}", keyArn, e.getMessage());
+                rememberFailure(keyArn, e);
+                keys.remove(keyArn);
+                return;
+            }
+            log.warn("Unable to refresh public key of {}, keeping it: {}", keyArn, e.getMessage());
+            stale.refreshAtMillis = clock.millis() + Math.min(refreshIntervalMillis, MAX_RETRY_DELAY.toMillis());
+            stale.refreshing.set(false);
+        }
+    }
+
+    private void rememberFailure(String keyArn, Exception e) {
+        failures.put(keyArn, new Failure(String.valueOf(e.getMessage()),
+                clock.millis() + Math.min(refreshIntervalMillis, FAILURE_TTL.toMillis())));
+    }
+
+    private Entry fetch(String keyArn) throws KeyOperationException {
+        GetPublicKeyResponse key = getPublicKey(kmsClient, keyArn, metrics);
+        SigningAlgorithm algorithm;
+        try {
+            algorithm = signingAlgorithm(key);
+        } catch (IllegalArgumentException e) {
+            throw new KeyOperationException(e.getMessage(), e);
+        }
+        try {
+            PublicKey publicKey = KeyFactory.getInstance(algorithm.keyAlgorithm())
+                    .generatePublic(new X509EncodedKeySpec(key.publicKey().asByteArray()));
+            return new Entry(publicKey, algorithm, clock.millis() + refreshIntervalMillis);
+        } catch (GeneralSecurityException e) {
+            throw new KeyOperationException("Unable to read public key of " + keyArn, e);
+        }
+    }
+
+    static GetPublicKeyResponse getPublicKey(KmsClient kmsClient, String keyId, MetricsListener metrics)
+            throws KeyOperationException {
+        long start = System.nanoTime();
+        GetPublicKeyResponse key;
+        try {
+            key = kmsClient.getPublicKey(GetPublicKeyRequest.builder().keyId(keyId).build());
+        } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_GET_PUBLIC_KEY, keyId, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
+            throw new KeyOperationException(e.getMessage(), e);
+        }
+        metrics.operationCompleted(Operation.KMS_GET_PUBLIC_KEY, key.keyId(), System.nanoTime() - start, Outcome.SUCCESS);
+        return key;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the key cannot sign tokens
+     */
+    static SigningAlgorithm signingAlgorithm(GetPublicKeyResponse key) {
+        if (key.keyUsage() != KeyUsageType.SIGN_VERIFY) {
+            throw new IllegalArgumentException("Key " + key.keyId() + " is not a signing key");
+        }
+        SigningAlgorithm algorithm = SigningAlgorithm.forKeySpec(key.keySpec());
+        if (key.signingAlgorithms() != null && !key.signingAlgorithms().isEmpty()
+                && !key.signingAlgorithms().contains(algorithm.kmsAlgorithm())) {
+            throw new IllegalArgumentException("Key " + key.keyId() + " does not support " + algorithm.kmsAlgorithm());
+        }
+        return algorithm;
+    }
+
+    private static Entry await(CompletableFuture<Entry> fetch) throws KeyOperationException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyOperationException("Interrupted while waiting for public key", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof KeyOperationException keyOperationException) {
+                throw new KeyOperationException(keyOperationException.getMessage(), keyOperationException);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new KeyOperationException(String.valueOf(cause.getMessage()), e);
+        }
+    }
+
+    private record Failure(String message, long retryAtMillis) { }
+
+    private static final class Entry {
+        private final PublicKey publicKey;
+        private final SigningAlgorithm algorithm;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile long refreshAtMillis;
+
+        Entry(PublicKey publicKey, SigningAlgorithm algorithm, long refreshAtMillis) {
+            this.publicKey = publicKey;
+            this.algorithm = algorithm;
+            this.refreshAtMillis = refreshAtMillis;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.MessageType;
+import software.amazon.awssdk.services.kms.model.SignRequest;
+import software.amazon.awssdk.services.kms.model.SignResponse;
+
+public class KMSSign implements KeySign {
+    private final KmsClient kmsClient;
+    private final String keyArn;
+    private final SigningAlgorithm algorithm;
+    private final MetricsListener metrics;
+
+    public KMSSign(KmsClient kmsClient, String keyId) throws KeyOperationException {
+        this(kmsClient, keyId, MetricsListener.NOOP);
+    }
+
+    /**
+     * Calls GetPublicKey once, to resolve {@code keyId} (an ID, alias or ARN) to the key ARN and to pick
+     * the algorithm from the key spec: ES256 for ECC_NIST_P256 keys, RS256 for RSA keys.
+     */
+    public KMSSign(KmsClient kmsClient, String keyId, MetricsListener metrics) throws KeyOperationException {
+        GetPublicKeyResponse key = KMSPublicKeys.getPublicKey(kmsClient, keyId, metrics);
+        this.kmsClient = kmsClient;
+        this.keyArn = key.keyId();
+        this.algorithm = KMSPublicKeys.signingAlgorithm(key);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String keyArn() {
+        return keyArn;
+    }
+
+    @Override
+    public SigningAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public byte[] sign(byte[] digest) throws KeyOperationException {
+        SignRequest req = SignRequest.builder()
+                .keyId(keyArn)
+                .message(SdkBytes.fromByteArray(digest))
+                .messageType(MessageType.DIGEST)
+                .signingAlgorithm(algorithm.kmsAlgorithm())
+                .build();
+
+        long start = System.nanoTime();
+        SignResponse sign;
+        try {
+            sign = kmsClient.sign(req);
+        } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_SIGN, keyArn, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
+            throw new KeyOperationException(e.getMessage(), e);
+        }
+        metrics.operationCompleted(Operation.KMS_SIGN, keyArn, System.nanoTime() - start, Outcome.SUCCESS);
+
+        return sign.signature().asByteArray();
+    }
+}
@@ -0,0 +1,156 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves key identifiers (IDs, aliases, ARNs) to key ARNs with parallel
+ * DescribeKey calls. The allowed set is replaced atomically, so readers never
+ * lock. When refreshing in the background, identifiers that could not be
+ * resolved keep their last known ARN and are retried with a backoff.
+ */
+final class KeyArnResolver implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(KeyArnResolver.class);
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("kms-describe-key").start(task);
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final KmsClient kmsClient;
+    private final Set<String> identifiers;
+    private final CompletableFuture<Void> firstResolution = new CompletableFuture<>();
+    private volatile Map<String, String> arnByIdentifier = Map.of();
+    private volatile Set<String> allowed;
+    private volatile boolean resolved;
+    private ScheduledExecutorService scheduler;
+    private Duration refreshInterval;
+    private Duration retryDelay = FIRST_RETRY_DELAY;
+
+    KeyArnResolver(KmsClient kmsClient, Set<String> identifiers) {
+        this.kmsClient = kmsClient;
+        this.identifiers = Set.copyOf(identifiers);
+        this.allowed = this.identifiers;
+    }
+
+    boolean isAllowed(String keyArn) {
+        return allowed.contains(keyArn);
+    }
+
+    /**
+     * @return {@code true} once every identifier has been resolved to an ARN at least once
+     */
+    boolean isResolved() {
+        return resolved;
+    }
+
+    void awaitFirstResolution(Duration timeout) {
+        try {
+            firstResolution.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // keep going with what has been resolved so far
+        }
+    }
+
+    void startRefreshing(Duration refreshInterval) {
+        this.refreshInterval = refreshInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kms-key-arn-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleRefresh(Duration.ZERO);
+    }
+
+    /**
+     * @return {@code true} when every identifier was resolved
+     */
+    boolean refresh() {
+        List<CompletableFuture<String>> resolutions = identifiers.stream()
+                .map(identifier -> CompletableFuture.supplyAsync(() -> describe(identifier), VIRTUAL_THREADS))
+                .toList();
+
+        Map<String, String> previous = arnByIdentifier;
+        Map<String, String> next = new HashMap<>();
+        int failures = 0;
+        int i = 0;
+        for (String identifier : identifiers) {
+            String arn = resolutions.get(i++).join();
+            if (arn == null) {
+                failures++;
+                arn = previous.get(identifier);
+            }
+            if (arn != null) {
+                next.put(identifier, arn);
+            }
+        }
+
+        Set<String> nextAllowed = new HashSet<>(identifiers);
+        nextAllowed.addAll(next.values());
+        arnByIdentifier = Map.copyOf(next);
+        allowed = Set.copyOf(nextAllowed);
+        resolved = next.size() == identifiers.size();
+        firstResolution.complete(null);
+        return failures == 0;
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        scheduler.schedule(() -> {
+            boolean complete = false;
+            try {
+                complete = refresh();
+            } catch (RuntimeException e) {
+                log.warn("Unable to refresh KMS key ARNs: {}", e.getMessage());
+            } finally {
+                // Always reschedule, or a single unexpected failure would stop refreshing for good
+                Duration nextDelay;
+                if (complete) {
+                    retryDelay = FIRST_RETRY_DELAY;
+                    nextDelay = refreshInterval;
+                } else {
+                    nextDelay = min(retryDelay, refreshInterval);
+                    retryDelay = min(retryDelay.multipliedBy(2), refreshInterval);
+                }
+                if (!scheduler.isShutdown()) {
+                    scheduleRefresh(nextDelay);
+                }
+            }
+        }, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private String describe(String identifier) {
+        try {
+            return kmsClient.describeKey(DescribeKeyRequest.builder().keyId(identifier).build())
+                    .keyMetadata()
+                    .arn();
+        } catch (SdkException e) {
+            log.warn("Unable to resolve KMS key {}: {}", identifier, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking counterpart of {@link KeyDecrypt}. Failures complete the returned
+ * future exceptionally with a {@link KeyOperationException}.
+ */
+public interface KeyDecryptAsync {
+    CompletableFuture<byte[]> decryptAsync(byte[] ciphertext);
+
+    static KeyDecrypt blocking(KeyDecryptAsync keyDecryptAsync) {
+        return ciphertext -> AsyncKeyOperations.await(keyDecryptAsync.decryptAsync(ciphertext));
+    }
+
+    static KeyDecryptAsync onExecutor(KeyDecrypt keyDecrypt, Executor executor) {
+        return ciphertext -> AsyncKeyOperations.supply(() -> keyDecrypt.decrypt(ciphertext), executor);
+    }
+}
@@ -0,0 +1,20 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking counterpart of {@link KeyEncrypt}. Failures complete the returned
+ * future exceptionally with a {@link KeyOperationException}.
+ */
+public interface KeyEncryptAsync {
+    CompletableFuture<byte[]> encryptAsync(byte[] plaintext);
+
+    static KeyEncrypt blocking(KeyEncryptAsync keyEncryptAsync) {
+        return plaintext -> AsyncKeyOperations.await(keyEncryptAsync.encryptAsync(plaintext));
+    }
+
+    static KeyEncryptAsync onExecutor(KeyEncrypt keyEncrypt, Executor executor) {
+        return plaintext -> AsyncKeyOperations.supply(() -> keyEncrypt.encrypt(plaintext), executor);
+    }
+}
@@ -0,0 +1,16 @@
+package io.accelerate.auth.kmsjwt.key;
+
+public interface KeySign {
+    /**
+     * @return the key ARN, which becomes the {@code kid} of signed tokens
+     */
+    String keyArn();
+
+    SigningAlgorithm algorithm();
+
+    /**
+     * @param digest the SHA-256 digest of the message
+     * @return the signature as KMS and the JCA encode it, i.e. DER for ECDSA
+     */
+    byte[] sign(byte[] digest) throws KeyOperationException;
+}
@@ -0,0 +1,279 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Protects KMS, and the callers' threads, when KMS is overloaded. In-flight calls are capped by an
+ * AIMD limit: it grows by one per limit's worth of successful calls and halves on a throttling or
+ * timeout failure, at most once per congestion event: overloads of calls that started before the
+ * last decrease were caused by the old limit and are not counted again. Calls over the limit are
+ * rejected straight away rather than queued. After {@code failureThreshold} consecutive throttling
+ * or timeout failures a circuit breaker opens and rejects every call for the cool-down, then lets
+ * a single trial call through and closes again if it succeeds. Other failures (e.g. an unexpected
+ * key) say nothing about load and leave both untouched.
+ * <p>
+ * One instance is meant to be shared by every key operation that goes to the same KMS endpoint.
+ */
+public final class KmsResilience {
+    private final double minLimit;
+    private final double maxLimit;
+    private final int failureThreshold;
+    private final long coolDownMillis;
+    private final Clock clock;
+    private final StateListener listener;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder limitRejections = new LongAdder();
+    private final LongAdder circuitRejections = new LongAdder();
+    private final LongAdder overloads = new LongAdder();
+
+    private double limit;
+    private int inFlight;
+    private State state = State.CLOSED;
+    private int consecutiveOverloads;
+    private long decreases;
+    private long openedAtMillis;
+    private boolean trialInFlight;
+
+    private KmsResilience(Builder builder) {
+        this.limit = builder.initialLimit;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.failureThreshold = builder.failureThreshold;
+        this.coolDownMillis = builder.coolDown.toMillis();
+        this.clock = builder.clock;
+        this.listener = builder.listener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public KeyDecrypt decrypting(KeyDecrypt delegate) {
+        return ciphertext -> call(() -> delegate.decrypt(ciphertext));
+    }
+
+    public KeyEncrypt encrypting(KeyEncrypt delegate) {
+        return plaintext -> call(() -> delegate.encrypt(plaintext));
+    }
+
+    public synchronized State state() {
+        if (state == State.OPEN && clock.millis() >= openedAtMillis + coolDownMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    public long limitRejections() {
+        return limitRejections.sum();
+    }
+
+    public long circuitRejections() {
+        return circuitRejections.sum();
+    }
+
+    /**
+     * Calls that failed because KMS throttled them or timed out.
+     */
+    public long overloads() {
+        return overloads.sum();
+    }
+
+    private byte[] call(KeyOperation operation) throws KeyOperationException {
+        Permit permit = acquire();
+        calls.increment();
+        try {
+            byte[] result = operation.perform();
+            release(permit, Signal.SUCCESS);
+            return result;
+        } catch (KeyOperationException e) {
+            release(permit, isOverload(e) ? Signal.OVERLOAD : Signal.NEUTRAL);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            release(permit, Signal.NEUTRAL);
+            throw e;
+        }
+    }
+
+    private Permit acquire() throws CallRejectedException {
+        State from;
+        State to;
+        boolean trial = false;
+        Permit permit;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN) {
+                if (clock.millis() < openedAtMillis + coolDownMillis) {
+                    circuitRejections.increment();
+                    throw new CallRejectedException("KMS circuit breaker is open");
+                }
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    circuitRejections.increment();
+                    throw new CallRejectedException("KMS circuit breaker is open");
+                }
+                trialInFlight = true;
+                trial = true;
+            } else if (inFlight >= (int) limit) {
+                limitRejections.increment();
+                throw new CallRejectedException("KMS concurrency limit reached");
+            }
+            inFlight++;
+            to = state;
+            permit = new Permit(trial, decreases);
+        }
+        notifyIfChanged(from, to);
+        return permit;
+    }
+
+    private void release(Permit permit, Signal signal) {
+        boolean trial = permit.trial();
+        State from;
+        State to;
+        synchronized (this) {
+            inFlight--;
+            from = state;
+            if (signal == Signal.OVERLOAD) {
+                overloads.increment();
+                if (permit.decreasesAtStart() == decreases) {
+                    limit = Math.max(minLimit, limit / 2);
+                    decreases++;
+                }
+                consecutiveOverloads++;
+                if (trial || consecutiveOverloads >= failureThreshold) {
+                    state = State.OPEN;
+                    openedAtMillis = clock.millis();
+                }
+            } else {
+                if (signal == Signal.SUCCESS) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+                consecutiveOverloads = 0;
+                if (trial) {
+                    state = State.CLOSED;
+                }
+            }
+            if (trial) {
+                trialInFlight = false;
+            }
+            to = state;
+        }
+        notifyIfChanged(from, to);
+    }
+
+    private void notifyIfChanged(State from, State to) {
+        if (from != to) {
+            listener.stateChanged(from, to);
+        }
+    }
+
+    private static boolean isOverload(KeyOperationException e) {
+        Outcome outcome = Outcomes.ofKmsFailure(e);
+        return outcome == Outcome.THROTTLED || outcome == Outcome.TIMEOUT;
+    }
+
+    /**
+     * @param trial            whether this call is the trial call of a half-open breaker
+     * @param decreasesAtStart how many times the limit had been decreased when the call started
+     */
+    private record Permit(boolean trial, long decreasesAtStart) { }
+
+    private enum Signal {
+        SUCCESS,
+        OVERLOAD,
+        NEUTRAL
+    }
+
+    @FunctionalInterface
+    private interface KeyOperation {
+        byte[] perform() throws KeyOperationException;
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    @FunctionalInterface
+    public interface StateListener {
+        StateListener NOOP = (from, to) -> { };
+
+        void stateChanged(State from, State to);
+    }
+
+    /**
+     * Thrown without calling KMS, because the breaker is open or the concurrency limit is reached.
+     */
+    public static final class CallRejectedException extends KeyOperationException {
+        CallRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    public static final class Builder {
+        private double initialLimit = 20;
+        private double minLimit = 1;
+        private double maxLimit = 200;
+        private int failureThreshold = 5;
+        private Duration coolDown = Duration.ofSeconds(5);
+        private Clock clock = Clock.systemUTC();
+        private StateListener listener = StateListener.NOOP;
+
+        private Builder() { }
+
+        public Builder concurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+                throw new IllegalArgumentException("Concurrency limits must satisfy 0 < min <= initial <= max");
+            }
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        public Builder circuitBreaker(int failureThreshold, Duration coolDown) {
+            if (failureThreshold <= 0) {
+                throw new IllegalArgumentException("Failure threshold must be positive");
+            }
+            if (coolDown.isNegative() || coolDown.isZero()) {
+                throw new IllegalArgumentException("Cool-down must be positive");
+            }
+            this.failureThreshold = failureThreshold;
+            this.coolDown = coolDown;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder onStateChange(StateListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public KmsResilience build() {
+            return new KmsResilience(this);
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DataKeySpec;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Wraps per-token keys locally with AES-GCM under a wrapping key generated by KMS, so that
+ * minting and verifying tokens makes no KMS call. KMS is only used to generate a wrapping key
+ * when the keyring rotates, and to decrypt the stored wrapping keys when they are loaded;
+ * the keyring file holds them in KMS-encrypted form only.
+ * <p>
+ * A wrapped key starts with a magic prefix, a format version and the epoch of the wrapping key,
+ * all covered by the GCM tag. After a rotation the previous epoch keeps verifying for the
+ * verification overlap, which should be at least the lifetime of the tokens it minted.
+ * One process should mint (and so rotate) per keyring file; any number of processes can verify
+ * from it, and they reload the file when they first see a newer epoch and the file has changed since
+ * they last read it, so tokens with made-up epochs cost no more than a look at the file's attributes.
+ */
+public final class LocalKeyring implements KeyEncrypt, KeyDecrypt {
+    private static final byte[] MAGIC = {'L', 'K'};
+    private static final byte VERSION = 1;
+    private static final int PREFIX_LENGTH = MAGIC.length + 1 + Integer.BYTES;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KmsClient kmsClient;
+    private final String keyARN;
+    private final Path file;
+    private final long rotationPeriodMillis;
+    private final long verificationOverlapMillis;
+    private final KeyDecrypt fallback;
+    private final MetricsListener metrics;
+    private final Clock clock;
+    private volatile NavigableMap<Integer, Epoch> epochs = Collections.emptyNavigableMap();
+    private long lastReloadMillis = Long.MIN_VALUE;
+    private FileVersion loadedVersion;
+
+    private LocalKeyring(Builder builder) {
+        this.kmsClient = builder.kmsClient;
+        this.keyARN = builder.keyARN;
+        this.file = builder.file;
+        this.rotationPeriodMillis = builder.rotationPeriod.toMillis();
+        this.verificationOverlapMillis = builder.verificationOverlap.toMillis();
+        this.fallback = builder.fallback;
+        this.metrics = builder.metrics;
+        this.clock = builder.clock;
+    }
+
+    public static Builder builder(KmsClient kmsClient, String keyARN, Path file) {
+        return new Builder(kmsClient, keyARN, file);
+    }
+
+    /**
+     * Wraps under the current epoch, first rotating if the keyring is empty or the epoch is older than the rotation period.
+     */
+    @Override
+    public byte[] encrypt(byte[] plaintext) throws KeyOperationException {
+        Map.Entry<Integer, Epoch> last = epochs.lastEntry();
+        Epoch current = last == null || clock.millis() - last.getValue().createdAtMillis >= rotationPeriodMillis
+                ? rotateIfStale(last == null ? null : last.getValue())
+                : last.getValue();
+
+        byte[] wrapped = new byte[PREFIX_LENGTH + IV_LENGTH + plaintext.length + TAG_LENGTH];
+        System.arraycopy(MAGIC, 0, wrapped, 0, MAGIC.length);
+        wrapped[MAGIC.length] = VERSION;
+        ByteBuffer.wrap(wrapped, MAGIC.length + 1, Integer.BYTES).putInt(current.number);
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, wrapped, PREFIX_LENGTH, IV_LENGTH);
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, current.key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(wrapped, 0, PREFIX_LENGTH);
+            cipher.doFinal(plaintext, 0, plaintext.length, wrapped, PREFIX_LENGTH + IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new KeyOperationException("Unable to wrap key", e);
+        }
+        return wrapped;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        if (!hasMagic(ciphertext)) {
+            if (fallback != null) {
+                return fallback.decrypt(ciphertext);
+            }
+            throw new KeyOperationException("Key was not wrapped by a local keyring");
+        }
+        if (ciphertext[MAGIC.length] != VERSION) {
+            throw new KeyOperationException("Unsupported keyring format version " + ciphertext[MAGIC.length]);
+        }
+        if (ciphertext.length < PREFIX_LENGTH + IV_LENGTH + TAG_LENGTH) {
+            throw new KeyOperationException("Wrapped key is too short");
+        }
+
+        int number = ByteBuffer.wrap(ciphertext, MAGIC.length + 1, Integer.BYTES).getInt();
+        Epoch epoch = epochs.get(number);
+        if (epoch == null) {
+            epoch = reloadFor(number);
+        }
+        if (epoch == null) {
+            throw new UnknownEpochException(number);
+        }
+        if (isRetired(epochs, number, clock.millis())) {
+            throw new KeyOperationException("Keyring epoch " + number + " has been retired");
+        }
+
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, epoch.key, new GCMParameterSpec(TAG_LENGTH * 8, ciphertext, PREFIX_LENGTH, IV_LENGTH));
+            cipher.updateAAD(ciphertext, 0, PREFIX_LENGTH);
+            return cipher.doFinal(ciphertext, PREFIX_LENGTH + IV_LENGTH, ciphertext.length - PREFIX_LENGTH - IV_LENGTH);
+        } catch (AEADBadTagException e) {
+            throw new KeyOperationException("Wrapped key failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new KeyOperationException("Unable to unwrap key", e);
+        }
+    }
+
+    /**
+     * Generates a new wrapping key with KMS and makes it the one new keys are wrapped under.
+     */
+    public synchronized int rotate() throws KeyOperationException {
+        load();
+        NavigableMap<Integer, Epoch> rotated = new TreeMap<>(epochs);
+        int number = rotated.isEmpty() ? 1 : rotated.lastKey() + 1;
+        rotated.put(number, generateEpoch(number));
+        prune(rotated, clock.millis());
+        persist(rotated);
+        epochs = Collections.unmodifiableNavigableMap(rotated);
+        return number;
+    }
+
+    public int currentEpoch() {
+        return epochs.isEmpty() ? 0 : epochs.lastKey();
+    }
+
+    private synchronized Epoch rotateIfStale(Epoch seen) throws KeyOperationException {
+        Map.Entry<Integer, Epoch> last = epochs.lastEntry();
+        if (last != null && last.getValue() != seen) {
+            return last.getValue();
+        }
+        rotate();
+        return epochs.lastEntry().getValue();
+    }
+
+    private synchronized Epoch reloadFor(int number) throws KeyOperationException {
+        Epoch epoch = epochs.get(number);
+        long now = clock.millis();
+        if (epoch != null || (!epochs.isEmpty() && number <= epochs.lastKey())
+                || now < lastReloadMillis + MIN_RELOAD_INTERVAL_MILLIS
+                || Objects.equals(fileVersion(), loadedVersion)) {
+            return epoch;
+        }
+        lastReloadMillis = now;
+        load();
+        return epochs.get(number);
+    }
+
+    /**
+     * Reads the keyring file, decrypting with KMS only the wrapping keys not already in memory.
+     */
+    private synchronized void load() throws KeyOperationException {
+        FileVersion version = fileVersion();
+        if (version == null) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new KeyOperationException("Unable to read keyring " + file, e);
+        }
+
+        NavigableMap<Integer, StoredEpoch> stored = new TreeMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(" ");
+            try {
+                int number = Integer.parseInt(fields[0]);
+                stored.put(number, new StoredEpoch(number, Long.parseLong(fields[1]), Base64.getDecoder().decode(fields[2])));
+            } catch (RuntimeException e) {
+                throw new KeyOperationException("Corrupt keyring " + file + " at line " + (i + 1), e);
+            }
+        }
+
+        long now = clock.millis();
+        NavigableMap<Integer, Epoch> loaded = new TreeMap<>(epochs);
+        for (StoredEpoch storedEpoch : stored.values()) {
+            if (!loaded.containsKey(storedEpoch.number) && !isRetired(stored, storedEpoch.number, now)) {
+                loaded.put(storedEpoch.number, decryptEpoch(storedEpoch));
+            }
+        }
+        prune(loaded, now);
+        epochs = Collections.unmodifiableNavigableMap(loaded);
+        loadedVersion = version;
+    }
+
+    /**
+     * @return the keyring file's modification time and identity, or {@code null} if there is no file yet
+     */
+    private FileVersion fileVersion() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileVersion(attributes.lastModifiedTime(), attributes.fileKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void persist(NavigableMap<Integer, Epoch> toPersist) throws KeyOperationException {
+        StringBuilder content = new StringBuilder("# Local keyring: epoch, created at (epoch millis), KMS-encrypted wrapping key\n");
+        for (Epoch epoch : toPersist.values()) {
+            content.append(epoch.number).append(' ')
+                    .append(epoch.createdAtMillis).append(' ')
+                    .append(Base64.getEncoder().encodeToString(epoch.encryptedKey)).append('\n');
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            Files.writeString(temporary, content, StandardCharsets.US_ASCII);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new KeyOperationException("Unable to write keyring " + file, e);
+        }
+        loadedVersion = fileVersion();
+    }
+
+    private Epoch generateEpoch(int number) throws KeyOperationException {
+        GenerateDataKeyRequest req = GenerateDataKeyRequest.builder()
+                .keyId(keyARN)
+                .keySpec(DataKeySpec.AES_256)
+                .build();
+
+        long start = System.nanoTime();
+        GenerateDataKeyResponse response;
+        try {
+            response = kmsClient.generateDataKey(req);
+        } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_GENERATE_DATA_KEY, keyARN, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
+            throw new KeyOperationException(e.getMessage(), e);
+        }
+        metrics.operationCompleted(Operation.KMS_GENERATE_DATA_KEY, keyARN, System.nanoTime() - start, Outcome.SUCCESS);
+
+        return new Epoch(number, clock.millis(), response.ciphertextBlob().asByteArray(),
+                new SecretKeySpec(response.plaintext().asByteArray(), "AES"));
+    }
+
+    private Epoch decryptEpoch(StoredEpoch stored) throws KeyOperationException {
+        DecryptRequest req = DecryptRequest.builder()
+                .keyId(keyARN)
+                .ciphertextBlob(SdkBytes.fromByteArray(stored.encryptedKey))
+                .build();
+
+        long start = System.nanoTime();
+        byte[] plaintext;
+        try {
+            plaintext = kmsClient.decrypt(req).plaintext().asByteArray();
+        } catch (SdkException e) {
+            metrics.operationCompleted(Operation.KMS_DECRYPT, keyARN, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
+            throw new KeyOperationException(e.getMessage(), e);
+        }
+        metrics.operationCompleted(Operation.KMS_DECRYPT, keyARN, System.nanoTime() - start, Outcome.SUCCESS);
+
+        return new Epoch(stored.number, stored.createdAtMillis, stored.encryptedKey, new SecretKeySpec(plaintext, "AES"));
+    }
+
+    private void prune(NavigableMap<Integer, Epoch> toPrune, long now) {
+        toPrune.keySet().removeIf(number -> isRetired(toPrune, number, now));
+    }
+
+    /**
+     * An epoch stops verifying once its successor has been current for longer than the verification overlap.
+     */
+    private boolean isRetired(NavigableMap<Integer, ? extends Dated> all, int number, long now) {
+        Map.Entry<Integer, ? extends Dated> successor = all.higherEntry(number);
+        return successor != null && now >= successor.getValue().createdAtMillis() + verificationOverlapMillis;
+    }
+
+    private static boolean hasMagic(byte[] ciphertext) {
+        return ciphertext.length > MAGIC.length && ciphertext[0] == MAGIC[0] && ciphertext[1] == MAGIC[1];
+    }
+
+    private interface Dated {
+        long createdAtMillis();
+    }
+
+    private record StoredEpoch(int number, long createdAtMillis, byte[] encryptedKey) implements Dated { }
+
+    private record Epoch(int number, long createdAtMillis, byte[] encryptedKey, SecretKey key) implements Dated { }
+
+    private record FileVersion(FileTime lastModified, Object fileKey) { }
+
+    /**
+     * Thrown for an epoch this process does not know, which may be one that was created after the
+     * keyring file was last read, so it should not be cached as a permanent rejection.
+     */
+    public static final class UnknownEpochException extends KeyOperationException {
+        UnknownEpochException(int number) {
+            super("Unknown keyring epoch " + number);
+        }
+    }
+
+    public static final class Builder {
+        private final KmsClient kmsClient;
+        private final String keyARN;
+        private final Path file;
+        private Duration rotationPeriod = Duration.ofDays(7);
+        private Duration verificationOverlap = Duration.ofDays(1);
+        private KeyDecrypt fallback;
+        private MetricsListener metrics = MetricsListener.NOOP;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(KmsClient kmsClient, String keyARN, Path file) {
+            this.kmsClient = kmsClient;
+            this.keyARN = keyARN;
+            this.file = file;
+        }
+
+        public Builder rotationPeriod(Duration rotationPeriod) {
+            if (rotationPeriod.isNegative() || rotationPeriod.isZero()) {
+                throw new IllegalArgumentException("Rotation period must be positive");
+            }
+            this.rotationPeriod = rotationPeriod;
+            return this;
+        }
+
+        /**
+         * How long an epoch keeps verifying after the next one was created; at least the token lifetime.
+         */
+        public Builder verificationOverlap(Duration verificationOverlap) {
+            if (verificationOverlap.isNegative()) {
+                throw new IllegalArgumentException("Verification overlap must not be negative");
+            }
+            this.verificationOverlap = verificationOverlap;
+            return this;
+        }
+
+        /**
+         * Decrypts keys that were not wrapped by a keyring, e.g. tokens minted with {@link KMSEncrypt} before switching over.
+         */
+        public Builder fallback(KeyDecrypt fallback) {
+            this.fallback = fallback;
+            return this;
+        }
+
+        public Builder metrics(MetricsListener metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Loads the keyring file if it exists. An empty keyring gets its first epoch on the first encrypt.
+         */
+        public LocalKeyring build() throws KeyOperationException {
+            LocalKeyring keyring = new LocalKeyring(this);
+            keyring.load();
+            return keyring;
+        }
+    }
+}
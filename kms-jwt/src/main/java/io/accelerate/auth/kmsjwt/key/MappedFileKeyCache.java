@@ -0,0 +1,351 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A fixed-size hash table of decrypted data keys in a memory-mapped file, shared by every
+ * process on the host that opens the same file, so that a new or restarted process finds the
+ * keys of tokens already in use without calling KMS.
+ * <p>
+ * Slots are keyed on the SHA-256 digest of the ciphertext. Values are sealed with AES-GCM under a
+ * cache key that is itself stored in the file header encrypted by the given {@link KeyEncrypt}
+ * (normally KMS), so plaintext keys never reach the file. Writers claim a slot with a
+ * compare-and-set on its sequence number and never wait for each other: a writer that loses
+ * the race simply does not cache. Readers retry nothing either: a slot that changed while it was
+ * read, or that fails authentication, counts as a miss.
+ * <p>
+ * A writer that dies between claiming a slot and releasing it leaves the slot's sequence odd.
+ * Once a process has seen the same odd sequence for longer than any write takes, it takes the slot
+ * over. Should the original writer only have been paused and then finish, its bytes mix with the new
+ * ones, and the slot fails authentication until it is next written.
+ */
+public final class MappedFileKeyCache implements AutoCloseable {
+    private static final long MAGIC = 0x4B4D534A57544331L; // "KMSJWTC1"
+    private static final int HEADER_SIZE = 4096;
+    private static final int HEADER_FIELDS_SIZE = 20;
+    private static final int SLOT_SIZE = 160;
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int EXPIRY_OFFSET = 8;
+    private static final int DIGEST_OFFSET = 16;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int IV_OFFSET = DIGEST_OFFSET + DIGEST_LENGTH;
+    private static final int IV_LENGTH = 12;
+    private static final int LENGTH_OFFSET = IV_OFFSET + IV_LENGTH;
+    private static final int VALUE_OFFSET = LENGTH_OFFSET + Integer.BYTES;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAX_PLAINTEXT_LENGTH = SLOT_SIZE - VALUE_OFFSET - TAG_LENGTH;
+    private static final int PROBES = 4;
+    private static final long ABANDONED_WRITE_MILLIS = 1000;
+    private static final String AES_GCM = "AES/GCM/NoPadding";
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final SecretKey cacheKey;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final ConcurrentMap<Integer, UnfinishedWrite> unfinishedWrites = new ConcurrentHashMap<>();
+
+    private MappedFileKeyCache(FileChannel channel, MappedByteBuffer buffer, int slots, SecretKey cacheKey, Builder builder) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slots = slots;
+        this.cacheKey = cacheKey;
+        this.ttlMillis = builder.ttl.toMillis();
+        this.clock = builder.clock;
+    }
+
+    /**
+     * @param cacheKeyEncrypt encrypts the cache key when this process creates the file
+     * @param cacheKeyDecrypt decrypts the cache key when the file already exists
+     */
+    public static Builder builder(Path file, KeyEncrypt cacheKeyEncrypt, KeyDecrypt cacheKeyDecrypt) {
+        return new Builder(file, cacheKeyEncrypt, cacheKeyDecrypt);
+    }
+
+    /**
+     * @return the cached plaintext, or {@code null} when it is absent, expired or unreadable
+     */
+    public byte[] get(byte[] ciphertext) {
+        byte[] digest = digest(ciphertext);
+        long now = clock.millis();
+        byte[] slotDigest = new byte[DIGEST_LENGTH];
+        for (int probe = 0; probe < PROBES; probe++) {
+            int offset = slotOffset(digest, probe);
+            long sequence = (long) LONGS.getAcquire(buffer, offset + SEQUENCE_OFFSET);
+            if (sequence == 0 || (sequence & 1) != 0) {
+                continue;
+            }
+            long expiresAtMillis = (long) LONGS.get(buffer, offset + EXPIRY_OFFSET);
+            buffer.get(offset + DIGEST_OFFSET, slotDigest);
+            if (expiresAtMillis <= now || !Arrays.equals(slotDigest, digest)) {
+                continue;
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            buffer.get(offset + IV_OFFSET, iv);
+            int length = buffer.getInt(offset + LENGTH_OFFSET);
+            if (length < TAG_LENGTH || length > MAX_PLAINTEXT_LENGTH + TAG_LENGTH) {
+                return null;
+            }
+            byte[] sealed = new byte[length];
+            buffer.get(offset + VALUE_OFFSET, sealed);
+            VarHandle.acquireFence();
+            if ((long) LONGS.getVolatile(buffer, offset + SEQUENCE_OFFSET) != sequence) {
+                return null;
+            }
+            return unseal(digest, expiresAtMillis, iv, sealed);
+        }
+        return null;
+    }
+
+    /**
+     * Caches the plaintext unless it is too large for a slot or another writer holds the chosen slot.
+     */
+    public void put(byte[] ciphertext, byte[] plaintext) {
+        if (plaintext.length > MAX_PLAINTEXT_LENGTH) {
+            return;
+        }
+        byte[] digest = digest(ciphertext);
+        long now = clock.millis();
+        long expiresAtMillis = now + ttlMillis;
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        byte[] sealed = seal(digest, expiresAtMillis, iv, plaintext);
+        if (sealed == null) {
+            return;
+        }
+
+        int offset = chooseSlot(digest, now);
+        long sequence = (long) LONGS.getAcquire(buffer, offset + SEQUENCE_OFFSET);
+        long claimed;
+        if ((sequence & 1) == 0) {
+            claimed = sequence + 1;
+        } else if (isAbandoned(offset, sequence, now)) {
+            claimed = sequence + 2;
+        } else {
+            return;
+        }
+        if (!LONGS.compareAndSet(buffer, offset + SEQUENCE_OFFSET, sequence, claimed)) {
+            return;
+        }
+        LONGS.set(buffer, offset + EXPIRY_OFFSET, expiresAtMillis);
+        buffer.put(offset + DIGEST_OFFSET, digest);
+        buffer.put(offset + IV_OFFSET, iv);
+        buffer.putInt(offset + LENGTH_OFFSET, sealed.length);
+        buffer.put(offset + VALUE_OFFSET, sealed);
+        LONGS.setRelease(buffer, offset + SEQUENCE_OFFSET, claimed + 1);
+    }
+
+    public int slots() {
+        return slots;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The slot already holding this digest, else the first empty or expired one, else the one expiring soonest.
+     */
+    private int chooseSlot(byte[] digest, long now) {
+        byte[] slotDigest = new byte[DIGEST_LENGTH];
+        int chosen = -1;
+        long soonestExpiry = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int offset = slotOffset(digest, probe);
+            long expiresAtMillis = (long) LONGS.getAcquire(buffer, offset + EXPIRY_OFFSET);
+            buffer.get(offset + DIGEST_OFFSET, slotDigest);
+            if (Arrays.equals(slotDigest, digest)) {
+                return offset;
+            }
+            if (expiresAtMillis <= now) {
+                expiresAtMillis = Long.MIN_VALUE;
+            }
+            if (chosen < 0 || expiresAtMillis < soonestExpiry) {
+                chosen = offset;
+                soonestExpiry = expiresAtMillis;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * @return {@code true} when this odd sequence has been seen in the slot for long enough that its writer must have died
+     */
+    private boolean isAbandoned(int offset, long sequence, long now) {
+        UnfinishedWrite seen = unfinishedWrites.get(offset);
+        if (seen == null || seen.sequence() != sequence) {
+            unfinishedWrites.put(offset, new UnfinishedWrite(sequence, now));
+            return false;
+        }
+        return now - seen.seenAtMillis() >= ABANDONED_WRITE_MILLIS && unfinishedWrites.remove(offset, seen);
+    }
+
+    private int slotOffset(byte[] digest, int probe) {
+        int hash = ByteBuffer.wrap(digest).getInt();
+        return HEADER_SIZE + Math.floorMod(hash + probe, slots) * SLOT_SIZE;
+    }
+
+    private byte[] seal(byte[] digest, long expiresAtMillis, byte[] iv, byte[] plaintext) {
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.ENCRYPT_MODE, cacheKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(associatedData(digest, expiresAtMillis));
+            return cipher.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private byte[] unseal(byte[] digest, long expiresAtMillis, byte[] iv, byte[] sealed) {
+        try {
+            Cipher cipher = Cipher.getInstance(AES_GCM);
+            cipher.init(Cipher.DECRYPT_MODE, cacheKey, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(associatedData(digest, expiresAtMillis));
+            return cipher.doFinal(sealed);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static byte[] associatedData(byte[] digest, long expiresAtMillis) {
+        return ByteBuffer.allocate(DIGEST_LENGTH + Long.BYTES).put(digest).putLong(expiresAtMillis).array();
+    }
+
+    private static byte[] digest(byte[] ciphertext) {
+        return SHA_256.get().digest(ciphertext);
+    }
+
+    private static MappedFileKeyCache open(Builder builder) throws KeyOperationException {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(builder.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int slots;
+            byte[] encryptedCacheKey = null;
+            byte[] newCacheKey = null;
+            MappedByteBuffer buffer;
+            try (FileLock ignored = channel.lock()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_FIELDS_SIZE);
+                boolean initialised = channel.size() >= HEADER_SIZE && channel.read(header, 0) == HEADER_FIELDS_SIZE
+                                      && header.getLong(0) == MAGIC;
+                if (initialised) {
+                    slots = header.getInt(8);
+                    if (header.getInt(12) != SLOT_SIZE || slots <= 0) {
+                        throw new KeyOperationException("Incompatible shared key cache " + builder.file);
+                    }
+                    encryptedCacheKey = new byte[header.getInt(16)];
+                    channel.read(ByteBuffer.wrap(encryptedCacheKey), HEADER_FIELDS_SIZE);
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+                } else {
+                    slots = builder.slots;
+                    KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+                    keyGenerator.init(256);
+                    newCacheKey = keyGenerator.generateKey().getEncoded();
+                    byte[] encrypted = builder.cacheKeyEncrypt.encrypt(newCacheKey);
+                    if (encrypted.length > HEADER_SIZE - HEADER_FIELDS_SIZE) {
+                        throw new KeyOperationException("Encrypted cache key does not fit in the shared key cache header");
+                    }
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+                    buffer.putInt(8, slots).putInt(12, SLOT_SIZE).putInt(16, encrypted.length).put(HEADER_FIELDS_SIZE, encrypted);
+                    buffer.putLong(0, MAGIC);
+                }
+            }
+            byte[] cacheKey = newCacheKey != null ? newCacheKey : builder.cacheKeyDecrypt.decrypt(encryptedCacheKey);
+            return new MappedFileKeyCache(channel, buffer, slots, new SecretKeySpec(cacheKey, "AES"), builder);
+        } catch (IOException | GeneralSecurityException | KeyOperationException | RuntimeException e) {
+            closeQuietly(channel);
+            if (e instanceof KeyOperationException keyOperationException) {
+                throw keyOperationException;
+            }
+            throw new KeyOperationException("Unable to open shared key cache " + builder.file, e);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // already failing
+            }
+        }
+    }
+
+    private record UnfinishedWrite(long sequence, long seenAtMillis) { }
+
+    public static final class Builder {
+        private final Path file;
+        private final KeyEncrypt cacheKeyEncrypt;
+        private final KeyDecrypt cacheKeyDecrypt;
+        private int slots = 16_384;
+        private Duration ttl = Duration.ofMinutes(15);
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(Path file, KeyEncrypt cacheKeyEncrypt, KeyDecrypt cacheKeyDecrypt) {
+            this.file = file;
+            this.cacheKeyEncrypt = cacheKeyEncrypt;
+            this.cacheKeyDecrypt = cacheKeyDecrypt;
+        }
+
+        /**
+         * Only used by the process that creates the file; later processes use the size it was created with.
+         */
+        public Builder slots(int slots) {
+            if (slots <= 0) {
+                throw new IllegalArgumentException("Cache size must be positive");
+            }
+            this.slots = slots;
+            return this;
+        }
+
+        public Builder ttl(Duration ttl) {
+            if (ttl.isNegative() || ttl.isZero()) {
+                throw new IllegalArgumentException("Cache TTL must be positive");
+            }
+            this.ttl = ttl;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public MappedFileKeyCache build() throws KeyOperationException {
+            return open(this);
+        }
+    }
+}
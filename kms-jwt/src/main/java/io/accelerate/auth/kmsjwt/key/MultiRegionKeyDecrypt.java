@@ -0,0 +1,221 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decrypts with the first region and, when it is slower than its own tracked latency percentile,
+ * sends a hedged request to the next region; the first success wins and the other request is
+ * cancelled. A region that fails hands over to the next one straight away. This only works for
+ * multi-region keys ({@code mrk-*}), whose replicas share key material so the same ciphertext
+ * decrypts in every region; each region's delegate (normally a {@link KMSDecrypt} over that
+ * region's client) must allow its own replica's ARN.
+ */
+public class MultiRegionKeyDecrypt implements KeyDecrypt {
+    private static final int MIN_SAMPLES = 20;
+
+    private final List<Region> regions;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final long initialHedgeDelayNanos;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+
+    private MultiRegionKeyDecrypt(Builder builder) {
+        this.regions = new ArrayList<>();
+        builder.regions.forEach((name, delegate) -> regions.add(new Region(name, delegate)));
+        this.hedgePercentile = builder.hedgePercentile;
+        this.minHedgeDelayNanos = builder.minHedgeDelay.toNanos();
+        this.initialHedgeDelayNanos = builder.initialHedgeDelay.toNanos();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        LinkedBlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        List<Attempt> started = new ArrayList<>();
+        try {
+            started.add(start(regions.get(0), 0, ciphertext, completed));
+            long hedgeDeadline = System.nanoTime() + hedgeDelayNanos();
+            int pending = 1;
+            KeyOperationException[] failures = new KeyOperationException[regions.size()];
+            while (true) {
+                boolean moreRegions = started.size() < regions.size();
+                Attempt attempt = moreRegions
+                        ? completed.poll(hedgeDeadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        : completed.take();
+                if (attempt == null) {
+                    hedges.increment();
+                    started.add(start(regions.get(started.size()), started.size(), ciphertext, completed));
+                    pending++;
+                    hedgeDeadline = System.nanoTime() + hedgeDelayNanos();
+                    continue;
+                }
+                pending--;
+                if (attempt.plaintext != null) {
+                    return attempt.plaintext;
+                }
+                failures[attempt.index] = attempt.failure;
+                if (moreRegions) {
+                    failovers.increment();
+                    started.add(start(regions.get(started.size()), started.size(), ciphertext, completed));
+                    pending++;
+                    hedgeDeadline = System.nanoTime() + hedgeDelayNanos();
+                } else if (pending == 0) {
+                    throw primaryFailure(failures);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KeyOperationException("Interrupted while waiting for key decryption", e);
+        } finally {
+            for (Attempt attempt : started) {
+                attempt.cancel();
+            }
+        }
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    public long failovers() {
+        return failovers.sum();
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> latencyByRegion() {
+        Map<String, LatencyHistogram.Snapshot> latencies = new LinkedHashMap<>();
+        for (Region region : regions) {
+            latencies.put(region.name, region.latency.snapshot());
+        }
+        return latencies;
+    }
+
+    /**
+     * The primary region's latency at the hedge percentile, once it has enough samples.
+     */
+    long hedgeDelayNanos() {
+        LatencyHistogram.Snapshot primary = regions.get(0).latency.snapshot();
+        if (primary.count() < MIN_SAMPLES) {
+            return initialHedgeDelayNanos;
+        }
+        return Math.max(minHedgeDelayNanos, primary.percentile(hedgePercentile));
+    }
+
+    /**
+     * Every region has failed by now: the primary's failure is thrown, whichever region failed first.
+     */
+    private static KeyOperationException primaryFailure(KeyOperationException[] failures) {
+        KeyOperationException primary = failures[0];
+        for (int i = 1; i < failures.length; i++) {
+            primary.addSuppressed(failures[i]);
+        }
+        return primary;
+    }
+
+    private static Attempt start(Region region, int index, byte[] ciphertext, LinkedBlockingQueue<Attempt> completed) {
+        Attempt attempt = new Attempt(index);
+        attempt.thread = Thread.ofVirtual().name("kms-decrypt-" + region.name).start(() -> {
+            long start = System.nanoTime();
+            try {
+                attempt.plaintext = region.delegate.decrypt(ciphertext);
+            } catch (KeyOperationException e) {
+                attempt.failure = e;
+            } catch (RuntimeException e) {
+                attempt.failure = new KeyOperationException(String.valueOf(e.getMessage()), e);
+            } finally {
+                if (attempt.plaintext == null && attempt.failure == null) {
+                    attempt.failure = new KeyOperationException("Key decryption failed in " + region.name);
+                }
+                // A cancelled attempt would have taken at least this long: leaving it out would bias the percentile low
+                region.latency.record(System.nanoTime() - start);
+                completed.add(attempt);
+            }
+        });
+        return attempt;
+    }
+
+    private static final class Region {
+        private final String name;
+        private final KeyDecrypt delegate;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Region(String name, KeyDecrypt delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+    }
+
+    private static final class Attempt {
+        private final int index;
+        private volatile Thread thread;
+        private byte[] plaintext;
+        private KeyOperationException failure;
+
+        Attempt(int index) {
+            this.index = index;
+        }
+
+        void cancel() {
+            if (thread.isAlive()) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, KeyDecrypt> regions = new LinkedHashMap<>();
+        private double hedgePercentile = 95;
+        private Duration minHedgeDelay = Duration.ofMillis(10);
+        private Duration initialHedgeDelay = Duration.ofMillis(100);
+
+        private Builder() { }
+
+        /**
+         * Regions are tried in the order they are added; the first one is the primary.
+         */
+        public Builder region(String name, KeyDecrypt keyDecrypt) {
+            regions.put(name, keyDecrypt);
+            return this;
+        }
+
+        public Builder hedgePercentile(double hedgePercentile) {
+            if (hedgePercentile <= 0 || hedgePercentile > 100) {
+                throw new IllegalArgumentException("Hedge percentile must be between 0 and 100");
+            }
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder minHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        /**
+         * Used until the primary region has enough latency samples to compute the percentile.
+         */
+        public Builder initialHedgeDelay(Duration initialHedgeDelay) {
+            this.initialHedgeDelay = initialHedgeDelay;
+            return this;
+        }
+
+        public MultiRegionKeyDecrypt build() {
+            if (regions.isEmpty()) {
+                throw new IllegalArgumentException("At least one region is required");
+            }
+            return new MultiRegionKeyDecrypt(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers ciphertexts that could not be decrypted for a short time and rejects them locally
+ * instead of asking KMS again. Only failures known to be permanent are remembered: KMS client
+ * errors such as a foreign key or garbage bytes, and a key ARN that is not allowed once every
+ * allowed key identifier has been resolved. Anything else (throttling, timeouts, KMS server
+ * errors, interrupted waits, local rejections) may succeed on the next try.
+ */
+public class NegativeCachingKeyDecrypt implements KeyDecrypt {
+    public static final String CACHE_NAME = "rejected-keys";
+
+    private final KeyDecrypt delegate;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final MetricsListener metrics;
+    private final LinkedHashMap<ByteBuffer, Long> rejectedUntilMillis;
+    private final LongAdder rejections = new LongAdder();
+
+    public NegativeCachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl) {
+        this(delegate, maxEntries, ttl, Clock.systemUTC(), MetricsListener.NOOP);
+    }
+
+    public NegativeCachingKeyDecrypt(KeyDecrypt delegate, int maxEntries, Duration ttl, Clock clock, MetricsListener metrics) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Cache TTL must be positive");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.metrics = metrics;
+        this.rejectedUntilMillis = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+                return size() > NegativeCachingKeyDecrypt.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        ByteBuffer cacheKey = ByteBuffer.wrap(ciphertext.clone());
+        boolean rejected;
+        synchronized (rejectedUntilMillis) {
+            Long until = rejectedUntilMillis.get(cacheKey);
+            rejected = until != null && until > clock.millis();
+            if (until != null && !rejected) {
+                rejectedUntilMillis.remove(cacheKey);
+            }
+        }
+        metrics.cacheAccessed(CACHE_NAME, rejected);
+        if (rejected) {
+            rejections.increment();
+            throw new KeyOperationException("Key decryption recently failed for this ciphertext");
+        }
+
+        try {
+            return delegate.decrypt(ciphertext);
+        } catch (KeyOperationException e) {
+            if (isPermanent(e)) {
+                synchronized (rejectedUntilMillis) {
+                    rejectedUntilMillis.put(cacheKey, clock.millis() + ttlMillis);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    public int size() {
+        synchronized (rejectedUntilMillis) {
+            return rejectedUntilMillis.size();
+        }
+    }
+
+    private static boolean isPermanent(KeyOperationException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof KMSDecrypt.UnexpectedKeyException) {
+                return true;
+            }
+            if (cause instanceof InterruptedException) {
+                return false;
+            }
+            if (cause instanceof SdkServiceException serviceException) {
+                // KMS reports throttling as a 400 too
+                return Outcomes.ofKmsFailure(serviceException) == Outcome.KMS_ERROR
+                        && serviceException.statusCode() >= 400
+                        && serviceException.statusCode() < 500;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+}
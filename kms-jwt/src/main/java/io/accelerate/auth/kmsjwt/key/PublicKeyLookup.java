@@ -0,0 +1,11 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import java.security.PublicKey;
+
+public interface PublicKeyLookup {
+    /**
+     * @param keyArn the {@code kid} of a signed token
+     * @throws KeyOperationException when the key is not allowed, not a signing key for {@code algorithm}, or unavailable
+     */
+    PublicKey publicKey(String keyArn, SigningAlgorithm algorithm) throws KeyOperationException;
+}
@@ -0,0 +1,72 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket in front of a {@link KeyDecrypt}: at most {@code burst} decrypts at once,
+ * refilled at {@code permitsPerSecond}. Calls over the limit fail immediately instead of
+ * reaching KMS, so a flood of unknown key IDs cannot use up the account's KMS quota.
+ * Place it below any key cache so that cache hits do not consume permits.
+ */
+public class RateLimitedKeyDecrypt implements KeyDecrypt {
+    private final KeyDecrypt delegate;
+    private final double permitsPerMilli;
+    private final int burst;
+    private final Clock clock;
+    private final LongAdder rejections = new LongAdder();
+
+    private double permits;
+    private long lastRefillMillis;
+
+    public RateLimitedKeyDecrypt(KeyDecrypt delegate, double permitsPerSecond, int burst) {
+        this(delegate, permitsPerSecond, burst, Clock.systemUTC());
+    }
+
+    public RateLimitedKeyDecrypt(KeyDecrypt delegate, double permitsPerSecond, int burst, Clock clock) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate limit must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst size must be positive");
+        }
+        this.delegate = delegate;
+        this.permitsPerMilli = permitsPerSecond / 1000.0;
+        this.burst = burst;
+        this.clock = clock;
+        this.permits = burst;
+        this.lastRefillMillis = clock.millis();
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        if (!tryAcquire()) {
+            rejections.increment();
+            throw new RateLimitExceededException();
+        }
+        return delegate.decrypt(ciphertext);
+    }
+
+    public long rejections() {
+        return rejections.sum();
+    }
+
+    private synchronized boolean tryAcquire() {
+        long now = clock.millis();
+        if (now > lastRefillMillis) {
+            permits = Math.min(burst, permits + (now - lastRefillMillis) * permitsPerMilli);
+            lastRefillMillis = now;
+        }
+        if (permits < 1) {
+            return false;
+        }
+        permits--;
+        return true;
+    }
+
+    public static final class RateLimitExceededException extends KeyOperationException {
+        RateLimitExceededException() {
+            super("Key decryption rate limit exceeded");
+        }
+    }
+}
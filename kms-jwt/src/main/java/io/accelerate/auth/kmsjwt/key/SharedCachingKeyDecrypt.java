@@ -0,0 +1,38 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+
+/**
+ * Looks data keys up in a {@link MappedFileKeyCache} shared with the other processes on the host
+ * before asking the delegate, and shares what the delegate decrypts.
+ */
+public class SharedCachingKeyDecrypt implements KeyDecrypt {
+    public static final String CACHE_NAME = "shared-decrypted-keys";
+
+    private final KeyDecrypt delegate;
+    private final MappedFileKeyCache cache;
+    private final MetricsListener metrics;
+
+    public SharedCachingKeyDecrypt(KeyDecrypt delegate, MappedFileKeyCache cache) {
+        this(delegate, cache, MetricsListener.NOOP);
+    }
+
+    public SharedCachingKeyDecrypt(KeyDecrypt delegate, MappedFileKeyCache cache, MetricsListener metrics) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+        byte[] cached = cache.get(ciphertext);
+        metrics.cacheAccessed(CACHE_NAME, cached != null);
+        if (cached != null) {
+            return cached;
+        }
+
+        byte[] plaintext = delegate.decrypt(ciphertext);
+        cache.put(ciphertext, plaintext);
+        return plaintext;
+    }
+}
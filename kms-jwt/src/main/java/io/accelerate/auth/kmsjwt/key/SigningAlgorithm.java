@@ -0,0 +1,54 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.SigningAlgorithmSpec;
+
+/**
+ * The JWS algorithms tokens can be signed with through KMS {@code Sign}, and the KMS key specs they need.
+ */
+public enum SigningAlgorithm {
+    ES256("EC", SigningAlgorithmSpec.ECDSA_SHA_256),
+    RS256("RSA", SigningAlgorithmSpec.RSASSA_PKCS1_V1_5_SHA_256);
+
+    private final String keyAlgorithm;
+    private final SigningAlgorithmSpec kmsAlgorithm;
+
+    SigningAlgorithm(String keyAlgorithm, SigningAlgorithmSpec kmsAlgorithm) {
+        this.keyAlgorithm = keyAlgorithm;
+        this.kmsAlgorithm = kmsAlgorithm;
+    }
+
+    /**
+     * @return the JCA name of the key type, e.g. {@code EC}
+     */
+    public String keyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    public SigningAlgorithmSpec kmsAlgorithm() {
+        return kmsAlgorithm;
+    }
+
+    /**
+     * @return the algorithm for a header {@code alg}, or {@code null} when it is not one of these
+     */
+    public static SigningAlgorithm fromJwsName(Object alg) {
+        for (SigningAlgorithm algorithm : values()) {
+            if (algorithm.name().equals(alg)) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @throws IllegalArgumentException when keys of this spec cannot sign ES256 or RS256 tokens
+     */
+    static SigningAlgorithm forKeySpec(KeySpec keySpec) {
+        return switch (keySpec) {
+            case ECC_NIST_P256 -> ES256;
+            case RSA_2048, RSA_3072, RSA_4096 -> RS256;
+            default -> throw new IllegalArgumentException("Unsupported key spec for signing tokens: " + keySpec);
+        };
+    }
+}
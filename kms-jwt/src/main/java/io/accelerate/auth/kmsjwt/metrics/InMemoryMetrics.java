@@ -0,0 +1,93 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps every measurement in memory: a latency histogram per operation and per
+ * key ARN, outcome counts per operation and hit/miss counts per cache. Recording
+ * does not allocate once a key ARN or cache name has been seen.
+ */
+public class InMemoryMetrics implements MetricsListener {
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, ConcurrentMap<String, LatencyHistogram>> latenciesByKey = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLongArray> outcomes = new EnumMap<>(Operation.class);
+    private final ConcurrentMap<String, CacheCounts> caches = new ConcurrentHashMap<>();
+
+    public InMemoryMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            latenciesByKey.put(operation, new ConcurrentHashMap<>());
+            outcomes.put(operation, new AtomicLongArray(OUTCOMES.length));
+        }
+    }
+
+    @Override
+    public void operationCompleted(Operation operation, String keyArn, long durationNanos, Outcome outcome) {
+        latencies.get(operation).record(durationNanos);
+        if (keyArn != null) {
+            latenciesByKey.get(operation)
+                    .computeIfAbsent(keyArn, ignored -> new LatencyHistogram())
+                    .record(durationNanos);
+        }
+        outcomes.get(operation).incrementAndGet(outcome.ordinal());
+    }
+
+    @Override
+    public void cacheAccessed(String cacheName, boolean hit) {
+        CacheCounts counts = caches.computeIfAbsent(cacheName, ignored -> new CacheCounts());
+        if (hit) {
+            counts.hits.increment();
+        } else {
+            counts.misses.increment();
+        }
+    }
+
+    public LatencyHistogram.Snapshot latency(Operation operation) {
+        return latencies.get(operation).snapshot();
+    }
+
+    public Map<String, LatencyHistogram.Snapshot> latencyByKey(Operation operation) {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        latenciesByKey.get(operation).forEach((keyArn, histogram) -> snapshots.put(keyArn, histogram.snapshot()));
+        return snapshots;
+    }
+
+    public long count(Operation operation, Outcome outcome) {
+        return outcomes.get(operation).get(outcome.ordinal());
+    }
+
+    public Map<Outcome, Long> outcomes(Operation operation) {
+        Map<Outcome, Long> counts = new EnumMap<>(Outcome.class);
+        AtomicLongArray recorded = outcomes.get(operation);
+        for (Outcome outcome : OUTCOMES) {
+            long count = recorded.get(outcome.ordinal());
+            if (count > 0) {
+                counts.put(outcome, count);
+            }
+        }
+        return counts;
+    }
+
+    public long cacheHits(String cacheName) {
+        CacheCounts counts = caches.get(cacheName);
+        return counts == null ? 0 : counts.hits.sum();
+    }
+
+    public long cacheMisses(String cacheName) {
+        CacheCounts counts = caches.get(cacheName);
+        return counts == null ? 0 : counts.misses.sum();
+    }
+
+    private static final class CacheCounts {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+}
@@ -0,0 +1,17 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+/**
+ * Receives measurements from the key and token classes. Implementations are
+ * called on the hot path from many threads, so they must be thread-safe and
+ * should not block. Every method defaults to doing nothing.
+ */
+public interface MetricsListener {
+    MetricsListener NOOP = new MetricsListener() { };
+
+    /**
+     * @param keyArn the key involved, or {@code null} when it is not known (e.g. a failed decrypt)
+     */
+    default void operationCompleted(Operation operation, String keyArn, long durationNanos, Outcome outcome) { }
+
+    default void cacheAccessed(String cacheName, boolean hit) { }
+}
@@ -0,0 +1,11 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+public enum Operation {
+    KMS_ENCRYPT,
+    KMS_DECRYPT,
+    KMS_GENERATE_DATA_KEY,
+    KMS_SIGN,
+    KMS_GET_PUBLIC_KEY,
+    JWT_BUILDER,
+    JWT_VERIFY
+}
@@ -0,0 +1,18 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+public enum Outcome {
+    SUCCESS,
+    UNEXPECTED_KEY,
+    THROTTLED,
+    TIMEOUT,
+    KMS_ERROR,
+    EMPTY_TOKEN,
+    MALFORMED_TOKEN,
+    MISSING_KEY_ID,
+    KEY_UNAVAILABLE,
+    EXPIRED,
+    NOT_YET_VALID,
+    INVALID_SIGNATURE,
+    REVOKED,
+    REJECTED
+}
@@ -0,0 +1,37 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.util.Set;
+
+public final class Outcomes {
+    private static final Set<String> THROTTLING_ERROR_CODES = Set.of(
+            "ThrottlingException", "Throttling", "LimitExceededException", "RequestLimitExceeded", "TooManyRequestsException");
+
+    private Outcomes() { }
+
+    public static Outcome ofKmsFailure(Throwable failure) {
+        Throwable cause = failure;
+        while (cause != null) {
+            if (cause instanceof ApiCallTimeoutException || cause instanceof ApiCallAttemptTimeoutException) {
+                return Outcome.TIMEOUT;
+            }
+            if (cause instanceof SdkServiceException serviceException && serviceException.isThrottlingException()) {
+                return Outcome.THROTTLED;
+            }
+            if (cause instanceof AwsServiceException awsException
+                    && awsException.awsErrorDetails() != null
+                    && THROTTLING_ERROR_CODES.contains(awsException.awsErrorDetails().errorCode())) {
+                return Outcome.THROTTLED;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+            cause = cause.getCause();
+        }
+        return Outcome.KMS_ERROR;
+    }
+}
@@ -0,0 +1,16 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Names the claim a record component is read from by {@link ClaimsReader#forRecord}.
+ * Components without it are read from the claim with the component's own name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.RECORD_COMPONENT)
+public @interface Claim {
+    String value();
+}
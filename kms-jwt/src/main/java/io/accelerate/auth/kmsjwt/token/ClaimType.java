@@ -0,0 +1,142 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The claim value types {@link ClaimsReader} can produce, read either straight from the payload
+ * or converted from the values of a jjwt claims map.
+ */
+enum ClaimType {
+    STRING(String.class, "a string") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return payload.readString();
+        }
+
+        @Override
+        Object convert(Object value) {
+            return value instanceof String ? value : null;
+        }
+    },
+    LONG(Long.class, "an integer") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return wholeNumber(payload);
+        }
+
+        @Override
+        Object convert(Object value) {
+            return value instanceof Integer || value instanceof Long ? ((Number) value).longValue() : null;
+        }
+    },
+    INT(Integer.class, "a 32-bit integer") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            long value = wholeNumber(payload);
+            if (value != (int) value) {
+                throw JsonPayload.malformed();
+            }
+            return (int) value;
+        }
+
+        @Override
+        Object convert(Object value) {
+            Object converted = LONG.convert(value);
+            return converted != null && (Long) converted == ((Long) converted).intValue() ? ((Long) converted).intValue() : null;
+        }
+    },
+    DOUBLE(Double.class, "a number") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return payload.readNumber().doubleValue();
+        }
+
+        @Override
+        Object convert(Object value) {
+            return value instanceof Number number ? number.doubleValue() : null;
+        }
+    },
+    BOOLEAN(Boolean.class, "a boolean") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return payload.readBoolean();
+        }
+
+        @Override
+        Object convert(Object value) {
+            return value instanceof Boolean ? value : null;
+        }
+    },
+    INSTANT(Instant.class, "a numeric date") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return Instant.ofEpochSecond(wholeNumber(payload));
+        }
+
+        @Override
+        Object convert(Object value) {
+            if (value instanceof Date date) {
+                return date.toInstant();
+            }
+            Object seconds = LONG.convert(value);
+            return seconds != null ? Instant.ofEpochSecond((Long) seconds) : null;
+        }
+    },
+    STRING_LIST(List.class, "a list of strings") {
+        @Override
+        Object read(JsonPayload payload) throws JWTVerificationException {
+            return Collections.unmodifiableList(payload.readStringList());
+        }
+
+        @Override
+        Object convert(Object value) {
+            if (!(value instanceof List<?> list)) {
+                return null;
+            }
+            for (Object element : list) {
+                if (!(element instanceof String)) {
+                    return null;
+                }
+            }
+            return List.copyOf(list);
+        }
+    };
+
+    private final Class<?> javaType;
+    private final String description;
+
+    ClaimType(Class<?> javaType, String description) {
+        this.javaType = javaType;
+        this.description = description;
+    }
+
+    /**
+     * Reads a non-null value at the payload's current position.
+     *
+     * @throws JWTVerificationException when the value is malformed or of another type
+     */
+    abstract Object read(JsonPayload payload) throws JWTVerificationException;
+
+    /**
+     * @return the converted value, or {@code null} when it is of another type
+     */
+    abstract Object convert(Object value);
+
+    boolean isInstance(Object value) {
+        return javaType.isInstance(value);
+    }
+
+    IllegalArgumentException mismatch(String claim) {
+        return new IllegalArgumentException("Claim " + claim + " is not " + description);
+    }
+
+    private static long wholeNumber(JsonPayload payload) throws JWTVerificationException {
+        if (!(payload.readNumber() instanceof Long value)) {
+            throw JsonPayload.malformed();
+        }
+        return value;
+    }
+}
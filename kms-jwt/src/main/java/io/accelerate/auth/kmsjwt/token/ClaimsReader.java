@@ -0,0 +1,297 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a fixed set of claims out of a verified payload without building a claims map: the payload
+ * is walked once, the registered claims are read into their target types and everything else is
+ * skipped. Readers are immutable and meant to be created once and shared, see {@link TdlClaims#READER}.
+ * Use with {@link JWTDecoder#decodeAndVerify(String, ClaimsReader)}.
+ */
+public final class ClaimsReader<T> {
+    private static final byte[] EXP = ascii("exp");
+    private static final byte[] NBF = ascii("nbf");
+    private static final byte[] IAT = ascii("iat");
+    private static final byte[] JTI = ascii("jti");
+
+    private final String[] names;
+    private final byte[][] encodedNames;
+    private final ClaimType[] types;
+    private final Object[] defaults;
+    private final MethodHandle constructor;
+
+    private ClaimsReader(String[] names, ClaimType[] types, Object[] defaults, MethodHandle constructor) {
+        this.names = names;
+        this.encodedNames = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            encodedNames[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        this.types = types;
+        this.defaults = defaults;
+        this.constructor = constructor;
+    }
+
+    /**
+     * Maps claims onto the components of {@code recordType}, by the name given in {@link Claim} or else
+     * by component name. Components may be {@code String}, {@code long}, {@code int}, {@code double},
+     * {@code boolean} (or their boxed types), {@link Instant} for numeric dates, or {@code List<String>}.
+     * Missing claims are {@code null}, or zero/{@code false} for primitives.
+     */
+    public static <R extends Record> ClaimsReader<R> forRecord(Class<R> recordType) {
+        RecordComponent[] components = recordType.getRecordComponents();
+        if (components == null) {
+            throw new IllegalArgumentException(recordType.getName() + " is not a record");
+        }
+        String[] names = new String[components.length];
+        ClaimType[] types = new ClaimType[components.length];
+        Object[] defaults = new Object[components.length];
+        Class<?>[] parameterTypes = new Class<?>[components.length];
+        for (int i = 0; i < components.length; i++) {
+            RecordComponent component = components[i];
+            Claim claim = component.getAnnotation(Claim.class);
+            names[i] = claim != null ? claim.value() : component.getName();
+            types[i] = claimType(component);
+            defaults[i] = defaultValue(component.getType());
+            parameterTypes[i] = component.getType();
+        }
+        if (Arrays.stream(names).distinct().count() != names.length) {
+            throw new IllegalArgumentException(recordType.getName() + " reads the same claim more than once");
+        }
+        try {
+            Constructor<R> canonical = recordType.getDeclaredConstructor(parameterTypes);
+            canonical.setAccessible(true);
+            MethodHandle constructor = MethodHandles.lookup().unreflectConstructor(canonical)
+                    .asSpreader(Object[].class, components.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new ClaimsReader<>(names, types, defaults, constructor);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalArgumentException("Unable to access the constructor of " + recordType.getName(), e);
+        }
+    }
+
+    /**
+     * Only records where the given claims are in the payload; each one is parsed when it is first read.
+     */
+    public static ClaimsReader<LazyClaims> lazy(String... claims) {
+        if (Arrays.stream(claims).distinct().count() != claims.length) {
+            throw new IllegalArgumentException("Claims must not be registered more than once");
+        }
+        return new ClaimsReader<>(claims.clone(), null, null, null);
+    }
+
+    /**
+     * @return the claims read from a payload whose signature has been verified, or {@code null}
+     * when the payload is not one this reader can handle on its own (malformed, outside its validity
+     * period or with claims of an unexpected type) and has to be parsed by jjwt instead
+     * @throws JWTVerificationException when the token is in {@code revocations}, if given
+     */
+    T read(byte[] payload, long nowMillis, long clockSkewMillis, TokenRevocations revocations)
+            throws JWTVerificationException {
+        Reading reading = new Reading(revocations != null);
+        try {
+            new JsonPayload(payload).forEachMember(reading);
+        } catch (JWTVerificationException e) {
+            return null;
+        }
+        if ((reading.exp != null && nowMillis - clockSkewMillis > reading.exp * 1000)
+                || (reading.nbf != null && nowMillis + clockSkewMillis < reading.nbf * 1000)) {
+            return null;
+        }
+        if (revocations != null) {
+            revocations.check(reading.jti, reading.exp, nowMillis);
+        }
+        if (isLazy()) {
+            return cast(new LazyClaims(this, payload, reading.offsets));
+        }
+        return construct(reading.values);
+    }
+
+    /**
+     * @return the claims read from an already verified claims map
+     */
+    T fromClaims(Map<String, ?> claims) throws JWTVerificationException {
+        if (isLazy()) {
+            return cast(new LazyClaims(this, claims));
+        }
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                values[i] = convert(types[i], names[i], claims.get(names[i]));
+            } catch (IllegalArgumentException e) {
+                throw new JWTVerificationException("Unable to read JSON Web Token: " + e.getMessage(), e);
+            }
+        }
+        return construct(values);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the claim was not registered with this reader
+     */
+    int indexOf(String claim) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(claim)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Claim " + claim + " was not registered with this reader");
+    }
+
+    static Object convert(ClaimType type, String claim, Object value) {
+        if (value == null) {
+            return null;
+        }
+        Object converted = type.convert(value);
+        if (converted == null) {
+            throw type.mismatch(claim);
+        }
+        return converted;
+    }
+
+    private boolean isLazy() {
+        return constructor == null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T cast(LazyClaims claims) {
+        return (T) claims;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T construct(Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                values[i] = defaults[i];
+            }
+        }
+        try {
+            return (T) (Object) constructor.invokeExact(values);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to create claims", e);
+        }
+    }
+
+    private int indexOf(JsonPayload payload, int keyStart, int keyEnd) {
+        for (int i = 0; i < encodedNames.length; i++) {
+            if (payload.keyEquals(keyStart, keyEnd, encodedNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ClaimType claimType(RecordComponent component) {
+        Class<?> type = component.getType();
+        if (type == String.class) {
+            return ClaimType.STRING;
+        } else if (type == long.class || type == Long.class) {
+            return ClaimType.LONG;
+        } else if (type == int.class || type == Integer.class) {
+            return ClaimType.INT;
+        } else if (type == double.class || type == Double.class) {
+            return ClaimType.DOUBLE;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return ClaimType.BOOLEAN;
+        } else if (type == Instant.class) {
+            return ClaimType.INSTANT;
+        } else if (type == List.class && component.getGenericType() instanceof ParameterizedType list
+                && list.getActualTypeArguments()[0] == String.class) {
+            return ClaimType.STRING_LIST;
+        }
+        Type genericType = component.getGenericType();
+        throw new IllegalArgumentException("Unsupported claim type " + genericType.getTypeName()
+                + " for " + component.getDeclaringRecord().getName() + "." + component.getName());
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == long.class) {
+            return 0L;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Collects the registered claims (or, in lazy mode, where they start), the numeric dates
+     * checked by every reader and, when asked to, the token ID, in a single walk over the payload.
+     * Duplicate members are not resolved here: {@link JsonPayload} rejects the payload as malformed
+     * at the second occurrence, so the whole token is parsed by jjwt instead.
+     */
+    private final class Reading implements JsonPayload.MemberVisitor {
+        private final Object[] values = isLazy() ? null : new Object[names.length];
+        private final int[] offsets = isLazy() ? filledWithMinusOne(names.length) : null;
+        private final boolean readTokenId;
+        private Long exp;
+        private Long nbf;
+        private String jti;
+
+        Reading(boolean readTokenId) {
+            this.readTokenId = readTokenId;
+        }
+
+        @Override
+        public void member(JsonPayload payload, int keyStart, int keyEnd) throws JWTVerificationException {
+            int start = payload.position();
+            if (payload.keyEquals(keyStart, keyEnd, EXP)) {
+                exp = numericDate(payload);
+                payload.position(start);
+            } else if (payload.keyEquals(keyStart, keyEnd, NBF)) {
+                nbf = numericDate(payload);
+                payload.position(start);
+            } else if (payload.keyEquals(keyStart, keyEnd, IAT)) {
+                numericDate(payload);
+                payload.position(start);
+            } else if (readTokenId && payload.keyEquals(keyStart, keyEnd, JTI)) {
+                jti = payload.readNull() ? null : payload.readString();
+                payload.position(start);
+            }
+
+            int index = indexOf(payload, keyStart, keyEnd);
+            if (index < 0) {
+                payload.skipValue();
+            } else if (offsets != null) {
+                offsets[index] = start;
+                payload.skipValue();
+            } else {
+                values[index] = payload.readNull() ? null : types[index].read(payload);
+            }
+        }
+
+        private static Long numericDate(JsonPayload payload) throws JWTVerificationException {
+            if (payload.readNull()) {
+                return null;
+            }
+            if (!(payload.readNumber() instanceof Long seconds)) {
+                throw JsonPayload.malformed();
+            }
+            return seconds;
+        }
+
+        private static int[] filledWithMinusOne(int length) {
+            int[] offsets = new int[length];
+            Arrays.fill(offsets, -1);
+            return offsets;
+        }
+    }
+}
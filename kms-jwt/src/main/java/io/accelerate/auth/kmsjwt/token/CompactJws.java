@@ -0,0 +1,54 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.jsonwebtoken.io.DeserializationException;
+import io.jsonwebtoken.jackson.io.JacksonDeserializer;
+
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Reads the parts of a compact JWS that are needed before the signature can be
+ * verified. Nothing read here is trusted until jjwt has verified the token.
+ */
+final class CompactJws {
+    private static final JacksonDeserializer<Map<String, ?>> JSON = new JacksonDeserializer<>();
+
+    private CompactJws() { }
+
+    static Map<String, ?> header(String jwt) throws JWTVerificationException {
+        int headerEnd = jwt.indexOf('.');
+        if (headerEnd <= 0) {
+            throw new JWTVerificationException("Unable to read JSON Web Token: missing header", null);
+        }
+        return json(jwt.substring(0, headerEnd), "header");
+    }
+
+    static byte[] encryptedKey(Map<String, ?> header) throws JWTVerificationException {
+        Object kidObj = header.get("kid");
+        if (!(kidObj instanceof String kid) || kid.isEmpty()) {
+            throw new JWTVerificationException(MissingKeyIdException.MESSAGE, new MissingKeyIdException());
+        }
+        try {
+            return Base64.getDecoder().decode(kid);
+        } catch (IllegalArgumentException e) {
+            throw new JWTVerificationException(e.getMessage(), e);
+        }
+    }
+
+    static Map<String, ?> json(String base64UrlPart, String partName) throws JWTVerificationException {
+        try {
+            byte[] decoded = Base64.getUrlDecoder().decode(base64UrlPart);
+            Map<String, ?> parsed = JSON.deserialize(
+                    new InputStreamReader(new ByteArrayInputStream(decoded), StandardCharsets.UTF_8));
+            if (parsed == null) {
+                throw new JWTVerificationException("Unable to read JSON Web Token: empty " + partName, null);
+            }
+            return parsed;
+        } catch (IllegalArgumentException | DeserializationException | ClassCastException e) {
+            throw new JWTVerificationException("Unable to read JSON Web Token: malformed " + partName, e);
+        }
+    }
+}
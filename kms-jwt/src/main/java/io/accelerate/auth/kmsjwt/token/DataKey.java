@@ -0,0 +1,25 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyEncryptAsync;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.jsonwebtoken.Jwts;
+
+import javax.crypto.SecretKey;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+
+public record DataKey(SecretKey secretKey, String kid) {
+
+    public static DataKey generate(KeyEncrypt keyEncrypt) throws KeyOperationException {
+        SecretKey secretKey = Jwts.SIG.HS256.key().build(); // generate a suitable HMAC key
+        byte[] encryptedKey = keyEncrypt.encrypt(secretKey.getEncoded());
+        return new DataKey(secretKey, Base64.getEncoder().encodeToString(encryptedKey));
+    }
+
+    public static CompletableFuture<DataKey> generateAsync(KeyEncryptAsync keyEncryptAsync) {
+        SecretKey secretKey = Jwts.SIG.HS256.key().build();
+        return keyEncryptAsync.encryptAsync(secretKey.getEncoded())
+                .thenApply(encryptedKey -> new DataKey(secretKey, Base64.getEncoder().encodeToString(encryptedKey)));
+    }
+}
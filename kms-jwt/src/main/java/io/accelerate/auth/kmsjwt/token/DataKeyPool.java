@@ -0,0 +1,204 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a bounded queue of ready-to-use data keys so that minting a token does not
+ * wait on KMS. Every key is handed out once. When the queue drops below the
+ * low-water mark it is topped up in the background; when it is empty the caller
+ * falls back to encrypting a key synchronously. After a failed refill, refills are held
+ * back for a delay that doubles with every further failure and resets on success, so that
+ * a throttled or unavailable KMS is not asked again on every call.
+ */
+public class DataKeyPool implements DataKeySource, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DataKeyPool.class);
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(1);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+
+    private final KeyEncrypt keyEncrypt;
+    private final int capacity;
+    private final int lowWaterMark;
+    private final BlockingQueue<DataKey> ready;
+    private final int refillThreads;
+    private final ExecutorService refillExecutor;
+    private final AtomicInteger activeRefills = new AtomicInteger();
+    private final Clock clock;
+    private volatile long retryDelayMillis;
+    private volatile long refillsHeldUntilMillis;
+
+    private final AtomicLong pooledKeysIssued = new AtomicLong();
+    private final AtomicLong synchronousKeysIssued = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong keysRefilled = new AtomicLong();
+    private final AtomicLong refillNanosTotal = new AtomicLong();
+    private final AtomicLong refillNanosMax = new AtomicLong();
+
+    public DataKeyPool(KeyEncrypt keyEncrypt, int capacity, int lowWaterMark, int refillThreads) {
+        this(keyEncrypt, capacity, lowWaterMark, refillThreads, Clock.systemUTC());
+    }
+
+    DataKeyPool(KeyEncrypt keyEncrypt, int capacity, int lowWaterMark, int refillThreads, Clock clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Pool capacity must be positive");
+        }
+        if (lowWaterMark < 0 || lowWaterMark >= capacity) {
+            throw new IllegalArgumentException("Low-water mark must be between 0 and the pool capacity");
+        }
+        if (refillThreads <= 0) {
+            throw new IllegalArgumentException("Refill threads must be positive");
+        }
+        this.keyEncrypt = keyEncrypt;
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.ready = new ArrayBlockingQueue<>(capacity);
+        this.refillThreads = refillThreads;
+        this.clock = clock;
+        this.refillExecutor = Executors.newFixedThreadPool(refillThreads, runnable -> {
+            Thread thread = new Thread(runnable, "data-key-pool-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        triggerRefill();
+    }
+
+    @Override
+    public DataKey next() throws KeyOperationException {
+        DataKey dataKey = ready.poll();
+        if (ready.size() < lowWaterMark || dataKey == null) {
+            triggerRefill();
+        }
+        if (dataKey != null) {
+            pooledKeysIssued.incrementAndGet();
+            return dataKey;
+        }
+        synchronousKeysIssued.incrementAndGet();
+        return DataKey.generate(keyEncrypt);
+    }
+
+    public Stats stats() {
+        long refilled = keysRefilled.get();
+        return new Stats(
+                ready.size(),
+                capacity,
+                pooledKeysIssued.get(),
+                synchronousKeysIssued.get(),
+                refilled,
+                refillFailures.get(),
+                refilled == 0 ? 0 : refillNanosTotal.get() / refilled,
+                refillNanosMax.get());
+    }
+
+    @Override
+    public void close() {
+        refillExecutor.shutdownNow();
+        ready.clear();
+    }
+
+    public boolean awaitFull(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (ready.size() < capacity) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private void triggerRefill() {
+        if (clock.millis() < refillsHeldUntilMillis) {
+            return;
+        }
+        int active = activeRefills.get();
+        while (active < refillThreads) {
+            if (activeRefills.compareAndSet(active, active + 1)) {
+                try {
+                    refillExecutor.execute(this::refill);
+                } catch (RejectedExecutionException e) {
+                    activeRefills.decrementAndGet();
+                    return;
+                }
+            }
+            active = activeRefills.get();
+        }
+    }
+
+    private void refill() {
+        boolean failed = false;
+        try {
+            while (ready.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+                long start = System.nanoTime();
+                DataKey dataKey = DataKey.generate(keyEncrypt);
+                recordRefill(System.nanoTime() - start);
+                if (retryDelayMillis != 0) {
+                    refillSucceeded();
+                }
+                if (!ready.offer(dataKey)) {
+                    break;
+                }
+            }
+        } catch (KeyOperationException | RuntimeException e) {
+            failed = true;
+            refillFailed(e);
+        } finally {
+            activeRefills.decrementAndGet();
+            if (failed) {
+                refillFailures.incrementAndGet();
+            }
+        }
+    }
+
+    private synchronized void refillSucceeded() {
+        if (retryDelayMillis != 0) {
+            retryDelayMillis = 0;
+            refillsHeldUntilMillis = 0;
+            log.info("Data key pool refills recovered");
+        }
+    }
+
+    private synchronized void refillFailed(Exception e) {
+        long now = clock.millis();
+        if (now < refillsHeldUntilMillis) {
+            // another refill thread already backed off for this failure
+            return;
+        }
+        boolean firstFailure = retryDelayMillis == 0;
+        retryDelayMillis = firstFailure
+                ? FIRST_RETRY_DELAY.toMillis()
+                : Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY.toMillis());
+        refillsHeldUntilMillis = now + retryDelayMillis;
+        if (firstFailure) {
+            log.warn("Unable to refill data key pool, backing off: {}", e.getMessage());
+        }
+    }
+
+    private void recordRefill(long nanos) {
+        keysRefilled.incrementAndGet();
+        refillNanosTotal.addAndGet(nanos);
+        refillNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    public record Stats(int depth,
+                        int capacity,
+                        long pooledKeysIssued,
+                        long synchronousKeysIssued,
+                        long keysRefilled,
+                        long refillFailures,
+                        long meanRefillNanos,
+                        long maxRefillNanos) {
+    }
+}
@@ -0,0 +1,7 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+
+public interface DataKeySource {
+    DataKey next() throws KeyOperationException;
+}
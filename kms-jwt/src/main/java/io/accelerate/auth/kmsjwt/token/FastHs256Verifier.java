@@ -0,0 +1,296 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SignatureException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Verifies the exact token shape {@link JWTEncoder} produces (HS256, a {@code kid}
+ * header and numeric {@code exp}/{@code nbf}) without going through jjwt's general
+ * parsing pipeline: the signing input and signature are handled in per-thread
+ * buffers with a per-thread {@link Mac}. Anything unusual is handed to jjwt instead,
+ * so results are the same as jjwt's: before the key is decrypted by returning
+ * {@code null}, afterwards by parsing with the already decrypted key.
+ */
+final class FastHs256Verifier {
+    static final String SIGNATURE_MISMATCH = "JWT signature does not match locally computed signature. "
+            + "JWT validity cannot be asserted and should not be trusted.";
+    private static final String HMAC_SHA_256 = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int ENCODED_SIGNATURE_LENGTH = 43;
+    private static final Set<String> SUPPORTED_HEADER_NAMES = Set.of("alg", "kid", "typ");
+    private static final byte[] BASE64_URL_VALUES = base64UrlValues();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final KeyDecrypt keyDecrypt;
+    private final long clockSkewMillis;
+    private final Clock clock;
+    private final TokenRevocations revocations;
+    private final KeyedParser fallback;
+
+    /**
+     * Verifies a token with jjwt, given its already decrypted key.
+     */
+    @FunctionalInterface
+    interface KeyedParser {
+        Claims parse(String jwt, byte[] decryptedKey) throws JWTVerificationException;
+    }
+
+    /**
+     * @param revocations checked by {@link #verify(String, ClaimsReader)}, or {@code null}
+     * @param fallback    for tokens the fast path does not handle
+     */
+    FastHs256Verifier(KeyDecrypt keyDecrypt, long clockSkewMillis, Clock clock, TokenRevocations revocations,
+                      KeyedParser fallback) {
+        this.keyDecrypt = keyDecrypt;
+        this.clockSkewMillis = clockSkewMillis;
+        this.clock = clock;
+        this.revocations = revocations;
+        this.fallback = fallback;
+    }
+
+    /**
+     * @return the verified claims, or {@code null} when the token has to go through jjwt
+     */
+    Claims verify(String jwt) throws JWTVerificationException {
+        SignedToken token = checkSignature(jwt);
+        if (token == null) {
+            return null;
+        }
+        if (!token.signatureVerified()) {
+            return verifyWithJjwt(jwt, token.key());
+        }
+
+        Map<String, ?> payload;
+        try {
+            payload = CompactJws.json(jwt.substring(token.headerEnd() + 1, token.payloadEnd()), "payload");
+        } catch (JWTVerificationException e) {
+            return verifyWithJjwt(jwt, token.key());
+        }
+        if (!withinValidityPeriod(payload)) {
+            return verifyWithJjwt(jwt, token.key());
+        }
+        try {
+            return Jwts.claims().add(payload).build();
+        } catch (RuntimeException e) {
+            return verifyWithJjwt(jwt, token.key());
+        }
+    }
+
+    /**
+     * Like {@link #verify} but reads the payload with {@code reader} instead of building a claims map,
+     * and rejects revoked tokens.
+     *
+     * @return the verified claims, or {@code null} when the token has to go through jjwt
+     */
+    <T> T verify(String jwt, ClaimsReader<T> reader) throws JWTVerificationException {
+        SignedToken token = checkSignature(jwt);
+        if (token == null) {
+            return null;
+        }
+        if (token.signatureVerified()) {
+            byte[] payload = decodeBase64Url(jwt, token.headerEnd() + 1, token.payloadEnd());
+            T claims = reader.read(payload, clock.millis(), clockSkewMillis, revocations);
+            if (claims != null) {
+                return claims;
+            }
+        }
+        Claims claims = verifyWithJjwt(jwt, token.key());
+        if (revocations != null) {
+            revocations.check(claims, clock.millis());
+        }
+        return reader.fromClaims(claims);
+    }
+
+    /**
+     * Decrypts the key and checks the signature of tokens of the expected shape.
+     *
+     * @return {@code null} when the token has to go through jjwt before its key is decrypted
+     */
+    private SignedToken checkSignature(String jwt) throws JWTVerificationException {
+        int headerEnd = jwt.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : jwt.indexOf('.', headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd <= headerEnd + 1
+                || jwt.length() - payloadEnd - 1 != ENCODED_SIGNATURE_LENGTH
+                || !isCanonicalBase64Url(jwt, 0, headerEnd)
+                || !isCanonicalBase64Url(jwt, headerEnd + 1, payloadEnd)
+                || !isCanonicalBase64Url(jwt, payloadEnd + 1, jwt.length())) {
+            return null;
+        }
+
+        Map<String, ?> header;
+        try {
+            header = CompactJws.header(jwt);
+        } catch (JWTVerificationException e) {
+            return null;
+        }
+        if (!"HS256".equals(header.get("alg")) || !SUPPORTED_HEADER_NAMES.containsAll(header.keySet())
+                || (header.containsKey("typ") && !(header.get("typ") instanceof String))) {
+            return null;
+        }
+        byte[] encryptedKey;
+        try {
+            encryptedKey = CompactJws.encryptedKey(header);
+        } catch (JWTVerificationException e) {
+            return null;
+        }
+
+        byte[] key;
+        try {
+            key = keyDecrypt.decrypt(encryptedKey);
+        } catch (KeyOperationException e) {
+            throw new JWTVerificationException("Key decryption failed", new IllegalArgumentException("Key decryption failed", e));
+        } catch (RuntimeException e) {
+            throw new JWTVerificationException(e.getMessage(), e);
+        }
+        if (key.length < SIGNATURE_LENGTH) {
+            return new SignedToken(key, headerEnd, payloadEnd, false);
+        }
+
+        Scratch scratch = SCRATCH.get();
+        decodeSignature(jwt, payloadEnd + 1, scratch.signature);
+        byte[] expected = scratch.sign(key, jwt, payloadEnd);
+        if (!MessageDigest.isEqual(expected, scratch.signature)) {
+            SignatureException mismatch = new SignatureException(SIGNATURE_MISMATCH);
+            throw new JWTVerificationException("Unable to read JSON Web Token: " + mismatch.getMessage(), mismatch);
+        }
+        return new SignedToken(key, headerEnd, payloadEnd, true);
+    }
+
+    private Claims verifyWithJjwt(String jwt, byte[] key) throws JWTVerificationException {
+        return fallback.parse(jwt, key);
+    }
+
+    private boolean withinValidityPeriod(Map<String, ?> payload) {
+        long now = clock.millis();
+        Object exp = payload.get("exp");
+        if (exp != null && (!isWholeNumber(exp) || now - clockSkewMillis > ((Number) exp).longValue() * 1000)) {
+            return false;
+        }
+        Object nbf = payload.get("nbf");
+        if (nbf != null && (!isWholeNumber(nbf) || now + clockSkewMillis < ((Number) nbf).longValue() * 1000)) {
+            return false;
+        }
+        Object iat = payload.get("iat");
+        return iat == null || isWholeNumber(iat);
+    }
+
+    private static boolean isWholeNumber(Object value) {
+        return value instanceof Integer || value instanceof Long;
+    }
+
+    /**
+     * Unpadded Base64URL whose unused trailing bits are zero. Anything else is left to jjwt to judge.
+     */
+    private static boolean isCanonicalBase64Url(String jwt, int from, int to) {
+        int length = to - from;
+        if (length % 4 == 1) {
+            return false;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = jwt.charAt(i);
+            if (c >= 128 || BASE64_URL_VALUES[c] < 0) {
+                return false;
+            }
+            value = BASE64_URL_VALUES[c];
+        }
+        int unusedBitsMask = switch (length % 4) {
+            case 2 -> 0x0F;
+            case 3 -> 0x03;
+            default -> 0;
+        };
+        return (value & unusedBitsMask) == 0;
+    }
+
+    private static void decodeSignature(String jwt, int offset, byte[] into) {
+        decodeBase64Url(jwt, offset, offset + ENCODED_SIGNATURE_LENGTH, into);
+    }
+
+    private static byte[] decodeBase64Url(String jwt, int from, int to) {
+        byte[] decoded = new byte[(to - from) * 6 / 8];
+        decodeBase64Url(jwt, from, to, decoded);
+        return decoded;
+    }
+
+    private static void decodeBase64Url(String jwt, int from, int to, byte[] into) {
+        int out = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = from; i < to; i++) {
+            bits = (bits << 6) | BASE64_URL_VALUES[jwt.charAt(i)];
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                into[out++] = (byte) (bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+    }
+
+    private static byte[] base64UrlValues() {
+        byte[] values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            values[alphabet.charAt(i)] = (byte) i;
+        }
+        return values;
+    }
+
+    /**
+     * @param signatureVerified {@code false} when the key is too short for the fast path to check the signature
+     */
+    private record SignedToken(byte[] key, int headerEnd, int payloadEnd, boolean signatureVerified) {
+    }
+
+    private static final class Scratch {
+        private final Mac mac;
+        private final byte[] signature = new byte[SIGNATURE_LENGTH];
+        private final byte[] expected = new byte[SIGNATURE_LENGTH];
+        private byte[] signingInput = new byte[1024];
+        private byte[] currentKey;
+
+        Scratch() {
+            try {
+                mac = Mac.getInstance(HMAC_SHA_256);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        }
+
+        byte[] sign(byte[] key, String jwt, int signingInputLength) {
+            try {
+                if (!Arrays.equals(key, currentKey)) {
+                    mac.init(new SecretKeySpec(key, HMAC_SHA_256));
+                    currentKey = key.clone();
+                }
+                if (signingInput.length < signingInputLength) {
+                    signingInput = new byte[Math.max(signingInputLength, signingInput.length * 2)];
+                }
+                for (int i = 0; i < signingInputLength; i++) {
+                    signingInput[i] = (byte) jwt.charAt(i);
+                }
+                mac.update(signingInput, 0, signingInputLength);
+                mac.doFinal(expected, 0);
+                return expected;
+            } catch (InvalidKeyException | ShortBufferException e) {
+                currentKey = null;
+                throw new IllegalStateException("Unable to compute HMAC", e);
+            }
+        }
+    }
+}
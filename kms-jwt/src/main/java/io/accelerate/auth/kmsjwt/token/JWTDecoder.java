@@ -1,34 +1,321 @@
 package io.accelerate.auth.kmsjwt.token;
 
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Header;
 import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.Locator;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import io.accelerate.auth.kmsjwt.key.CachingKeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.CoalescingKeyDecrypt;
 import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyDecryptAsync;
 import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.key.KeySign;
+import io.accelerate.auth.kmsjwt.key.KmsResilience;
+import io.accelerate.auth.kmsjwt.key.MappedFileKeyCache;
+import io.accelerate.auth.kmsjwt.key.NegativeCachingKeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.PublicKeyLookup;
+import io.accelerate.auth.kmsjwt.key.RateLimitedKeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.SharedCachingKeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.SigningAlgorithm;
 
 import java.security.Key;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public class JWTDecoder {
+    private static final Duration DEFAULT_CLOCK_SKEW = Duration.ofSeconds(60);
+    private static final Executor VIRTUAL_THREADS = task -> Thread.ofVirtual().name("jwt-key-decrypt").start(task);
+    private static final KeyDecrypt NO_DATA_KEYS = ciphertext -> {
+        throw new KeyOperationException("Only tokens signed through KMS Sign are accepted");
+    };
+
     private final JwtParser jwtParser;
+    private final DecryptKeyViaKid keyLocator;
+    private final KeyDecryptAsync keyDecryptAsync;
+    private final MetricsListener metrics;
+    private final long clockSkewMillis;
+    private final Clock clock;
+    private final VerifiedClaimsCache claimsCache;
+    private final PreValidation preValidation;
+    private final FastHs256Verifier fastPath;
+    private final boolean fastPathVerification;
+    private final TokenRevocations revocations;
 
     public JWTDecoder(KeyDecrypt keyDecrypt) {
+        this(builder(keyDecrypt));
+    }
+
+    private JWTDecoder(Builder builder) {
+        KeyDecrypt keyDecrypt = builder.keyDecrypt;
+        if (builder.kmsResilience != null) {
+            keyDecrypt = builder.kmsResilience.decrypting(keyDecrypt);
+        }
+        if (builder.keyDecryptsPerSecond > 0) {
+            keyDecrypt = new RateLimitedKeyDecrypt(keyDecrypt, builder.keyDecryptsPerSecond, builder.keyDecryptBurst,
+                    builder.clock);
+        }
+        if (builder.negativeKeyCacheMaxEntries > 0) {
+            keyDecrypt = new NegativeCachingKeyDecrypt(keyDecrypt, builder.negativeKeyCacheMaxEntries,
+                    builder.negativeKeyCacheTtl, builder.clock, builder.metrics);
+        }
+        if (builder.sharedKeyCache != null) {
+            keyDecrypt = new SharedCachingKeyDecrypt(keyDecrypt, builder.sharedKeyCache, builder.metrics);
+        }
+        if (builder.coalesceKeyDecrypts) {
+            keyDecrypt = new CoalescingKeyDecrypt(keyDecrypt);
+        }
+        if (builder.keyCacheMaxEntries > 0) {
+            keyDecrypt = new CachingKeyDecrypt(keyDecrypt, builder.keyCacheMaxEntries, builder.keyCacheTtl,
+                    builder.maxKeyStaleness, builder.clock, builder.metrics);
+        }
+        this.clockSkewMillis = builder.clockSkew.toSeconds() * 1000;
+        this.clock = builder.clock;
+        this.keyLocator = new DecryptKeyViaKid(keyDecrypt, builder.publicKeys);
         this.jwtParser = Jwts.parser()
-                .clockSkewSeconds(60)
-                .keyLocator(new DecryptKeyViaKid(keyDecrypt))
+                .clockSkewSeconds(clockSkewMillis / 1000)
+                .clock(() -> Date.from(clock.instant()))
+                .keyLocator(keyLocator)
                 .build();
+        // An async source is only used directly when no cache or guard is configured around it
+        this.keyDecryptAsync = builder.keyDecryptAsync != null && keyDecrypt == builder.keyDecrypt
+                ? builder.keyDecryptAsync
+                : KeyDecryptAsync.onExecutor(keyDecrypt, VIRTUAL_THREADS);
+        this.metrics = builder.metrics;
+        this.claimsCache = builder.claimsCacheMaxEntries > 0
+                ? new VerifiedClaimsCache(builder.claimsCacheMaxEntries, builder.claimsCacheMaxBytes,
+                        clockSkewMillis, clock, metrics)
+                : null;
+        this.preValidation = builder.preValidation;
+        this.revocations = builder.revocations;
+        this.fastPath = new FastHs256Verifier(keyDecrypt, clockSkewMillis, clock, revocations, this::parseWithDecryptedKey);
+        this.fastPathVerification = builder.fastPathVerification;
+    }
+
+    public static Builder builder(KeyDecrypt keyDecrypt) {
+        return new Builder(keyDecrypt, null);
+    }
+
+    public static Builder builder(KeyDecryptAsync keyDecryptAsync) {
+        return new Builder(KeyDecryptAsync.blocking(keyDecryptAsync), keyDecryptAsync);
+    }
+
+    /**
+     * For verifiers without KMS Decrypt access: accepts only tokens from {@link JWTEncoder#builder(KeySign)},
+     * verified locally against {@code publicKeys}. HS256 tokens are rejected as {@code KEY_UNAVAILABLE}.
+     */
+    public static Builder builder(PublicKeyLookup publicKeys) {
+        return new Builder(NO_DATA_KEYS, null).publicKeys(publicKeys);
     }
 
     public Claims decodeAndVerify(String jwt) throws JWTVerificationException {
+        long start = System.nanoTime();
         if (jwt == null || jwt.isBlank()) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.EMPTY_TOKEN);
             throw new JWTVerificationException("JWT value is empty", null);
         }
         try {
-            return jwtParser.parseSignedClaims(jwt).getPayload();
+            Claims claims = cachedClaims(jwt);
+            boolean cached = claims != null;
+            if (!cached) {
+                if (preValidation != null) {
+                    preValidation.check(jwt, clock.millis(), clockSkewMillis);
+                }
+                claims = fastPathVerification ? fastPath.verify(jwt) : null;
+                if (claims == null) {
+                    claims = parse(jwtParser, jwt);
+                }
+            }
+            checkRevocation(claims);
+            if (!cached) {
+                cacheClaims(jwt, claims);
+            }
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.SUCCESS);
+            return claims;
+        } catch (JWTVerificationException e) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, outcomeOf(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Verifies the token like {@link #decodeAndVerify(String)} but reads its claims with {@code reader}
+     * rather than building a claims map. Tokens of the shape {@link JWTEncoder} produces always take
+     * the fast path of {@link Builder#fastPathVerification}, others fall back to jjwt. Hits in the
+     * {@link Builder#claimsCache} are used, but claims read this way are not added to it.
+     */
+    public <T> T decodeAndVerify(String jwt, ClaimsReader<T> reader) throws JWTVerificationException {
+        long start = System.nanoTime();
+        if (jwt == null || jwt.isBlank()) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.EMPTY_TOKEN);
+            throw new JWTVerificationException("JWT value is empty", null);
+        }
+        try {
+            Claims cached = cachedClaims(jwt);
+            T claims;
+            if (cached != null) {
+                checkRevocation(cached);
+                claims = reader.fromClaims(cached);
+            } else {
+                if (preValidation != null) {
+                    preValidation.check(jwt, clock.millis(), clockSkewMillis);
+                }
+                claims = fastPath.verify(jwt, reader);
+                if (claims == null) {
+                    Claims parsed = parse(jwtParser, jwt);
+                    checkRevocation(parsed);
+                    claims = reader.fromClaims(parsed);
+                }
+            }
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.SUCCESS);
+            return claims;
+        } catch (JWTVerificationException e) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, outcomeOf(e));
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Claims> decodeAndVerifyAsync(String jwt) {
+        long start = System.nanoTime();
+        if (jwt == null || jwt.isBlank()) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.EMPTY_TOKEN);
+            return CompletableFuture.failedFuture(new JWTVerificationException("JWT value is empty", null));
+        }
+        byte[] encryptedKey;
+        try {
+            Claims cached = cachedClaims(jwt);
+            if (cached != null) {
+                checkRevocation(cached);
+                metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.SUCCESS);
+                return CompletableFuture.completedFuture(cached);
+            }
+            Map<String, ?> header = preValidation != null
+                    ? preValidation.check(jwt, clock.millis(), clockSkewMillis)
+                    : CompactJws.header(jwt);
+            if (SigningAlgorithm.fromJwsName(header.get("alg")) != null) {
+                return CompletableFuture.supplyAsync(() -> verifySigned(jwt, start), VIRTUAL_THREADS);
+            }
+            encryptedKey = CompactJws.encryptedKey(header);
+        } catch (JWTVerificationException e) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, outcomeOf(e));
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return keyDecryptAsync.decryptAsync(encryptedKey)
+                .handle((decrypted, error) -> {
+                    try {
+                        if (error != null) {
+                            throw new JWTVerificationException("Key decryption failed", asException(error));
+                        }
+                        Claims claims = parseWithDecryptedKey(jwt, decrypted);
+                        checkRevocation(claims);
+                        cacheClaims(jwt, claims);
+                        metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.SUCCESS);
+                        return claims;
+                    } catch (JWTVerificationException e) {
+                        metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, outcomeOf(e));
+                        throw new CompletionException(e);
+                    }
+                });
+    }
+
+    /**
+     * Public keys are cached, so this rarely waits on KMS, but it may: hence a virtual thread.
+     */
+    private Claims verifySigned(String jwt, long start) {
+        try {
+            Claims claims = parse(jwtParser, jwt);
+            checkRevocation(claims);
+            cacheClaims(jwt, claims);
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, Outcome.SUCCESS);
+            return claims;
+        } catch (JWTVerificationException e) {
+            metrics.operationCompleted(Operation.JWT_VERIFY, null, System.nanoTime() - start, outcomeOf(e));
+            throw new CompletionException(e);
+        }
+    }
+
+    private Claims parseWithDecryptedKey(String jwt, byte[] decryptedKey) throws JWTVerificationException {
+        keyLocator.decryptedKey.set(decryptedKey);
+        try {
+            return parse(jwtParser, jwt);
+        } finally {
+            keyLocator.decryptedKey.remove();
+        }
+    }
+
+    private static Outcome outcomeOf(JWTVerificationException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof PreValidation.RejectedTokenException rejected) {
+            return rejected.rejection().outcome();
+        }
+        if (cause instanceof TokenRevocations.RevokedTokenException) {
+            return Outcome.REVOKED;
+        }
+        if (cause instanceof ExpiredJwtException) {
+            return Outcome.EXPIRED;
+        }
+        if (cause instanceof PrematureJwtException) {
+            return Outcome.NOT_YET_VALID;
+        }
+        if (cause instanceof SignatureException) {
+            return Outcome.INVALID_SIGNATURE;
+        }
+        if (cause instanceof MissingKeyIdException) {
+            return Outcome.MISSING_KEY_ID;
+        }
+        if (cause instanceof KeyOperationException || (cause != null && cause.getCause() instanceof KeyOperationException)) {
+            return Outcome.KEY_UNAVAILABLE;
+        }
+        if (cause instanceof JwtException || cause instanceof IllegalArgumentException || cause == null) {
+            return Outcome.MALFORMED_TOKEN;
+        }
+        return Outcome.REJECTED;
+    }
+
+    private void checkRevocation(Claims claims) throws JWTVerificationException {
+        if (revocations != null) {
+            revocations.check(claims, clock.millis());
+        }
+    }
+
+    private Claims cachedClaims(String jwt) {
+        return claimsCache == null ? null : claimsCache.get(jwt);
+    }
+
+    private void cacheClaims(String jwt, Claims claims) {
+        if (claimsCache != null) {
+            claimsCache.put(jwt, claims);
+        }
+    }
+
+    private static Exception asException(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception exception ? exception : new ExecutionException(cause);
+    }
+
+    static Claims parse(JwtParser parser, String jwt) throws JWTVerificationException {
+        try {
+            return parser.parseSignedClaims(jwt).getPayload();
         } catch (IllegalArgumentException e) {
             throw new JWTVerificationException(e.getMessage(), e);
         } catch (JwtException e) {
@@ -40,16 +327,37 @@ public class JWTDecoder {
 
     private static final class DecryptKeyViaKid implements Locator<Key> {
         private final KeyDecrypt keyDecrypt;
+        private final PublicKeyLookup publicKeys;
+        /**
+         * The HS256 key already decrypted for the token being parsed on this thread, if any.
+         */
+        private final ThreadLocal<byte[]> decryptedKey = new ThreadLocal<>();
 
-        DecryptKeyViaKid(KeyDecrypt keyDecrypt) {
+        DecryptKeyViaKid(KeyDecrypt keyDecrypt, PublicKeyLookup publicKeys) {
             this.keyDecrypt = keyDecrypt;
+            this.publicKeys = publicKeys;
         }
 
         @Override
         public Key locate(Header header) {
             Object kidObj = header.get("kid");
             if (!(kidObj instanceof String kid) || kid.isEmpty()) {
-                throw new IllegalArgumentException("No key ID has been found in the JWT header");
+                throw new MissingKeyIdException();
+            }
+            SigningAlgorithm signingAlgorithm = SigningAlgorithm.fromJwsName(header.get("alg"));
+            if (signingAlgorithm != null) {
+                if (publicKeys == null) {
+                    throw new UnsupportedJwtException(signingAlgorithm + " tokens are not accepted without public keys");
+                }
+                try {
+                    return publicKeys.publicKey(kid, signingAlgorithm);
+                } catch (KeyOperationException e) {
+                    throw new IllegalArgumentException("Public key lookup failed", e);
+                }
+            }
+            byte[] alreadyDecrypted = decryptedKey.get();
+            if (alreadyDecrypted != null) {
+                return Keys.hmacShaKeyFor(alreadyDecrypted);
             }
             try {
                 byte[] decrypted = keyDecrypt.decrypt(Base64.getDecoder().decode(kid));
@@ -59,4 +367,178 @@ public class JWTDecoder {
             }
         }
     }
+
+    public static final class Builder {
+        private final KeyDecrypt keyDecrypt;
+        private final KeyDecryptAsync keyDecryptAsync;
+        private int keyCacheMaxEntries;
+        private Duration keyCacheTtl;
+        private boolean coalesceKeyDecrypts;
+        private int negativeKeyCacheMaxEntries;
+        private Duration negativeKeyCacheTtl;
+        private double keyDecryptsPerSecond;
+        private int keyDecryptBurst;
+        private MetricsListener metrics = MetricsListener.NOOP;
+        private int claimsCacheMaxEntries;
+        private long claimsCacheMaxBytes;
+        private Duration clockSkew = DEFAULT_CLOCK_SKEW;
+        private Clock clock = Clock.systemUTC();
+        private PreValidation preValidation;
+        private boolean fastPathVerification;
+        private MappedFileKeyCache sharedKeyCache;
+        private KmsResilience kmsResilience;
+        private Duration maxKeyStaleness = Duration.ZERO;
+        private PublicKeyLookup publicKeys;
+        private TokenRevocations revocations;
+
+        private Builder(KeyDecrypt keyDecrypt, KeyDecryptAsync keyDecryptAsync) {
+            this.keyDecrypt = keyDecrypt;
+            this.keyDecryptAsync = keyDecryptAsync;
+        }
+
+        public Builder keyCache(int maxEntries, Duration ttl) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Key cache size must be positive");
+            }
+            this.keyCacheMaxEntries = maxEntries;
+            this.keyCacheTtl = ttl;
+            return this;
+        }
+
+        public Builder coalesceKeyDecrypts() {
+            this.coalesceKeyDecrypts = true;
+            return this;
+        }
+
+        /**
+         * Caches the claims of verified tokens so that repeated verifications of the same token skip
+         * parsing and signature checks. Entries are bounded by count and approximate size in bytes and
+         * never outlive the token's expiry plus the clock skew. Tokens without an expiry are not cached.
+         * A cached token stays valid until it expires even if its data key is revoked in KMS meanwhile.
+         */
+        public Builder claimsCache(int maxEntries, long maxBytes) {
+            if (maxEntries <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("Claims cache size must be positive");
+            }
+            this.claimsCacheMaxEntries = maxEntries;
+            this.claimsCacheMaxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Runs cheap structural, algorithm and expiry checks before any key is decrypted,
+         * so that tokens which would be rejected anyway do not cost a KMS call.
+         */
+        public Builder preValidation(PreValidation preValidation) {
+            this.preValidation = preValidation;
+            return this;
+        }
+
+        /**
+         * Verifies HS256 tokens of the shape {@link JWTEncoder} produces with a specialised verifier
+         * that avoids most of jjwt's parsing and per-call allocations. Other tokens, and every
+         * rejection other than a bad signature or a failed key decrypt, still go through jjwt.
+         */
+        public Builder fastPathVerification() {
+            this.fastPathVerification = true;
+            return this;
+        }
+
+        public Builder clockSkew(Duration clockSkew) {
+            if (clockSkew.isNegative()) {
+                throw new IllegalArgumentException("Clock skew must not be negative");
+            }
+            this.clockSkew = clockSkew;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Remembers key IDs that KMS refused to decrypt (or that belong to an unexpected key) and
+         * rejects them locally for {@code ttl}. Throttling and other transient failures are not remembered.
+         */
+        public Builder negativeKeyCache(int maxEntries, Duration ttl) {
+            if (maxEntries <= 0) {
+                throw new IllegalArgumentException("Negative key cache size must be positive");
+            }
+            this.negativeKeyCacheMaxEntries = maxEntries;
+            this.negativeKeyCacheTtl = ttl;
+            return this;
+        }
+
+        /**
+         * Puts the concurrency limit and circuit breaker of {@code kmsResilience} around every key decrypt.
+         */
+        public Builder kmsResilience(KmsResilience kmsResilience) {
+            this.kmsResilience = kmsResilience;
+            return this;
+        }
+
+        /**
+         * Keeps serving keys from the {@link #keyCache} for up to {@code maxStaleness} past their TTL
+         * while {@link #kmsResilience} rejects KMS calls.
+         */
+        public Builder serveStaleKeys(Duration maxStaleness) {
+            if (maxStaleness.isNegative()) {
+                throw new IllegalArgumentException("Maximum staleness must not be negative");
+            }
+            this.maxKeyStaleness = maxStaleness;
+            return this;
+        }
+
+        /**
+         * Looks keys up in a cache file shared with the other processes on the host before decrypting
+         * them, so that a restarted process verifies tokens already in use without calling KMS.
+         * Hits do not count towards {@link #keyDecryptRateLimit}.
+         */
+        public Builder sharedKeyCache(MappedFileKeyCache sharedKeyCache) {
+            this.sharedKeyCache = sharedKeyCache;
+            return this;
+        }
+
+        /**
+         * Limits key decrypts that miss every cache to {@code permitsPerSecond}, with bursts of up to
+         * {@code burst}. Tokens over the limit are rejected without calling KMS.
+         */
+        public Builder keyDecryptRateLimit(double permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0 || burst <= 0) {
+                throw new IllegalArgumentException("Key decrypt rate limit must be positive");
+            }
+            this.keyDecryptsPerSecond = permitsPerSecond;
+            this.keyDecryptBurst = burst;
+            return this;
+        }
+
+        /**
+         * Also accepts ES256 and RS256 tokens from {@link JWTEncoder#builder(KeySign)},
+         * verified locally against the public key their {@code kid} names. Remember to allow these
+         * algorithms in {@link #preValidation} too.
+         */
+        public Builder publicKeys(PublicKeyLookup publicKeys) {
+            this.publicKeys = publicKeys;
+            return this;
+        }
+
+        /**
+         * Rejects verified tokens whose {@code jti} is in {@code revocations}, including tokens already
+         * in the {@link #claimsCache}. Revocations take effect on the next verification.
+         */
+        public Builder revocations(TokenRevocations revocations) {
+            this.revocations = revocations;
+            return this;
+        }
+
+        public Builder metrics(MetricsListener metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public JWTDecoder build() {
+            return new JWTDecoder(this);
+        }
+    }
 }
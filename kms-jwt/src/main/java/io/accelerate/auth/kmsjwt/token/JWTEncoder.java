@@ -1,26 +1,76 @@
 package io.accelerate.auth.kmsjwt.token;
 
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.metrics.Outcomes;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.JwtBuilder;
-import io.jsonwebtoken.security.MacAlgorithm;
 import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyEncryptAsync;
 import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.key.KeySign;
+import io.accelerate.auth.kmsjwt.key.PublicKeyLookup;
+import io.jsonwebtoken.security.SignatureException;
 
-import javax.crypto.SecretKey;
-import java.util.Base64;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public final class JWTEncoder {
 
     private JWTEncoder() { }
 
     public static JwtBuilder builder(KeyEncrypt keyEncrypt) throws KeyOperationException {
-        MacAlgorithm alg = Jwts.SIG.HS256; // new algorithm API
-        SecretKey secretKey = alg.key().build(); // generate a suitable HMAC key
+        return builder(DataKey.generate(keyEncrypt));
+    }
+
+    public static JwtBuilder builder(DataKeySource dataKeySource) throws KeyOperationException {
+        return builder(dataKeySource.next());
+    }
+
+    public static JwtBuilder builder(KeyEncrypt keyEncrypt, MetricsListener metrics) throws KeyOperationException {
+        return builder(() -> DataKey.generate(keyEncrypt), metrics);
+    }
+
+    public static JwtBuilder builder(DataKeySource dataKeySource, MetricsListener metrics) throws KeyOperationException {
+        long start = System.nanoTime();
+        try {
+            JwtBuilder builder = builder(dataKeySource.next());
+            metrics.operationCompleted(Operation.JWT_BUILDER, null, System.nanoTime() - start, Outcome.SUCCESS);
+            return builder;
+        } catch (KeyOperationException e) {
+            metrics.operationCompleted(Operation.JWT_BUILDER, null, System.nanoTime() - start, Outcomes.ofKmsFailure(e));
+            throw e;
+        }
+    }
 
-        byte[] encryptedKey = keyEncrypt.encrypt(secretKey.getEncoded());
+    /**
+     * Signs with the KMS key itself ({@code Sign}, ES256 or RS256) instead of a data key: the {@code kid}
+     * is the key ARN, so verifiers only need its public key, see {@link JWTDecoder#builder(PublicKeyLookup)}.
+     * KMS is called by {@link JwtBuilder#compact()}, which reports a failure as a {@link SignatureException}
+     * caused by the {@link KeyOperationException}.
+     */
+    public static JwtBuilder builder(KeySign keySign) {
+        KmsSignatureAlgorithm algorithm = new KmsSignatureAlgorithm(keySign);
+        return Jwts.builder()
+                .header().add("kid", keySign.keyArn()).and()
+                .signWith(algorithm.signingKey(), algorithm);
+    }
+
+    /**
+     * Stamps a random {@code jti} on the token, so that it can be revoked with {@link TokenRevocations}.
+     */
+    public static JwtBuilder withTokenId(JwtBuilder builder) {
+        return builder.id(UUID.randomUUID().toString());
+    }
+
+    public static CompletableFuture<JwtBuilder> builderAsync(KeyEncryptAsync keyEncryptAsync) {
+        return DataKey.generateAsync(keyEncryptAsync).thenApply(JWTEncoder::builder);
+    }
 
+    private static JwtBuilder builder(DataKey dataKey) {
         return Jwts.builder()
-                .header().add("kid", Base64.getEncoder().encodeToString(encryptedKey)).and()
-                .signWith(secretKey, alg);
+                .header().add("kid", dataKey.kid()).and()
+                .signWith(dataKey.secretKey(), Jwts.SIG.HS256);
     }
 }
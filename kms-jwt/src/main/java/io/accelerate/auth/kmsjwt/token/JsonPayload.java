@@ -0,0 +1,362 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.jsonwebtoken.MalformedJwtException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks the top-level members of a JSON object in place, so that callers read only the members
+ * they care about and skip the rest without building any values for them. Skipped values are still
+ * checked against the full grammar, nested objects included. It is at least as strict as jjwt's
+ * Jackson deserializer (duplicate members at any depth, non-JSON numbers and invalid UTF-8 are
+ * rejected) and also rejects escaped member names and deeply nested values, so that anything it is
+ * unsure about can be handed to jjwt.
+ */
+final class JsonPayload {
+    private static final int MAX_DEPTH = 32;
+
+    private final byte[] json;
+    private int position;
+    private boolean nonAscii;
+
+    JsonPayload(byte[] json) {
+        this.json = json;
+    }
+
+    @FunctionalInterface
+    interface MemberVisitor {
+        /**
+         * Must consume the member's value, which starts at the current position.
+         */
+        void member(JsonPayload payload, int keyStart, int keyEnd) throws JWTVerificationException;
+    }
+
+    void forEachMember(MemberVisitor visitor) throws JWTVerificationException {
+        skipWhitespace();
+        readObject(visitor);
+        skipWhitespace();
+        if (position != json.length) {
+            throw malformed();
+        }
+        if (nonAscii) {
+            try {
+                StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(json));
+            } catch (CharacterCodingException e) {
+                throw malformed();
+            }
+        }
+    }
+
+    private void readObject(MemberVisitor visitor) throws JWTVerificationException {
+        int[] keys = new int[16];
+        int keyCount = 0;
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return;
+        }
+        while (true) {
+            expect('"');
+            int keyStart = position;
+            if (skipStringContent()) {
+                throw malformed();
+            }
+            int keyEnd = position - 1;
+            for (int i = 0; i < keyCount; i += 2) {
+                if (Arrays.equals(json, keys[i], keys[i + 1], json, keyStart, keyEnd)) {
+                    throw malformed();
+                }
+            }
+            if (keyCount == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[keyCount++] = keyStart;
+            keys[keyCount++] = keyEnd;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            visitor.member(this, keyStart, keyEnd);
+            skipWhitespace();
+            byte next = next();
+            if (next == '}') {
+                return;
+            }
+            if (next != ',') {
+                throw malformed();
+            }
+            skipWhitespace();
+        }
+    }
+
+    boolean keyEquals(int keyStart, int keyEnd, byte[] name) {
+        return Arrays.equals(json, keyStart, keyEnd, name, 0, name.length);
+    }
+
+    int position() {
+        return position;
+    }
+
+    void position(int position) {
+        this.position = position;
+    }
+
+    boolean readNull() throws JWTVerificationException {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return true;
+        }
+        return false;
+    }
+
+    String readString() throws JWTVerificationException {
+        expect('"');
+        int start = position;
+        boolean escaped = skipStringContent();
+        int end = position - 1;
+        return escaped ? decodeString(start, end) : new String(json, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    List<String> readStringList() throws JWTVerificationException {
+        expect('[');
+        List<String> values = new ArrayList<>();
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return values;
+        }
+        while (true) {
+            skipWhitespace();
+            values.add(readString());
+            skipWhitespace();
+            byte next = next();
+            if (next == ']') {
+                return values;
+            }
+            if (next != ',') {
+                throw malformed();
+            }
+        }
+    }
+
+    boolean readBoolean() throws JWTVerificationException {
+        if (peek() == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        expectLiteral("false");
+        return false;
+    }
+
+    /**
+     * @return a {@link Long} for integers that fit in one, otherwise a {@link Double}
+     */
+    Number readNumber() throws JWTVerificationException {
+        int start = position;
+        if (position < json.length && json[position] == '-') {
+            position++;
+        }
+        if (position < json.length && json[position] == '0') {
+            position++;
+        } else if (skipDigits() == 0) {
+            throw malformed();
+        }
+        boolean integral = true;
+        if (position < json.length && json[position] == '.') {
+            integral = false;
+            position++;
+            if (skipDigits() == 0) {
+                throw malformed();
+            }
+        }
+        if (position < json.length && (json[position] == 'e' || json[position] == 'E')) {
+            integral = false;
+            position++;
+            if (position < json.length && (json[position] == '+' || json[position] == '-')) {
+                position++;
+            }
+            if (skipDigits() == 0) {
+                throw malformed();
+            }
+        }
+        String number = new String(json, start, position - start, StandardCharsets.US_ASCII);
+        if (integral) {
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                // too large for a long
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+    private int skipDigits() {
+        int start = position;
+        while (position < json.length && json[position] >= '0' && json[position] <= '9') {
+            position++;
+        }
+        return position - start;
+    }
+
+    void skipValue() throws JWTVerificationException {
+        skipValue(0);
+    }
+
+    private void skipValue(int depth) throws JWTVerificationException {
+        byte first = peek();
+        switch (first) {
+            case '"' -> {
+                position++;
+                skipStringContent();
+            }
+            case '{' -> skipObject(depth + 1);
+            case '[' -> skipArray(depth + 1);
+            case 't' -> expectLiteral("true");
+            case 'f' -> expectLiteral("false");
+            case 'n' -> expectLiteral("null");
+            default -> readNumber();
+        }
+    }
+
+    private void skipObject(int depth) throws JWTVerificationException {
+        if (depth > MAX_DEPTH) {
+            throw malformed();
+        }
+        readObject((payload, keyStart, keyEnd) -> payload.skipValue(depth));
+    }
+
+    private void skipArray(int depth) throws JWTVerificationException {
+        if (depth > MAX_DEPTH) {
+            throw malformed();
+        }
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            skipValue(depth);
+            skipWhitespace();
+            byte next = next();
+            if (next == ']') {
+                return;
+            }
+            if (next != ',') {
+                throw malformed();
+            }
+        }
+    }
+
+    /**
+     * Moves past the closing quote of a string whose opening quote has been consumed.
+     *
+     * @return whether the string contains escape sequences
+     */
+    private boolean skipStringContent() throws JWTVerificationException {
+        boolean escaped = false;
+        while (true) {
+            byte b = next();
+            if (b == '"') {
+                return escaped;
+            }
+            if (b == '\\') {
+                escaped = true;
+                next();
+            } else if (b < 0) {
+                nonAscii = true;
+            } else if (b < 0x20) {
+                throw malformed();
+            }
+        }
+    }
+
+    private String decodeString(int start, int end) throws JWTVerificationException {
+        StringBuilder decoded = new StringBuilder(end - start);
+        int segmentStart = start;
+        int i = start;
+        while (i < end) {
+            if (json[i] != '\\') {
+                i++;
+                continue;
+            }
+            decoded.append(new String(json, segmentStart, i - segmentStart, StandardCharsets.UTF_8));
+            if (i + 1 >= end) {
+                throw malformed();
+            }
+            byte escape = json[i + 1];
+            i += 2;
+            switch (escape) {
+                case '"' -> decoded.append('"');
+                case '\\' -> decoded.append('\\');
+                case '/' -> decoded.append('/');
+                case 'b' -> decoded.append('\b');
+                case 'f' -> decoded.append('\f');
+                case 'n' -> decoded.append('\n');
+                case 'r' -> decoded.append('\r');
+                case 't' -> decoded.append('\t');
+                case 'u' -> {
+                    if (i + 4 > end) {
+                        throw malformed();
+                    }
+                    try {
+                        decoded.append((char) Integer.parseInt(new String(json, i, 4, StandardCharsets.US_ASCII), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed();
+                    }
+                    i += 4;
+                }
+                default -> throw malformed();
+            }
+            segmentStart = i;
+        }
+        decoded.append(new String(json, segmentStart, end - segmentStart, StandardCharsets.UTF_8));
+        return decoded.toString();
+    }
+
+    private void expectLiteral(String literal) throws JWTVerificationException {
+        for (int i = 0; i < literal.length(); i++) {
+            expect(literal.charAt(i));
+        }
+    }
+
+    private void expect(char expected) throws JWTVerificationException {
+        if (next() != expected) {
+            throw malformed();
+        }
+    }
+
+    private byte peek() throws JWTVerificationException {
+        if (position >= json.length) {
+            throw malformed();
+        }
+        return json[position];
+    }
+
+    private byte next() throws JWTVerificationException {
+        byte b = peek();
+        position++;
+        return b;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length) {
+            byte b = json[position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    static JWTVerificationException malformed() {
+        MalformedJwtException cause = new MalformedJwtException("Malformed JWT payload");
+        return new JWTVerificationException("Unable to read JSON Web Token: malformed payload", cause);
+    }
+}
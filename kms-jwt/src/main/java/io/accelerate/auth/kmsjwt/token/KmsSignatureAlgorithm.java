@@ -0,0 +1,130 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.key.KeySign;
+import io.accelerate.auth.kmsjwt.key.SigningAlgorithm;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SecureDigestAlgorithm;
+import io.jsonwebtoken.security.SecureRequest;
+import io.jsonwebtoken.security.SignatureException;
+import io.jsonwebtoken.security.VerifySecureDigestRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Lets jjwt sign through {@link KeySign}: the signing input is hashed locally, so only its SHA-256
+ * digest goes to KMS, and ECDSA signatures are transcoded from DER to the fixed-length {@code R || S}
+ * form that JWS requires. Verification is left to jjwt's own algorithms.
+ */
+final class KmsSignatureAlgorithm implements SecureDigestAlgorithm<PrivateKey, PublicKey> {
+    private static final int ES256_COORDINATE_LENGTH = 32;
+
+    private final KeySign keySign;
+    private final SigningKey signingKey;
+
+    KmsSignatureAlgorithm(KeySign keySign) {
+        this.keySign = keySign;
+        this.signingKey = new SigningKey(keySign.algorithm().keyAlgorithm());
+    }
+
+    /**
+     * @return a placeholder for the private key, which never leaves KMS
+     */
+    PrivateKey signingKey() {
+        return signingKey;
+    }
+
+    @Override
+    public String getId() {
+        return keySign.algorithm().name();
+    }
+
+    @Override
+    public byte[] digest(SecureRequest<InputStream, PrivateKey> request) throws SignatureException {
+        try (InputStream signingInput = request.getPayload()) {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            signingInput.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), sha256));
+            byte[] signature = keySign.sign(sha256.digest());
+            return keySign.algorithm() == SigningAlgorithm.ES256
+                    ? derToConcat(signature, ES256_COORDINATE_LENGTH)
+                    : signature;
+        } catch (KeyOperationException e) {
+            throw new SignatureException("Unable to sign JSON Web Token with KMS: " + e.getMessage(), e);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new SignatureException("Unable to sign JSON Web Token: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean verify(VerifySecureDigestRequest<PublicKey> request) throws SignatureException {
+        return switch (keySign.algorithm()) {
+            case ES256 -> Jwts.SIG.ES256.verify(request);
+            case RS256 -> Jwts.SIG.RS256.verify(request);
+        };
+    }
+
+    /**
+     * Turns an ASN.1 {@code SEQUENCE { INTEGER r, INTEGER s }} into {@code r} and {@code s} as unsigned
+     * big-endian integers of {@code coordinateLength} bytes each.
+     */
+    static byte[] derToConcat(byte[] der, int coordinateLength) {
+        int offset = 0;
+        if (der.length < 8 || der[offset++] != 0x30) {
+            throw new SignatureException("Invalid ECDSA signature from KMS");
+        }
+        int sequenceLength = der[offset++] & 0xff;
+        if (sequenceLength == 0x81) {
+            sequenceLength = der[offset++] & 0xff;
+        }
+        if (sequenceLength != der.length - offset) {
+            throw new SignatureException("Invalid ECDSA signature from KMS");
+        }
+        byte[] concat = new byte[2 * coordinateLength];
+        for (int i = 0; i < 2; i++) {
+            if (offset + 2 > der.length || der[offset++] != 0x02) {
+                throw new SignatureException("Invalid ECDSA signature from KMS");
+            }
+            int length = der[offset++] & 0xff;
+            int end = offset + length;
+            if (length == 0 || end > der.length) {
+                throw new SignatureException("Invalid ECDSA signature from KMS");
+            }
+            while (offset < end - 1 && der[offset] == 0) {
+                offset++;
+            }
+            if (end - offset > coordinateLength) {
+                throw new SignatureException("Invalid ECDSA signature from KMS");
+            }
+            System.arraycopy(der, offset, concat, (i + 1) * coordinateLength - (end - offset), end - offset);
+            offset = end;
+        }
+        if (offset != der.length) {
+            throw new SignatureException("Invalid ECDSA signature from KMS");
+        }
+        return concat;
+    }
+
+    private record SigningKey(String algorithm) implements PrivateKey {
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public String getFormat() {
+            return null;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Verified claims read by a {@link ClaimsReader#lazy} reader. Only the claims registered with the
+ * reader can be read; each is parsed from the payload the first time it is asked for.
+ * Instances are not thread-safe.
+ */
+public final class LazyClaims {
+    private static final Object UNREAD = new Object();
+
+    private final ClaimsReader<?> reader;
+    private final byte[] payload;
+    private final int[] offsets;
+    private final Map<String, ?> claims;
+    private final Object[] values;
+
+    LazyClaims(ClaimsReader<?> reader, byte[] payload, int[] offsets) {
+        this.reader = reader;
+        this.payload = payload;
+        this.offsets = offsets;
+        this.claims = null;
+        this.values = new Object[offsets.length];
+        Arrays.fill(values, UNREAD);
+    }
+
+    LazyClaims(ClaimsReader<?> reader, Map<String, ?> claims) {
+        this.reader = reader;
+        this.payload = null;
+        this.offsets = null;
+        this.claims = claims;
+        this.values = null;
+    }
+
+    /**
+     * @return whether the claim is present with a non-null value
+     */
+    public boolean has(String claim) {
+        int index = reader.indexOf(claim);
+        if (claims != null) {
+            return claims.get(claim) != null;
+        }
+        return offsets[index] >= 0 && payload[offsets[index]] != 'n';
+    }
+
+    public String getString(String claim) {
+        return (String) get(claim, ClaimType.STRING);
+    }
+
+    public Long getLong(String claim) {
+        return (Long) get(claim, ClaimType.LONG);
+    }
+
+    public Double getDouble(String claim) {
+        return (Double) get(claim, ClaimType.DOUBLE);
+    }
+
+    public Boolean getBoolean(String claim) {
+        return (Boolean) get(claim, ClaimType.BOOLEAN);
+    }
+
+    public Instant getInstant(String claim) {
+        return (Instant) get(claim, ClaimType.INSTANT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> getStringList(String claim) {
+        return (List<String>) get(claim, ClaimType.STRING_LIST);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the claim was not registered or is of another type
+     */
+    private Object get(String claim, ClaimType type) {
+        int index = reader.indexOf(claim);
+        if (claims != null) {
+            return ClaimsReader.convert(type, claim, claims.get(claim));
+        }
+        Object value = values[index];
+        if (value != UNREAD && (value == null || type.isInstance(value))) {
+            return value;
+        }
+        if (offsets[index] < 0) {
+            values[index] = null;
+            return null;
+        }
+        JsonPayload json = new JsonPayload(payload);
+        json.position(offsets[index]);
+        try {
+            value = json.readNull() ? null : type.read(json);
+        } catch (JWTVerificationException e) {
+            throw type.mismatch(claim);
+        }
+        values[index] = value;
+        return value;
+    }
+}
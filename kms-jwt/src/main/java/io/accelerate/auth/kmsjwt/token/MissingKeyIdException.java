@@ -0,0 +1,9 @@
+package io.accelerate.auth.kmsjwt.token;
+
+final class MissingKeyIdException extends IllegalArgumentException {
+    static final String MESSAGE = "No key ID has been found in the JWT header";
+
+    MissingKeyIdException() {
+        super(MESSAGE);
+    }
+}
@@ -0,0 +1,187 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cheap structural checks that run before a token's key is decrypted, so that
+ * oversized, malformed, wrong-algorithm, expired or not-yet-valid tokens never
+ * cost a KMS call. Nothing here is trusted: a token that passes is still fully
+ * verified afterwards. One instance can be shared by several decoders; it counts
+ * the tokens it rejected, per reason.
+ */
+public final class PreValidation {
+    private static final Rejection[] REJECTIONS = Rejection.values();
+
+    private final int maxTokenLength;
+    private final int maxHeaderLength;
+    private final int maxKeyIdLength;
+    private final Set<String> allowedAlgorithms;
+    private final boolean checkTimestamps;
+    private final AtomicLongArray rejected = new AtomicLongArray(REJECTIONS.length);
+
+    private PreValidation(Builder builder) {
+        this.maxTokenLength = builder.maxTokenLength;
+        this.maxHeaderLength = builder.maxHeaderLength;
+        this.maxKeyIdLength = builder.maxKeyIdLength;
+        this.allowedAlgorithms = Set.copyOf(builder.allowedAlgorithms);
+        this.checkTimestamps = builder.checkTimestamps;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static PreValidation defaults() {
+        return builder().build();
+    }
+
+    public long rejections(Rejection rejection) {
+        return rejected.get(rejection.ordinal());
+    }
+
+    public Map<Rejection, Long> rejections() {
+        Map<Rejection, Long> counts = new EnumMap<>(Rejection.class);
+        for (Rejection rejection : REJECTIONS) {
+            long count = rejected.get(rejection.ordinal());
+            if (count > 0) {
+                counts.put(rejection, count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return the unverified header, so that callers do not need to parse it again
+     */
+    Map<String, ?> check(String jwt, long nowMillis, long clockSkewMillis) throws JWTVerificationException {
+        if (jwt.length() > maxTokenLength) {
+            throw reject(Rejection.TOKEN_TOO_LONG);
+        }
+        int headerEnd = jwt.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : jwt.indexOf('.', headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd < 0 || jwt.indexOf('.', payloadEnd + 1) >= 0) {
+            throw reject(Rejection.MALFORMED);
+        }
+        if (headerEnd > maxHeaderLength) {
+            throw reject(Rejection.HEADER_TOO_LONG);
+        }
+
+        Map<String, ?> header = json(jwt.substring(0, headerEnd), "header");
+        if (!(header.get("alg") instanceof String alg) || !allowedAlgorithms.contains(alg)) {
+            throw reject(Rejection.ALGORITHM_NOT_ALLOWED);
+        }
+        if (!(header.get("kid") instanceof String kid) || kid.isEmpty()) {
+            throw reject(Rejection.MISSING_KEY_ID);
+        }
+        if (kid.length() > maxKeyIdLength) {
+            throw reject(Rejection.KEY_ID_TOO_LONG);
+        }
+
+        if (checkTimestamps) {
+            Map<String, ?> payload = json(jwt.substring(headerEnd + 1, payloadEnd), "payload");
+            if (payload.get("exp") instanceof Number exp && nowMillis - clockSkewMillis > exp.longValue() * 1000) {
+                throw reject(Rejection.EXPIRED);
+            }
+            if (payload.get("nbf") instanceof Number nbf && nowMillis + clockSkewMillis < nbf.longValue() * 1000) {
+                throw reject(Rejection.NOT_YET_VALID);
+            }
+        }
+        return header;
+    }
+
+    private Map<String, ?> json(String base64UrlPart, String partName) throws JWTVerificationException {
+        try {
+            return CompactJws.json(base64UrlPart, partName);
+        } catch (JWTVerificationException e) {
+            throw reject(Rejection.MALFORMED);
+        }
+    }
+
+    private JWTVerificationException reject(Rejection rejection) {
+        rejected.incrementAndGet(rejection.ordinal());
+        return new JWTVerificationException(rejection.message, new RejectedTokenException(rejection));
+    }
+
+    public enum Rejection {
+        TOKEN_TOO_LONG("JWT is too long", Outcome.MALFORMED_TOKEN),
+        MALFORMED("Unable to read JSON Web Token: malformed compact JWS", Outcome.MALFORMED_TOKEN),
+        HEADER_TOO_LONG("JWT header is too long", Outcome.MALFORMED_TOKEN),
+        ALGORITHM_NOT_ALLOWED("JWT signature algorithm is not allowed", Outcome.REJECTED),
+        MISSING_KEY_ID(MissingKeyIdException.MESSAGE, Outcome.MISSING_KEY_ID),
+        KEY_ID_TOO_LONG("JWT key ID is too long", Outcome.MALFORMED_TOKEN),
+        EXPIRED("JWT expired", Outcome.EXPIRED),
+        NOT_YET_VALID("JWT is not valid yet", Outcome.NOT_YET_VALID);
+
+        private final String message;
+        private final Outcome outcome;
+
+        Rejection(String message, Outcome outcome) {
+            this.message = message;
+            this.outcome = outcome;
+        }
+
+        Outcome outcome() {
+            return outcome;
+        }
+    }
+
+    static final class RejectedTokenException extends IllegalArgumentException {
+        private final Rejection rejection;
+
+        RejectedTokenException(Rejection rejection) {
+            super(rejection.message);
+            this.rejection = rejection;
+        }
+
+        Rejection rejection() {
+            return rejection;
+        }
+    }
+
+    public static final class Builder {
+        private int maxTokenLength = 8 * 1024;
+        private int maxHeaderLength = 1024;
+        private int maxKeyIdLength = 512;
+        private Set<String> allowedAlgorithms = Set.of("HS256");
+        private boolean checkTimestamps = true;
+
+        private Builder() { }
+
+        public Builder maxTokenLength(int maxTokenLength) {
+            this.maxTokenLength = maxTokenLength;
+            return this;
+        }
+
+        public Builder maxHeaderLength(int maxHeaderLength) {
+            this.maxHeaderLength = maxHeaderLength;
+            return this;
+        }
+
+        public Builder maxKeyIdLength(int maxKeyIdLength) {
+            this.maxKeyIdLength = maxKeyIdLength;
+            return this;
+        }
+
+        public Builder allowedAlgorithms(Set<String> allowedAlgorithms) {
+            if (allowedAlgorithms.isEmpty()) {
+                throw new IllegalArgumentException("At least one algorithm must be allowed");
+            }
+            this.allowedAlgorithms = allowedAlgorithms;
+            return this;
+        }
+
+        public Builder checkTimestamps(boolean checkTimestamps) {
+            this.checkTimestamps = checkTimestamps;
+            return this;
+        }
+
+        public PreValidation build() {
+            return new PreValidation(this);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuses one generated data key, and its encrypted kid, for a bounded number of
+ * tokens or a bounded period of time before generating the next one. All minting
+ * threads share the current key; only one thread at a time pays for the rotation.
+ */
+public class RotatingDataKeySource implements DataKeySource {
+    private final KeyEncrypt keyEncrypt;
+    private final int maxUses;
+    private final long maxAgeMillis;
+    private final Clock clock;
+    private volatile Window current;
+
+    public RotatingDataKeySource(KeyEncrypt keyEncrypt, int maxUses, Duration maxAge) {
+        this(keyEncrypt, maxUses, maxAge, Clock.systemUTC());
+    }
+
+    public RotatingDataKeySource(KeyEncrypt keyEncrypt, int maxUses, Duration maxAge, Clock clock) {
+        if (maxUses <= 0) {
+            throw new IllegalArgumentException("Maximum key uses must be positive");
+        }
+        if (maxAge.isNegative() || maxAge.isZero()) {
+            throw new IllegalArgumentException("Maximum key age must be positive");
+        }
+        this.keyEncrypt = keyEncrypt;
+        this.maxUses = maxUses;
+        this.maxAgeMillis = maxAge.toMillis();
+        this.clock = clock;
+    }
+
+    @Override
+    public DataKey next() throws KeyOperationException {
+        Window window = current;
+        if (window != null && window.tryAcquire(clock.millis())) {
+            return window.dataKey;
+        }
+        return rotate(window);
+    }
+
+    private synchronized DataKey rotate(Window exhausted) throws KeyOperationException {
+        Window window = current;
+        if (window != exhausted && window.tryAcquire(clock.millis())) {
+            return window.dataKey;
+        }
+
+        Window next = new Window(DataKey.generate(keyEncrypt), clock.millis() + maxAgeMillis, maxUses);
+        next.tryAcquire(clock.millis());
+        current = next;
+        return next.dataKey;
+    }
+
+    private static final class Window {
+        private final DataKey dataKey;
+        private final long expiresAtMillis;
+        private final int maxUses;
+        private final AtomicInteger uses = new AtomicInteger();
+
+        Window(DataKey dataKey, long expiresAtMillis, int maxUses) {
+            this.dataKey = dataKey;
+            this.expiresAtMillis = expiresAtMillis;
+            this.maxUses = maxUses;
+        }
+
+        boolean tryAcquire(long nowMillis) {
+            return nowMillis < expiresAtMillis && uses.incrementAndGet() <= maxUses;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The claims of a TDL token, as minted by the CLI's {@code generate} command.
+ */
+public record TdlClaims(@Claim("usr") String username,
+                        @Claim("tdl_wrm") List<String> warmupChallenges,
+                        @Claim("tdl_chx") String officialChallenge,
+                        @Claim("exp") Instant expiration) {
+    public static final ClaimsReader<TdlClaims> READER = ClaimsReader.forRecord(TdlClaims.class);
+}
@@ -0,0 +1,324 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.jsonwebtoken.Claims;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Revoked token IDs ({@code jti}), grouped in buckets by token expiry so that a whole bucket is dropped
+ * once every token in it has expired. Each bucket has a Bloom filter in front of the exact set of its
+ * IDs: a token that was not revoked, i.e. nearly every token, is cleared by a few bit probes without
+ * touching the set. An ID revoked without an expiry matches tokens with that ID whatever their expiry.
+ * Lookups never lock. Tokens without a {@code jti} cannot be revoked, see {@link JWTEncoder#withTokenId}.
+ */
+public final class TokenRevocations {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+    private static final String FILE_HEADER = "# Revoked token IDs: expiry (epoch seconds, - for none), jti\n";
+
+    private final long bucketSeconds;
+    private final long retainMillis;
+    private final int filterBits;
+    private final int filterProbes;
+    private final Clock clock;
+    private final ConcurrentMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextPurgeAtMillis;
+
+    private TokenRevocations(Builder builder) {
+        this.bucketSeconds = builder.bucketDuration.toSeconds();
+        this.retainMillis = builder.retainAfterExpiry.toMillis();
+        double bitsPerId = -Math.log(builder.falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long bits = Long.highestOneBit((long) Math.ceil(bitsPerId * builder.expectedRevocationsPerBucket) - 1) << 1;
+        this.filterBits = (int) Math.min(Math.max(bits, Long.SIZE), 1L << 30);
+        this.filterProbes = Math.max(1, (int) Math.round(bitsPerId * Math.log(2)));
+        this.clock = builder.clock;
+        this.nextPurgeAtMillis = new AtomicLong(clock.millis() + builder.bucketDuration.toMillis());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param expiresAt the token's {@code exp}, or {@code null} to revoke the ID whatever the token's expiry.
+     *                  Such revocations are never purged, and an expiry other than the token's misses it.
+     * @return {@code false} when the ID was already revoked
+     */
+    public boolean revoke(String tokenId, Instant expiresAt) {
+        if (tokenId.isEmpty() || tokenId.indexOf('\n') >= 0 || tokenId.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Token ID must be non-empty and on a single line");
+        }
+        boolean added = revoke(tokenId, expiresAt == null ? NO_EXPIRY : expiresAt.getEpochSecond());
+        purgeExpired();
+        return added;
+    }
+
+    public boolean isRevoked(String tokenId, Instant expiresAt) {
+        return isRevoked(tokenId, expiresAt == null ? NO_EXPIRY : expiresAt.getEpochSecond(), clock.millis());
+    }
+
+    /**
+     * @return the number of revoked IDs that have not expired yet (give or take a bucket)
+     */
+    public int size() {
+        int size = 0;
+        for (Bucket bucket : buckets.values()) {
+            size += bucket.ids.size();
+        }
+        return size;
+    }
+
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops the buckets whose tokens have all expired. Lookups and revocations also do this every bucket duration.
+     */
+    public void purgeExpired() {
+        long now = clock.millis();
+        buckets.keySet().removeIf(bucket -> bucket != NO_EXPIRY && (bucket + 1) * bucketSeconds * 1000 + retainMillis < now);
+        nextPurgeAtMillis.set(now + bucketSeconds * 1000);
+    }
+
+    /**
+     * Writes every revoked ID that has not expired to {@code file}, replacing it atomically.
+     */
+    public void snapshot(Path file) throws IOException {
+        purgeExpired();
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(FILE_HEADER);
+            for (Bucket bucket : buckets.values()) {
+                for (Map.Entry<String, Long> revoked : bucket.ids.entrySet()) {
+                    long expiry = revoked.getValue();
+                    writer.write(expiry == NO_EXPIRY ? "-" : Long.toString(expiry));
+                    writer.write(' ');
+                    writer.write(revoked.getKey());
+                    writer.write('\n');
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the IDs in a file written by {@link #snapshot}, skipping those already expired. A missing file adds nothing.
+     *
+     * @return the number of IDs added
+     */
+    public int load(Path file) throws IOException {
+        long now = clock.millis();
+        int added = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int separator = line.indexOf(' ');
+                if (separator <= 0 || separator == line.length() - 1) {
+                    throw new IOException("Malformed revocation at " + file + ":" + lineNumber);
+                }
+                long expiry;
+                try {
+                    String field = line.substring(0, separator);
+                    expiry = field.equals("-") ? NO_EXPIRY : Long.parseLong(field);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed revocation at " + file + ":" + lineNumber, e);
+                }
+                if (expiry != NO_EXPIRY && expiry * 1000 + retainMillis < now) {
+                    continue;
+                }
+                if (revoke(line.substring(separator + 1), expiry)) {
+                    added++;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        return added;
+    }
+
+    /**
+     * @throws JWTVerificationException when the verified token was revoked
+     */
+    void check(Claims claims, long nowMillis) throws JWTVerificationException {
+        if (buckets.isEmpty() || !(claims.get("jti") instanceof String tokenId)) {
+            return;
+        }
+        Date expiration = claims.getExpiration();
+        check(tokenId, expiration == null ? null : expiration.getTime() / 1000, nowMillis);
+    }
+
+    void check(String tokenId, Long expirySeconds, long nowMillis) throws JWTVerificationException {
+        if (tokenId != null && isRevoked(tokenId, expirySeconds == null ? NO_EXPIRY : expirySeconds, nowMillis)) {
+            throw new JWTVerificationException(RevokedTokenException.MESSAGE, new RevokedTokenException());
+        }
+    }
+
+    private boolean isRevoked(String tokenId, long expirySeconds, long nowMillis) {
+        long purgeDue = nextPurgeAtMillis.get();
+        if (nowMillis >= purgeDue && nextPurgeAtMillis.compareAndSet(purgeDue, Long.MAX_VALUE)) {
+            purgeExpired();
+        }
+        if (buckets.isEmpty()) {
+            return false;
+        }
+        long hash = hash(tokenId);
+        Bucket bucket = buckets.get(bucketOf(expirySeconds));
+        if (bucket != null && bucket.mightContain(hash) && bucket.ids.containsKey(tokenId)) {
+            return true;
+        }
+        Bucket noExpiry = expirySeconds == NO_EXPIRY ? null : buckets.get(NO_EXPIRY);
+        return noExpiry != null && noExpiry.mightContain(hash) && noExpiry.ids.containsKey(tokenId);
+    }
+
+    private boolean revoke(String tokenId, long expirySeconds) {
+        Bucket bucket = buckets.computeIfAbsent(bucketOf(expirySeconds), ignored -> new Bucket(filterBits, filterProbes));
+        boolean added = bucket.ids.putIfAbsent(tokenId, expirySeconds) == null;
+        bucket.add(hash(tokenId));
+        return added;
+    }
+
+    private long bucketOf(long expirySeconds) {
+        return expirySeconds == NO_EXPIRY ? NO_EXPIRY : Math.floorDiv(expirySeconds, bucketSeconds);
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A Bloom filter probed by double hashing, plus the exact IDs and their expiry. IDs are added to the
+     * exact set before their bits are set, so a reader that sees the bits also sees the ID.
+     */
+    private static final class Bucket {
+        private final AtomicLongArray bits;
+        private final int mask;
+        private final int probes;
+        private final ConcurrentMap<String, Long> ids = new ConcurrentHashMap<>();
+
+        Bucket(int filterBits, int probes) {
+            this.bits = new AtomicLongArray(filterBits / Long.SIZE);
+            this.mask = filterBits - 1;
+            this.probes = probes;
+        }
+
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < probes; i++) {
+                int bit = (h1 + i * h2) & mask;
+                long word = 1L << bit;
+                bits.getAndAccumulate(bit >>> 6, word, (current, set) -> current | set);
+            }
+        }
+
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < probes; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class RevokedTokenException extends IllegalArgumentException {
+        static final String MESSAGE = "JWT has been revoked";
+
+        RevokedTokenException() {
+            super(MESSAGE);
+        }
+    }
+
+    public static final class Builder {
+        private Duration bucketDuration = Duration.ofHours(1);
+        private Duration retainAfterExpiry = Duration.ofMinutes(5);
+        private int expectedRevocationsPerBucket = 10_000;
+        private double falsePositiveRate = 0.01;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder() { }
+
+        /**
+         * How wide a range of expiry times shares one filter. Buckets are dropped a whole bucket at a time.
+         */
+        public Builder bucketDuration(Duration bucketDuration) {
+            if (bucketDuration.toSeconds() <= 0) {
+                throw new IllegalArgumentException("Bucket duration must be at least a second");
+            }
+            this.bucketDuration = bucketDuration;
+            return this;
+        }
+
+        /**
+         * Keeps revocations for this long after the tokens expire, which should cover the decoder's clock skew.
+         */
+        public Builder retainAfterExpiry(Duration retainAfterExpiry) {
+            if (retainAfterExpiry.isNegative()) {
+                throw new IllegalArgumentException("Retention must not be negative");
+            }
+            this.retainAfterExpiry = retainAfterExpiry;
+            return this;
+        }
+
+        /**
+         * Sizes each bucket's filter. Going over it only raises the false positive rate, which costs
+         * an extra set lookup; results stay exact.
+         */
+        public Builder filterSize(int expectedRevocationsPerBucket, double falsePositiveRate) {
+            if (expectedRevocationsPerBucket <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+                throw new IllegalArgumentException("Expected revocations must be positive and the false positive rate between 0 and 1");
+            }
+            this.expectedRevocationsPerBucket = expectedRevocationsPerBucket;
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        public Builder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public TokenRevocations build() {
+            return new TokenRevocations(this);
+        }
+    }
+}
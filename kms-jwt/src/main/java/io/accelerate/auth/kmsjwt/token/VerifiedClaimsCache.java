@@ -0,0 +1,117 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.jsonwebtoken.Claims;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers the claims of tokens that have already been verified, keyed on the
+ * SHA-256 digest of the compact token. An entry is dropped as soon as the token
+ * would be rejected as expired, so a hit is always as good as a full verification.
+ * Tokens without an expiry are never cached.
+ */
+final class VerifiedClaimsCache {
+    static final String CACHE_NAME = "verified-claims";
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long clockSkewMillis;
+    private final Clock clock;
+    private final MetricsListener metrics;
+    private final LinkedHashMap<ByteBuffer, CachedClaims> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    VerifiedClaimsCache(int maxEntries, long maxBytes, long clockSkewMillis, Clock clock, MetricsListener metrics) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.clockSkewMillis = clockSkewMillis;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    Claims get(String jwt) {
+        ByteBuffer key = digest(jwt);
+        CachedClaims cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && cached.expiresAtMillis() <= clock.millis()) {
+                remove(key);
+                cached = null;
+            }
+        }
+        metrics.cacheAccessed(CACHE_NAME, cached != null);
+        return cached == null ? null : cached.claims();
+    }
+
+    void put(String jwt, Claims claims) {
+        Date expiration = claims.getExpiration();
+        if (expiration == null) {
+            return;
+        }
+        long expiresAtMillis = expiration.getTime() + clockSkewMillis;
+        int weight = ENTRY_OVERHEAD_BYTES + jwt.length() * 2;
+        if (weight > maxBytes) {
+            return;
+        }
+        ByteBuffer key = digest(jwt);
+        synchronized (entries) {
+            if (expiresAtMillis <= clock.millis()) {
+                return;
+            }
+            remove(key);
+            entries.put(key, new CachedClaims(claims, expiresAtMillis, weight));
+            bytes += weight;
+            evict();
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    long approximateBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<CachedClaims> eldestFirst = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldestFirst.hasNext()) {
+            bytes -= eldestFirst.next().weight();
+            eldestFirst.remove();
+        }
+    }
+
+    private void remove(ByteBuffer key) {
+        CachedClaims removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.weight();
+        }
+    }
+
+    private static ByteBuffer digest(String jwt) {
+        return ByteBuffer.wrap(SHA_256.get().digest(jwt.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private record CachedClaims(Claims claims, long expiresAtMillis, int weight) {
+    }
+}
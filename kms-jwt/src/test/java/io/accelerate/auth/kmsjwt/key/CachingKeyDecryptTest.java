@@ -0,0 +1,119 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachingKeyDecryptTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    private AtomicInteger delegateCalls;
+    private KeyDecrypt countingDelegate;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        delegateCalls = new AtomicInteger();
+        countingDelegate = ciphertext -> {
+            delegateCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+        clock = new MutableClock();
+    }
+
+    @Test
+    void repeated_decrypts_of_same_ciphertext_hit_the_cache() throws Exception {
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(countingDelegate, 10, Duration.ofMinutes(5), clock);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        cache.decrypt(ciphertext);
+        byte[] plaintext = cache.decrypt(ciphertext.clone());
+
+        assertThat(new String(plaintext), is("secret"));
+        assertThat(delegateCalls.get(), is(1));
+    }
+
+    @Test
+    void entries_expire_after_ttl() throws Exception {
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(countingDelegate, 10, Duration.ofMinutes(5), clock);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        cache.decrypt(ciphertext);
+        clock.advance(Duration.ofMinutes(5));
+        cache.decrypt(ciphertext);
+
+        assertThat(delegateCalls.get(), is(2));
+    }
+
+    @Test
+    void least_recently_used_entry_is_evicted_when_full() throws Exception {
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(countingDelegate, 2, Duration.ofMinutes(5), clock);
+        byte[] first = DUMMY_KEY_PROTECTION.encrypt("first".getBytes());
+        byte[] second = DUMMY_KEY_PROTECTION.encrypt("second".getBytes());
+        byte[] third = DUMMY_KEY_PROTECTION.encrypt("third".getBytes());
+
+        cache.decrypt(first);
+        cache.decrypt(second);
+        cache.decrypt(first);
+        cache.decrypt(third);
+        cache.decrypt(first);
+        cache.decrypt(second);
+
+        assertThat(cache.size(), is(2));
+        assertThat(delegateCalls.get(), is(4));
+    }
+
+    @Test
+    void cached_plaintext_cannot_be_modified_by_callers() throws Exception {
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(countingDelegate, 10, Duration.ofMinutes(5), clock);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        cache.decrypt(ciphertext)[0] = 'X';
+
+        assertThat(new String(cache.decrypt(ciphertext)), is("secret"));
+    }
+
+    @Test
+    void failures_are_not_cached() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(ciphertext -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new KeyOperationException("KMS unavailable");
+            }
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        }, 10, Duration.ofMinutes(5), clock);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        assertThrows(KeyOperationException.class, () -> cache.decrypt(ciphertext));
+
+        assertThat(new String(cache.decrypt(ciphertext)), is("secret"));
+    }
+
+    @Test
+    void expired_keys_are_served_while_kms_calls_are_rejected() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CachingKeyDecrypt cache = new CachingKeyDecrypt(ciphertext -> {
+            if (attempts.incrementAndGet() > 1) {
+                throw new KmsResilience.CallRejectedException("KMS circuit breaker is open");
+            }
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        }, 10, Duration.ofMinutes(5), Duration.ofMinutes(10), clock, MetricsListener.NOOP);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+        cache.decrypt(ciphertext);
+
+        clock.advance(Duration.ofMinutes(14));
+        assertThat(new String(cache.decrypt(ciphertext)), is("secret"));
+        assertThat(cache.staleServed(), is(1L));
+
+        clock.advance(Duration.ofMinutes(2));
+        assertThrows(KmsResilience.CallRejectedException.class, () -> cache.decrypt(ciphertext));
+    }
+}
@@ -0,0 +1,152 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CoalescingKeyDecryptTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final int CONCURRENT_CALLERS = 16;
+    private static final long INJECTED_LATENCY_MILLIS = 300;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(CONCURRENT_CALLERS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrent_verifications_of_same_token_cause_one_decrypt() throws Exception {
+        LatencyInjectingKeyDecrypt slowKms = new LatencyInjectingKeyDecrypt(DUMMY_KEY_PROTECTION);
+        JWTDecoder decoder = JWTDecoder.builder(slowKms)
+                .coalesceKeyDecrypts()
+                .build();
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        List<Future<Claims>> results = runConcurrently(() -> decoder.decodeAndVerify(jwt));
+
+        for (Future<Claims> result : results) {
+            assertThat(result.get().get("usr"), is("friendly_name"));
+        }
+        assertThat(slowKms.calls.get(), is(1));
+    }
+
+    @Test
+    void distinct_ciphertexts_are_not_coalesced() throws Exception {
+        LatencyInjectingKeyDecrypt slowKms = new LatencyInjectingKeyDecrypt(DUMMY_KEY_PROTECTION);
+        CoalescingKeyDecrypt coalescing = new CoalescingKeyDecrypt(slowKms);
+        AtomicInteger nextSecret = new AtomicInteger();
+
+        List<Future<byte[]>> results = runConcurrently(
+                () -> coalescing.decrypt(DUMMY_KEY_PROTECTION.encrypt(("secret" + nextSecret.incrementAndGet()).getBytes())));
+
+        for (Future<byte[]> result : results) {
+            result.get();
+        }
+        assertThat(slowKms.calls.get(), is(CONCURRENT_CALLERS));
+    }
+
+    @Test
+    void failure_is_delivered_to_every_waiter_and_not_cached() throws Exception {
+        LatencyInjectingKeyDecrypt failingKms = new LatencyInjectingKeyDecrypt(ciphertext -> {
+            throw new KeyOperationException("ThrottlingException");
+        });
+        CoalescingKeyDecrypt coalescing = new CoalescingKeyDecrypt(failingKms);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        List<Future<byte[]>> results = runConcurrently(() -> coalescing.decrypt(ciphertext));
+
+        for (Future<byte[]> result : results) {
+            ExecutionException ex = assertThrows(ExecutionException.class, result::get);
+            assertThat(ex.getCause(), instanceOf(KeyOperationException.class));
+            assertThat(ex.getCause().getMessage(), containsString("ThrottlingException"));
+        }
+        assertThat(failingKms.calls.get(), is(1));
+        assertThat(coalescing.inFlightCount(), is(0));
+
+        assertThrows(KeyOperationException.class, () -> coalescing.decrypt(ciphertext));
+        assertThat(failingKms.calls.get(), is(2));
+    }
+
+    @Test
+    void failure_surfaces_as_verification_exception_through_decoder() throws Exception {
+        LatencyInjectingKeyDecrypt failingKms = new LatencyInjectingKeyDecrypt(ciphertext -> {
+            throw new KeyOperationException("ThrottlingException");
+        });
+        JWTDecoder decoder = JWTDecoder.builder(failingKms)
+                .coalesceKeyDecrypts()
+                .build();
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        List<Future<Claims>> results = runConcurrently(() -> decoder.decodeAndVerify(jwt));
+
+        for (Future<Claims> result : results) {
+            ExecutionException ex = assertThrows(ExecutionException.class, result::get);
+            assertThat(ex.getCause(), instanceOf(JWTVerificationException.class));
+        }
+        assertThat(failingKms.calls.get(), is(1));
+    }
+
+    private <T> List<Future<T>> runConcurrently(Callable<T> call) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_CALLERS; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return call.call();
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    private static final class LatencyInjectingKeyDecrypt implements KeyDecrypt {
+        private final KeyDecrypt delegate;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        LatencyInjectingKeyDecrypt(KeyDecrypt delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(INJECTED_LATENCY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return delegate.decrypt(ciphertext);
+        }
+    }
+}
@@ -6,14 +6,17 @@ import org.junit.jupiter.api.Test;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
 import software.amazon.awssdk.services.kms.KmsClient;
 import software.amazon.awssdk.services.kms.model.CreateKeyResponse;
 
 import java.net.URI;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.concurrent.ExecutionException;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -26,6 +29,7 @@ class KMSEncryptDecryptComponentTest {
 
     private static String TEST_AWS_KEY_ARN;
     private static KmsClient KMS_CLIENT;
+    private static KmsAsyncClient KMS_ASYNC_CLIENT;
 
     @BeforeAll
     static void setUp() {
@@ -37,6 +41,13 @@ class KMSEncryptDecryptComponentTest {
                         AwsBasicCredentials.create(TEST_ACCESS_KEY_ID, TEST_SECRET_KEY)))
                 .build();
 
+        KMS_ASYNC_CLIENT = KmsAsyncClient.builder()
+                .endpointOverride(URI.create(TEST_AWS_ENDPOINT))
+                .region(Region.of(TEST_AWS_REGION))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(TEST_ACCESS_KEY_ID, TEST_SECRET_KEY)))
+                .build();
+
         // Create a new key
         CreateKeyResponse createKeyResponse = KMS_CLIENT.createKey();
         TEST_AWS_KEY_ARN = createKeyResponse.keyMetadata().arn();
@@ -48,6 +59,9 @@ class KMSEncryptDecryptComponentTest {
         if (KMS_CLIENT != null) {
             KMS_CLIENT.close();
         }
+        if (KMS_ASYNC_CLIENT != null) {
+            KMS_ASYNC_CLIENT.close();
+        }
     }
 
     @Test
@@ -101,4 +115,28 @@ class KMSEncryptDecryptComponentTest {
         );
         assertThat(ex.getMessage(), containsString("Invalid keyId"));
     }
+
+    @Test
+    void async_encrypt_decrypt_work_together() throws Exception {
+        KMSEncryptAsync kmsEncrypt = new KMSEncryptAsync(KMS_ASYNC_CLIENT, TEST_AWS_KEY_ARN);
+        KMSDecryptAsync kmsDecrypt = new KMSDecryptAsync(KMS_ASYNC_CLIENT, Collections.singleton(TEST_AWS_KEY_ARN));
+
+        byte[] ciphertext = kmsEncrypt.encryptAsync("secret".getBytes()).get();
+        String plaintext = new String(kmsDecrypt.decryptAsync(ciphertext).get());
+
+        assertThat(plaintext, is("secret"));
+    }
+
+    @Test
+    void async_decrypt_should_reject_ciphertext_with_unrecognised_key() throws Exception {
+        byte[] ciphertext = new KMSEncrypt(KMS_CLIENT, TEST_AWS_KEY_ARN).encrypt("secret".getBytes());
+        KMSDecryptAsync kmsDecrypt = new KMSDecryptAsync(KMS_ASYNC_CLIENT, Collections.singleton("SOME_OTHER_KEY"));
+
+        ExecutionException ex = assertThrows(
+                ExecutionException.class,
+                () -> kmsDecrypt.decryptAsync(ciphertext).get()
+        );
+        assertThat(ex.getCause(), instanceOf(KeyOperationException.class));
+        assertThat(ex.getCause().getMessage(), containsString("signed by unexpected key"));
+    }
 }
@@ -0,0 +1,90 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.testing.FakeKms;
+import io.accelerate.auth.kmsjwt.testing.Latency;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.kms.KmsAsyncClient;
+import software.amazon.awssdk.services.kms.KmsClient;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The KMS key protection classes against the in-memory KMS, i.e. what
+ * {@link KMSEncryptDecryptComponentTest} checks against LocalStack, without Docker.
+ */
+class KMSEncryptDecryptFakeKmsTest {
+    private FakeKms kms;
+    private KmsClient kmsClient;
+    private String keyArn;
+
+    @BeforeEach
+    void setUp() {
+        kms = FakeKms.builder()
+                .latency(Latency.uniform(Duration.ofMillis(1), Duration.ofMillis(3)))
+                .build();
+        kmsClient = kms.client();
+        keyArn = kms.createKey();
+        kms.setAlias("alias/tokens", keyArn);
+    }
+
+    @Test
+    void encrypt_decrypt_work_together_through_an_alias() throws Exception {
+        KMSEncrypt kmsEncrypt = new KMSEncrypt(kmsClient, "alias/tokens");
+        KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of("alias/tokens"));
+
+        byte[] ciphertext = kmsEncrypt.encrypt("secret".getBytes());
+
+        assertThat(new String(kmsDecrypt.decrypt(ciphertext)), is("secret"));
+    }
+
+    @Test
+    void decrypt_should_reject_ciphertext_with_unrecognised_key() throws Exception {
+        byte[] ciphertext = new KMSEncrypt(kmsClient, keyArn).encrypt("secret".getBytes());
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(kms.createKey()), metrics);
+
+        KeyOperationException e = assertThrows(KeyOperationException.class, () -> kmsDecrypt.decrypt(ciphertext));
+
+        assertThat(e.getMessage(), containsString("signed by unexpected key"));
+        assertThat(metrics.count(Operation.KMS_DECRYPT, Outcome.UNEXPECTED_KEY), is(1L));
+    }
+
+    @Test
+    void decrypt_should_report_throttling() throws Exception {
+        byte[] ciphertext = new KMSEncrypt(kmsClient, keyArn).encrypt("secret".getBytes());
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(keyArn), metrics);
+        kms.failNext(1, FakeKms::throttlingException, FakeKms.Api.DECRYPT);
+
+        assertThrows(KeyOperationException.class, () -> kmsDecrypt.decrypt(ciphertext));
+
+        assertThat(metrics.count(Operation.KMS_DECRYPT, Outcome.THROTTLED), is(1L));
+        assertThat(new String(kmsDecrypt.decrypt(ciphertext)), is("secret"));
+    }
+
+    @Test
+    void async_encrypt_decrypt_work_together() throws Exception {
+        try (KmsAsyncClient asyncClient = kms.asyncClient()) {
+            KMSEncryptAsync kmsEncrypt = new KMSEncryptAsync(asyncClient, keyArn);
+            KMSDecryptAsync kmsDecrypt = new KMSDecryptAsync(asyncClient, Set.of("alias/tokens"));
+
+            byte[] ciphertext = kmsEncrypt.encryptAsync("secret".getBytes()).get();
+
+            assertThat(new String(kmsDecrypt.decryptAsync(ciphertext).get()), is("secret"));
+            ExecutionException e = assertThrows(ExecutionException.class, () -> kmsDecrypt.decryptAsync(new byte[]{1}).get());
+            assertThat(e.getCause(), instanceOf(KeyOperationException.class));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DisabledException;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyRequest;
+import software.amazon.awssdk.services.kms.model.GetPublicKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeySpec;
+import software.amazon.awssdk.services.kms.model.KeyUsageType;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class KMSPublicKeysTest {
+    private static final String KEY_ARN = "arn:aws:kms:eu-west-2:000000000000:key/11111111-1111-1111-1111-111111111111";
+    private static final String OTHER_ARN = "arn:aws:kms:eu-west-2:000000000000:key/22222222-2222-2222-2222-222222222222";
+
+    private KmsClient kmsClient;
+    private MutableClock clock;
+    private KeyPair keyPair;
+    private KMSPublicKeys publicKeys;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        kmsClient = mock(KmsClient.class);
+        clock = new MutableClock();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPair = generator.generateKeyPair();
+        publicKeys = new KMSPublicKeys(kmsClient, Set.of(KEY_ARN), MetricsListener.NOOP, Duration.ofMinutes(15), clock);
+    }
+
+    @Test
+    void fetches_public_key_once_and_serves_it_locally() throws Exception {
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class))).thenReturn(signingKey(KeySpec.ECC_NIST_P256));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256), is(keyPair.getPublic()));
+        }
+
+        verify(kmsClient, times(1)).getPublicKey(any(GetPublicKeyRequest.class));
+    }
+
+    @Test
+    void rejects_keys_that_are_not_allowed_without_calling_kms() {
+        KeyOperationException e = assertThrows(KeyOperationException.class,
+                () -> publicKeys.publicKey(OTHER_ARN, SigningAlgorithm.ES256));
+
+        assertThat(e.getMessage(), containsString("unexpected key"));
+        verify(kmsClient, never()).getPublicKey(any(GetPublicKeyRequest.class));
+    }
+
+    @Test
+    void rejects_algorithm_that_does_not_match_key_spec() {
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class))).thenReturn(signingKey(KeySpec.ECC_NIST_P256));
+
+        KeyOperationException e = assertThrows(KeyOperationException.class,
+                () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.RS256));
+
+        assertThat(e.getMessage(), containsString("signs ES256 tokens"));
+    }
+
+    @Test
+    void rejects_keys_that_cannot_sign_and_asks_again_after_a_few_seconds() {
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class))).thenReturn(GetPublicKeyResponse.builder()
+                .keyId(KEY_ARN)
+                .keyUsage(KeyUsageType.ENCRYPT_DECRYPT)
+                .keySpec(KeySpec.SYMMETRIC_DEFAULT)
+                .build());
+
+        assertThrows(KeyOperationException.class, () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256));
+        KeyOperationException e = assertThrows(KeyOperationException.class,
+                () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256));
+
+        assertThat(e.getMessage(), containsString("not a signing key"));
+        verify(kmsClient, times(1)).getPublicKey(any(GetPublicKeyRequest.class));
+        assertThat(publicKeys.size(), is(0));
+
+        clock.advance(Duration.ofSeconds(5));
+        assertThrows(KeyOperationException.class, () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256));
+        verify(kmsClient, times(2)).getPublicKey(any(GetPublicKeyRequest.class));
+    }
+
+    @Test
+    void fetches_key_again_once_an_earlier_failure_expires() throws Exception {
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class)))
+                .thenThrow(SdkClientException.builder().message("Connection reset").build())
+                .thenReturn(signingKey(KeySpec.ECC_NIST_P256));
+        assertThrows(KeyOperationException.class, () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256));
+
+        clock.advance(Duration.ofSeconds(5));
+
+        assertThat(publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256), is(keyPair.getPublic()));
+        assertThat(publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256), is(keyPair.getPublic()));
+        verify(kmsClient, times(2)).getPublicKey(any(GetPublicKeyRequest.class));
+    }
+
+    @Test
+    void keeps_key_when_refresh_fails_transiently() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class))).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() > 1) {
+                throw SdkClientException.builder().message("Connection reset").build();
+            }
+            return signingKey(KeySpec.ECC_NIST_P256);
+        });
+        publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256);
+
+        clock.advance(Duration.ofMinutes(16));
+        assertThat(publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256), is(keyPair.getPublic()));
+        assertThat(eventually(() -> calls.get() == 2), is(true));
+
+        Thread.sleep(100);
+        assertThat(publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256), is(keyPair.getPublic()));
+        assertThat(calls.get(), is(2));
+    }
+
+    @Test
+    void drops_key_that_kms_reports_disabled_on_refresh() throws Exception {
+        when(kmsClient.getPublicKey(any(GetPublicKeyRequest.class)))
+                .thenReturn(signingKey(KeySpec.ECC_NIST_P256))
+                .thenThrow(DisabledException.builder().message("Key is disabled").build());
+        publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256);
+
+        clock.advance(Duration.ofMinutes(16));
+        publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256);
+
+        assertThat(eventually(() -> publicKeys.size() == 0), is(true));
+        for (int i = 0; i < 10; i++) {
+            assertThrows(KeyOperationException.class, () -> publicKeys.publicKey(KEY_ARN, SigningAlgorithm.ES256));
+        }
+        verify(kmsClient, times(2)).getPublicKey(any(GetPublicKeyRequest.class));
+    }
+
+    private GetPublicKeyResponse signingKey(KeySpec keySpec) {
+        return GetPublicKeyResponse.builder()
+                .keyId(KEY_ARN)
+                .keyUsage(KeyUsageType.SIGN_VERIFY)
+                .keySpec(keySpec)
+                .publicKey(SdkBytes.fromByteArray(keyPair.getPublic().getEncoded()))
+                .build();
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.getAsBoolean();
+    }
+}
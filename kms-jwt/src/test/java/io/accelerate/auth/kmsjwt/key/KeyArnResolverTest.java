@@ -0,0 +1,155 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DescribeKeyRequest;
+import software.amazon.awssdk.services.kms.model.DescribeKeyResponse;
+import software.amazon.awssdk.services.kms.model.KeyMetadata;
+import software.amazon.awssdk.services.kms.model.NotFoundException;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class KeyArnResolverTest {
+    private static final String ALIAS = "alias/tdl-token-key";
+    private static final String FIRST_ARN = "arn:aws:kms:eu-west-2:000000000000:key/11111111-1111-1111-1111-111111111111";
+    private static final String SECOND_ARN = "arn:aws:kms:eu-west-2:000000000000:key/22222222-2222-2222-2222-222222222222";
+
+    private KmsClient kmsClient;
+    private Map<String, String> aliasTargets;
+    private AtomicInteger failuresToInject;
+
+    @BeforeEach
+    void setUp() {
+        kmsClient = mock(KmsClient.class);
+        aliasTargets = new ConcurrentHashMap<>();
+        failuresToInject = new AtomicInteger();
+    }
+
+    @Test
+    void resolves_identifiers_in_parallel() {
+        int aliases = 12;
+        Set<String> identifiers = new HashSet<>();
+        for (int i = 0; i < aliases; i++) {
+            identifiers.add("alias/key-" + i);
+        }
+        CountDownLatch allInFlight = new CountDownLatch(aliases);
+        when(kmsClient.describeKey(any(DescribeKeyRequest.class))).thenAnswer(invocation -> {
+            allInFlight.countDown();
+            if (!allInFlight.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("DescribeKey calls were not made in parallel");
+            }
+            DescribeKeyRequest request = invocation.getArgument(0);
+            return describeKeyResponse("arn:" + request.keyId());
+        });
+
+        KeyArnResolver resolver = new KeyArnResolver(kmsClient, identifiers);
+
+        assertThat(resolver.refresh(), is(true));
+        assertThat(resolver.isAllowed("arn:alias/key-7"), is(true));
+    }
+
+    @Test
+    void background_mode_does_not_block_construction() throws Exception {
+        CountDownLatch kmsAvailable = new CountDownLatch(1);
+        when(kmsClient.describeKey(any(DescribeKeyRequest.class))).thenAnswer(invocation -> {
+            kmsAvailable.await();
+            return describeKeyResponse(FIRST_ARN);
+        });
+
+        long start = System.nanoTime();
+        try (KMSDecrypt kmsDecrypt = new KMSDecrypt(kmsClient, Set.of(ALIAS),
+                MetricsListener.NOOP, Duration.ofMinutes(5))) {
+            assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(1)));
+            kmsAvailable.countDown();
+        }
+    }
+
+    @Test
+    void failed_resolution_is_retried_in_the_background() throws Exception {
+        resolveAliasTargets();
+        aliasTargets.put(ALIAS, FIRST_ARN);
+        failuresToInject.set(1);
+
+        try (KeyArnResolver resolver = new KeyArnResolver(kmsClient, Set.of(ALIAS))) {
+            resolver.startRefreshing(Duration.ofMinutes(5));
+
+            assertThat(eventually(() -> resolver.isAllowed(FIRST_ARN)), is(true));
+        }
+    }
+
+    @Test
+    void retries_no_less_often_than_the_refresh_interval() throws Exception {
+        resolveAliasTargets();
+        aliasTargets.put(ALIAS, FIRST_ARN);
+        failuresToInject.set(20);
+
+        try (KeyArnResolver resolver = new KeyArnResolver(kmsClient, Set.of(ALIAS))) {
+            resolver.startRefreshing(Duration.ofMillis(20));
+
+            assertThat(eventually(() -> resolver.isAllowed(FIRST_ARN)), is(true));
+        }
+    }
+
+    @Test
+    void refresh_picks_up_retargeted_alias_and_keeps_last_known_arn_on_failure() {
+        resolveAliasTargets();
+        aliasTargets.put(ALIAS, FIRST_ARN);
+        KeyArnResolver resolver = new KeyArnResolver(kmsClient, Set.of(ALIAS));
+        resolver.refresh();
+        assertThat(resolver.isAllowed(FIRST_ARN), is(true));
+
+        aliasTargets.put(ALIAS, SECOND_ARN);
+        resolver.refresh();
+        assertThat(resolver.isAllowed(SECOND_ARN), is(true));
+        assertThat(resolver.isAllowed(FIRST_ARN), is(false));
+
+        failuresToInject.set(1);
+        assertThat(resolver.refresh(), is(false));
+        assertThat(resolver.isAllowed(SECOND_ARN), is(true));
+        assertThat(resolver.isAllowed(ALIAS), is(true));
+    }
+
+    private void resolveAliasTargets() {
+        when(kmsClient.describeKey(any(DescribeKeyRequest.class))).thenAnswer(invocation -> {
+            DescribeKeyRequest request = invocation.getArgument(0);
+            if (failuresToInject.getAndDecrement() > 0) {
+                throw NotFoundException.builder().message("Alias not found").build();
+            }
+            return describeKeyResponse(aliasTargets.get(request.keyId()));
+        });
+    }
+
+    private static DescribeKeyResponse describeKeyResponse(String arn) {
+        return DescribeKeyResponse.builder()
+                .keyMetadata(KeyMetadata.builder().arn(arn).build())
+                .build();
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.getAsBoolean();
+    }
+}
@@ -0,0 +1,209 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.model.KmsException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KmsResilienceTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final byte[] CIPHERTEXT = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+    private MutableClock clock;
+    private AtomicInteger delegateCalls;
+    private volatile boolean throttling;
+    private KeyDecrypt delegate;
+    private List<String> transitions;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock();
+        delegateCalls = new AtomicInteger();
+        throttling = false;
+        delegate = ciphertext -> {
+            delegateCalls.incrementAndGet();
+            if (throttling) {
+                KmsException throttled = KmsException.builder()
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                        .message("Rate exceeded")
+                        .statusCode(400)
+                        .build();
+                throw new KeyOperationException(throttled.getMessage(), throttled);
+            }
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+        transitions = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    void breaker_opens_after_repeated_throttling_and_closes_after_a_successful_trial() throws Exception {
+        KmsResilience resilience = resilience();
+        KeyDecrypt keyDecrypt = resilience.decrypting(delegate);
+
+        throttling = true;
+        for (int i = 0; i < 3; i++) {
+            assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        }
+        assertThat(resilience.state(), is(KmsResilience.State.OPEN));
+        assertThrows(KmsResilience.CallRejectedException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThat(delegateCalls.get(), is(3));
+        assertThat(resilience.circuitRejections(), is(1L));
+
+        throttling = false;
+        clock.advance(Duration.ofSeconds(10));
+        assertThat(keyDecrypt.decrypt(CIPHERTEXT), is("secret".getBytes()));
+
+        assertThat(resilience.state(), is(KmsResilience.State.CLOSED));
+        assertThat(transitions, is(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED")));
+    }
+
+    @Test
+    void failed_trial_opens_the_breaker_again() {
+        KmsResilience resilience = resilience();
+        KeyDecrypt keyDecrypt = resilience.decrypting(delegate);
+        throttling = true;
+        for (int i = 0; i < 3; i++) {
+            assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        }
+
+        clock.advance(Duration.ofSeconds(10));
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+
+        assertThat(resilience.state(), is(KmsResilience.State.OPEN));
+        assertThat(delegateCalls.get(), is(4));
+    }
+
+    @Test
+    void failures_unrelated_to_load_leave_the_breaker_closed() {
+        KmsResilience resilience = resilience();
+        KeyDecrypt keyDecrypt = resilience.decrypting(ciphertext -> {
+            throw new KeyOperationException("Ciphertext signed by unexpected key");
+        });
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        }
+
+        assertThat(resilience.state(), is(KmsResilience.State.CLOSED));
+        assertThat(resilience.overloads(), is(0L));
+    }
+
+    @Test
+    void limit_increases_additively_and_decreases_multiplicatively() throws Exception {
+        KmsResilience resilience = KmsResilience.builder()
+                .concurrencyLimit(8, 1, 16)
+                .circuitBreaker(100, Duration.ofSeconds(5))
+                .clock(clock)
+                .build();
+        KeyDecrypt keyDecrypt = resilience.decrypting(delegate);
+
+        for (int i = 0; i < 9; i++) {
+            keyDecrypt.decrypt(CIPHERTEXT);
+        }
+        assertThat(resilience.limit(), is(9));
+
+        throttling = true;
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThat(resilience.limit(), is(4));
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThat(resilience.limit(), is(1));
+    }
+
+    @Test
+    void concurrent_throttled_calls_halve_the_limit_once() throws Exception {
+        KmsResilience resilience = KmsResilience.builder()
+                .concurrencyLimit(16, 1, 16)
+                .circuitBreaker(100, Duration.ofSeconds(5))
+                .clock(clock)
+                .build();
+        CountDownLatch allInFlight = new CountDownLatch(16);
+        throttling = true;
+        KeyDecrypt keyDecrypt = resilience.decrypting(ciphertext -> {
+            allInFlight.countDown();
+            try {
+                allInFlight.await();
+            } catch (InterruptedException e) {
+                throw new KeyOperationException("Interrupted", e);
+            }
+            return delegate.decrypt(ciphertext);
+        });
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            threads.add(Thread.ofVirtual().start(() -> assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT))));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(resilience.overloads(), is(16L));
+        assertThat(resilience.limit(), is(8));
+
+        assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+        assertThat(resilience.limit(), is(4));
+    }
+
+    @Test
+    void calls_over_the_limit_are_rejected_without_waiting() throws Exception {
+        KmsResilience resilience = KmsResilience.builder()
+                .concurrencyLimit(2, 1, 2)
+                .clock(clock)
+                .build();
+        CountDownLatch inFlight = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyDecrypt keyDecrypt = resilience.decrypting(ciphertext -> {
+            inFlight.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new KeyOperationException("Interrupted", e);
+            }
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        });
+        List<Thread> threads = List.of(
+                Thread.ofVirtual().start(() -> decryptQuietly(keyDecrypt)),
+                Thread.ofVirtual().start(() -> decryptQuietly(keyDecrypt)));
+        assertThat(inFlight.await(5, TimeUnit.SECONDS), is(true));
+
+        KmsResilience.CallRejectedException ex = assertThrows(KmsResilience.CallRejectedException.class,
+                () -> keyDecrypt.decrypt(CIPHERTEXT));
+
+        assertThat(ex.getMessage(), is("KMS concurrency limit reached"));
+        assertThat(resilience.limitRejections(), is(1L));
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(resilience.inFlight(), is(0));
+    }
+
+    private KmsResilience resilience() {
+        return KmsResilience.builder()
+                .circuitBreaker(3, Duration.ofSeconds(10))
+                .clock(clock)
+                .onStateChange((from, to) -> transitions.add(from + "->" + to))
+                .build();
+    }
+
+    private static void decryptQuietly(KeyDecrypt keyDecrypt) {
+        try {
+            keyDecrypt.decrypt(CIPHERTEXT);
+        } catch (KeyOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
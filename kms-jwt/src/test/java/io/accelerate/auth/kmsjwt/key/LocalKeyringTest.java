@@ -0,0 +1,180 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.DecryptRequest;
+import software.amazon.awssdk.services.kms.model.DecryptResponse;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyRequest;
+import software.amazon.awssdk.services.kms.model.GenerateDataKeyResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LocalKeyringTest {
+    private static final String KEY_ARN = "arn:aws:kms:eu-west-2:000000000000:key/11111111-1111-1111-1111-111111111111";
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final byte[] SECRET = "0123456789ABCDEF0123456789ABCDEF".getBytes();
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private KmsClient kmsClient;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("keyring");
+        clock = new MutableClock();
+        kmsClient = mock(KmsClient.class);
+        SecureRandom random = new SecureRandom();
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenAnswer(invocation -> {
+            byte[] wrappingKey = new byte[32];
+            random.nextBytes(wrappingKey);
+            return GenerateDataKeyResponse.builder()
+                    .keyId(KEY_ARN)
+                    .plaintext(SdkBytes.fromByteArray(wrappingKey))
+                    .ciphertextBlob(SdkBytes.fromByteArray(DUMMY_KEY_PROTECTION.encrypt(wrappingKey)))
+                    .build();
+        });
+        when(kmsClient.decrypt(any(DecryptRequest.class))).thenAnswer(invocation -> {
+            DecryptRequest request = invocation.getArgument(0);
+            return DecryptResponse.builder()
+                    .keyId(KEY_ARN)
+                    .plaintext(SdkBytes.fromByteArray(DUMMY_KEY_PROTECTION.decrypt(request.ciphertextBlob().asByteArray())))
+                    .build();
+        });
+    }
+
+    @Test
+    void wraps_and_unwraps_without_calling_kms_after_the_first_key() throws Exception {
+        LocalKeyring keyring = keyring();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(keyring.decrypt(keyring.encrypt(SECRET)), is(SECRET));
+        }
+
+        verify(kmsClient, times(1)).generateDataKey(any(GenerateDataKeyRequest.class));
+        verify(kmsClient, never()).decrypt(any(DecryptRequest.class));
+        assertThat(Files.exists(file), is(true));
+    }
+
+    @Test
+    void verifies_tokens_minted_by_another_process_from_the_keyring_file() throws Exception {
+        LocalKeyring minter = keyring();
+        String jwt = JWTEncoder.builder(minter).claim("usr", "friendly_name").compact();
+
+        LocalKeyring verifier = keyring();
+        Claims claims = JWTDecoder.builder(verifier).build().decodeAndVerify(jwt);
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+        verify(kmsClient, times(1)).decrypt(any(DecryptRequest.class));
+    }
+
+    @Test
+    void verifier_picks_up_a_new_epoch_from_the_file() throws Exception {
+        LocalKeyring minter = keyring();
+        minter.encrypt(SECRET);
+        LocalKeyring verifier = keyring();
+
+        clock.advance(Duration.ofDays(8));
+        byte[] wrapped = minter.encrypt(SECRET);
+
+        assertThat(minter.currentEpoch(), is(2));
+        assertThat(verifier.decrypt(wrapped), is(SECRET));
+        assertThat(verifier.currentEpoch(), is(2));
+    }
+
+    @Test
+    void previous_epoch_keeps_verifying_until_the_overlap_has_passed() throws Exception {
+        LocalKeyring keyring = keyring();
+        byte[] wrappedBeforeRotation = keyring.encrypt(SECRET);
+
+        clock.advance(Duration.ofDays(7));
+        keyring.encrypt(SECRET);
+        clock.advance(Duration.ofHours(23));
+        assertThat(keyring.decrypt(wrappedBeforeRotation), is(SECRET));
+
+        clock.advance(Duration.ofHours(1));
+        KeyOperationException ex = assertThrows(KeyOperationException.class, () -> keyring.decrypt(wrappedBeforeRotation));
+        assertThat(ex.getMessage(), is("Keyring epoch 1 has been retired"));
+    }
+
+    @Test
+    void rejects_tampered_wrapped_keys() throws Exception {
+        LocalKeyring keyring = keyring();
+        byte[] wrapped = keyring.encrypt(SECRET);
+
+        byte[] tamperedKey = wrapped.clone();
+        tamperedKey[tamperedKey.length - 20] ^= 1;
+        byte[] otherEpoch = wrapped.clone();
+        otherEpoch[6] = 2;
+
+        assertThat(assertThrows(KeyOperationException.class, () -> keyring.decrypt(tamperedKey)).getMessage(),
+                is("Wrapped key failed authentication"));
+        assertThat(assertThrows(KeyOperationException.class, () -> keyring.decrypt(otherEpoch)).getMessage(),
+                is("Unknown keyring epoch 2"));
+    }
+
+    @Test
+    void made_up_epochs_neither_reload_the_file_nor_delay_a_real_rotation() throws Exception {
+        LocalKeyring minter = keyring();
+        byte[] wrapped = minter.encrypt(SECRET);
+        LocalKeyring verifier = keyring();
+        NegativeCachingKeyDecrypt negativeCache = new NegativeCachingKeyDecrypt(verifier, 10, Duration.ofMinutes(1));
+        byte[] madeUpEpoch = wrapped.clone();
+        madeUpEpoch[6] = 99;
+        byte[] nextEpoch = wrapped.clone();
+        nextEpoch[6] = 2;
+
+        assertThrows(LocalKeyring.UnknownEpochException.class, () -> negativeCache.decrypt(madeUpEpoch));
+        assertThrows(LocalKeyring.UnknownEpochException.class, () -> negativeCache.decrypt(nextEpoch));
+        assertThat(negativeCache.size(), is(0));
+
+        minter.rotate();
+        byte[] wrappedUnderNextEpoch = minter.encrypt(SECRET);
+
+        assertThat(negativeCache.decrypt(wrappedUnderNextEpoch), is(SECRET));
+        assertThat(verifier.currentEpoch(), is(2));
+        verify(kmsClient, times(2)).decrypt(any(DecryptRequest.class));
+    }
+
+    @Test
+    void falls_back_for_keys_that_were_not_wrapped_by_the_keyring() throws Exception {
+        LocalKeyring keyring = LocalKeyring.builder(kmsClient, KEY_ARN, file)
+                .clock(clock)
+                .fallback(DUMMY_KEY_PROTECTION)
+                .build();
+
+        assertThat(keyring.decrypt(DUMMY_KEY_PROTECTION.encrypt(SECRET)), is(SECRET));
+        assertThrows(KeyOperationException.class, () -> keyring().decrypt(DUMMY_KEY_PROTECTION.encrypt(SECRET)));
+        assertThat(keyring.decrypt(keyring.encrypt(SECRET)), is(SECRET));
+    }
+
+    private LocalKeyring keyring() throws KeyOperationException {
+        return LocalKeyring.builder(kmsClient, KEY_ARN, file)
+                .rotationPeriod(Duration.ofDays(7))
+                .verificationOverlap(Duration.ofDays(1))
+                .clock(clock)
+                .build();
+    }
+}
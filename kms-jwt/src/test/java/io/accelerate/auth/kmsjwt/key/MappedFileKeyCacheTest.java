@@ -0,0 +1,170 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class MappedFileKeyCacheTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final byte[] SECRET = "0123456789ABCDEF0123456789ABCDEF".getBytes();
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private MutableClock clock;
+    private AtomicInteger delegateCalls;
+    private KeyDecrypt countingDelegate;
+
+    @BeforeEach
+    void setUp() {
+        file = directory.resolve("keys.cache");
+        clock = new MutableClock();
+        delegateCalls = new AtomicInteger();
+        countingDelegate = ciphertext -> {
+            delegateCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+    }
+
+    @Test
+    void another_process_finds_keys_without_calling_the_delegate() throws Exception {
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt(SECRET);
+        try (MappedFileKeyCache first = cache(); MappedFileKeyCache restarted = cache()) {
+            new SharedCachingKeyDecrypt(countingDelegate, first).decrypt(ciphertext);
+
+            byte[] plaintext = new SharedCachingKeyDecrypt(countingDelegate, restarted).decrypt(ciphertext);
+
+            assertThat(plaintext, is(SECRET));
+            assertThat(delegateCalls.get(), is(1));
+        }
+    }
+
+    @Test
+    void plaintext_keys_never_reach_the_file() throws Exception {
+        try (MappedFileKeyCache cache = cache()) {
+            cache.put(DUMMY_KEY_PROTECTION.encrypt(SECRET), SECRET);
+        }
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+        assertThat(content.contains(new String(SECRET)), is(false));
+    }
+
+    @Test
+    void entries_expire() throws Exception {
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt(SECRET);
+        try (MappedFileKeyCache cache = cache()) {
+            cache.put(ciphertext, SECRET);
+            clock.advance(Duration.ofMinutes(4));
+            assertThat(cache.get(ciphertext), is(SECRET));
+
+            clock.advance(Duration.ofMinutes(1));
+            assertThat(cache.get(ciphertext), is(nullValue()));
+        }
+    }
+
+    @Test
+    void keeps_the_size_it_was_created_with() throws Exception {
+        try (MappedFileKeyCache first = cache();
+             MappedFileKeyCache second = MappedFileKeyCache.builder(file, DUMMY_KEY_PROTECTION, DUMMY_KEY_PROTECTION)
+                     .slots(4096)
+                     .build()) {
+            assertThat(first.slots(), is(64));
+            assertThat(second.slots(), is(64));
+        }
+    }
+
+    @Test
+    void concurrent_writers_never_make_readers_see_the_wrong_key() throws Exception {
+        int keys = 500;
+        List<byte[]> ciphertexts = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            ciphertexts.add(DUMMY_KEY_PROTECTION.encrypt(("key-" + i).getBytes()));
+        }
+        AtomicInteger wrongValues = new AtomicInteger();
+
+        try (MappedFileKeyCache first = cache(); MappedFileKeyCache second = cache()) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                MappedFileKeyCache cache = thread % 2 == 0 ? first : second;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 20_000; i++) {
+                        int key = ThreadLocalRandom.current().nextInt(keys);
+                        byte[] ciphertext = ciphertexts.get(key);
+                        byte[] cached = cache.get(ciphertext);
+                        if (cached == null) {
+                            cache.put(ciphertext, DUMMY_KEY_PROTECTION.decrypt(ciphertext));
+                        } else if (!new String(cached).equals("key-" + key)) {
+                            wrongValues.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        assertThat(wrongValues.get(), is(0));
+    }
+
+    @Test
+    void takes_over_slots_left_mid_write_by_a_dead_writer() throws Exception {
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt(SECRET);
+        try (MappedFileKeyCache cache = cache()) {
+            markEverySlotMidWrite(cache.slots());
+
+            cache.put(ciphertext, SECRET);
+            assertThat(cache.get(ciphertext), is(nullValue()));
+
+            clock.advance(Duration.ofSeconds(1));
+            cache.put(ciphertext, SECRET);
+            assertThat(cache.get(ciphertext), is(SECRET));
+        }
+    }
+
+    /**
+     * Leaves every slot's sequence odd, as a writer killed between claiming and releasing a slot would.
+     */
+    private void markEverySlotMidWrite(int slots) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.nativeOrder());
+            for (int slot = 0; slot < slots; slot++) {
+                buffer.putLong(4096 + slot * 160, 1);
+            }
+            buffer.force();
+        }
+    }
+
+    private MappedFileKeyCache cache() throws KeyOperationException {
+        return MappedFileKeyCache.builder(file, DUMMY_KEY_PROTECTION, DUMMY_KEY_PROTECTION)
+                .slots(64)
+                .ttl(Duration.ofMinutes(5))
+                .clock(clock)
+                .build();
+    }
+}
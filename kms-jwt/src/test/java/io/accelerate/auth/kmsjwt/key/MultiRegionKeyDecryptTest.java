@@ -0,0 +1,182 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultiRegionKeyDecryptTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final byte[] SECRET = "0123456789ABCDEF0123456789ABCDEF".getBytes();
+    private static final byte[] CIPHERTEXT = DUMMY_KEY_PROTECTION.encrypt(SECRET);
+
+    @Test
+    void fast_primary_is_not_hedged() throws Exception {
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", new LatencyInjectingKeyDecrypt(Duration.ZERO))
+                .region("eu-west-1", ciphertext -> {
+                    secondaryCalls.incrementAndGet();
+                    return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+                })
+                .initialHedgeDelay(Duration.ofSeconds(5))
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(keyDecrypt.decrypt(CIPHERTEXT), is(SECRET));
+        }
+
+        assertThat(keyDecrypt.hedges(), is(0L));
+        assertThat(secondaryCalls.get(), is(0));
+        assertThat(keyDecrypt.latencyByRegion().get("eu-west-2").count(), is(10L));
+    }
+
+    @Test
+    void slow_primary_is_hedged_and_cancelled() throws Exception {
+        LatencyInjectingKeyDecrypt slowPrimary = new LatencyInjectingKeyDecrypt(Duration.ofSeconds(10));
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", slowPrimary)
+                .region("eu-west-1", new LatencyInjectingKeyDecrypt(Duration.ofMillis(20)))
+                .initialHedgeDelay(Duration.ofMillis(50))
+                .build();
+
+        long start = System.nanoTime();
+        byte[] plaintext = keyDecrypt.decrypt(CIPHERTEXT);
+
+        assertThat(plaintext, is(SECRET));
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(5)));
+        assertThat(keyDecrypt.hedges(), is(1L));
+        assertThat(slowPrimary.interrupted.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    void cancelled_attempts_count_towards_the_primary_latency() throws Exception {
+        LatencyInjectingKeyDecrypt slowPrimary = new LatencyInjectingKeyDecrypt(Duration.ofSeconds(10));
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", slowPrimary)
+                .region("eu-west-1", new LatencyInjectingKeyDecrypt(Duration.ofMillis(20)))
+                .initialHedgeDelay(Duration.ofMillis(50))
+                .build();
+
+        keyDecrypt.decrypt(CIPHERTEXT);
+        assertThat(slowPrimary.interrupted.await(5, TimeUnit.SECONDS), is(true));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (keyDecrypt.latencyByRegion().get("eu-west-2").count() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        LatencyHistogram.Snapshot primary = keyDecrypt.latencyByRegion().get("eu-west-2");
+        assertThat(primary.count(), is(1L));
+        assertThat(primary.max(), greaterThanOrEqualTo(Duration.ofMillis(70).toNanos()));
+    }
+
+    @Test
+    void failing_primary_fails_over_without_waiting_for_the_hedge_delay() throws Exception {
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", ciphertext -> {
+                    throw new KeyOperationException("KMS is unavailable");
+                })
+                .region("eu-west-1", new LatencyInjectingKeyDecrypt(Duration.ZERO))
+                .initialHedgeDelay(Duration.ofSeconds(10))
+                .build();
+
+        long start = System.nanoTime();
+        byte[] plaintext = keyDecrypt.decrypt(CIPHERTEXT);
+
+        assertThat(plaintext, is(SECRET));
+        assertThat(System.nanoTime() - start, lessThan(TimeUnit.SECONDS.toNanos(5)));
+        assertThat(keyDecrypt.failovers(), is(1L));
+    }
+
+    @Test
+    void fails_with_the_primary_failure_when_every_region_fails() {
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", ciphertext -> {
+                    throw new KeyOperationException("Ciphertext signed by unexpected key");
+                })
+                .region("eu-west-1", ciphertext -> {
+                    throw new KeyOperationException("KMS is unavailable");
+                })
+                .build();
+
+        KeyOperationException ex = assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+
+        assertThat(ex.getMessage(), is("Ciphertext signed by unexpected key"));
+        assertThat(ex.getSuppressed().length, is(1));
+    }
+
+    @Test
+    void fails_with_the_primary_failure_even_when_the_hedged_region_fails_first() {
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", ciphertext -> {
+                    sleep(Duration.ofMillis(200));
+                    throw new KeyOperationException("Ciphertext signed by unexpected key");
+                })
+                .region("eu-west-1", ciphertext -> {
+                    throw new KeyOperationException("KMS is unavailable");
+                })
+                .initialHedgeDelay(Duration.ofMillis(10))
+                .build();
+
+        KeyOperationException ex = assertThrows(KeyOperationException.class, () -> keyDecrypt.decrypt(CIPHERTEXT));
+
+        assertThat(ex.getMessage(), is("Ciphertext signed by unexpected key"));
+        assertThat(ex.getSuppressed().length, is(1));
+        assertThat(ex.getSuppressed()[0].getMessage(), is("KMS is unavailable"));
+        assertThat(keyDecrypt.hedges(), is(1L));
+    }
+
+    @Test
+    void hedge_delay_follows_the_primary_latency_percentile() throws Exception {
+        MultiRegionKeyDecrypt keyDecrypt = MultiRegionKeyDecrypt.builder()
+                .region("eu-west-2", new LatencyInjectingKeyDecrypt(Duration.ofMillis(5)))
+                .region("eu-west-1", new LatencyInjectingKeyDecrypt(Duration.ZERO))
+                .initialHedgeDelay(Duration.ofSeconds(1))
+                .minHedgeDelay(Duration.ofMillis(1))
+                .build();
+        assertThat(keyDecrypt.hedgeDelayNanos(), is(Duration.ofSeconds(1).toNanos()));
+
+        for (int i = 0; i < 25; i++) {
+            keyDecrypt.decrypt(CIPHERTEXT);
+        }
+
+        assertThat(keyDecrypt.hedgeDelayNanos(), lessThan(Duration.ofSeconds(1).toNanos()));
+    }
+
+    private static void sleep(Duration duration) throws KeyOperationException {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            throw new KeyOperationException("Interrupted", e);
+        }
+    }
+
+    private static final class LatencyInjectingKeyDecrypt implements KeyDecrypt {
+        private final Duration latency;
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+
+        LatencyInjectingKeyDecrypt(Duration latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public byte[] decrypt(byte[] ciphertext) throws KeyOperationException {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw new KeyOperationException("Interrupted", e);
+            }
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.testing.FakeKms;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.kms.KmsClient;
+import software.amazon.awssdk.services.kms.model.InvalidCiphertextException;
+import software.amazon.awssdk.services.kms.model.KmsException;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NegativeCachingKeyDecryptTest {
+    private static final byte[] CIPHERTEXT = "foreign-key-ciphertext".getBytes();
+
+    private AtomicInteger delegateCalls;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        delegateCalls = new AtomicInteger();
+        clock = new MutableClock();
+    }
+
+    @Test
+    void unexpected_key_is_rejected_locally_until_ttl_elapses() throws Exception {
+        NegativeCachingKeyDecrypt negativeCache = negativeCacheFailingWith(new KMSDecrypt.UnexpectedKeyException());
+
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT.clone()));
+        assertThat(delegateCalls.get(), is(1));
+        assertThat(negativeCache.rejections(), is(1L));
+
+        clock.advance(Duration.ofSeconds(30));
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+        assertThat(delegateCalls.get(), is(2));
+    }
+
+    @Test
+    void invalid_ciphertext_reported_by_kms_is_remembered() {
+        KmsException invalidCiphertext = InvalidCiphertextException.builder()
+                .message("Invalid ciphertext")
+                .statusCode(400)
+                .build();
+        NegativeCachingKeyDecrypt negativeCache = negativeCacheFailingWith(
+                new KeyOperationException(invalidCiphertext.getMessage(), invalidCiphertext));
+
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+
+        assertThat(delegateCalls.get(), is(1));
+    }
+
+    @Test
+    void throttling_is_not_remembered() {
+        KmsException throttled = KmsException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode("ThrottlingException").build())
+                .message("Rate exceeded")
+                .statusCode(400)
+                .build();
+        NegativeCachingKeyDecrypt negativeCache = negativeCacheFailingWith(
+                new KeyOperationException(throttled.getMessage(), throttled));
+
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+
+        assertThat(delegateCalls.get(), is(2));
+        assertThat(negativeCache.size(), is(0));
+    }
+
+    @Test
+    void interrupted_waits_are_not_remembered() {
+        NegativeCachingKeyDecrypt negativeCache = negativeCacheFailingWith(new KeyOperationException(
+                "Interrupted while waiting for key decryption",
+                new KeyOperationException("Interrupted", new InterruptedException())));
+
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+        assertThrows(KeyOperationException.class, () -> negativeCache.decrypt(CIPHERTEXT));
+
+        assertThat(delegateCalls.get(), is(2));
+        assertThat(negativeCache.size(), is(0));
+    }
+
+    @Test
+    void unexpected_key_is_remembered_only_once_the_allowed_keys_are_resolved() throws Exception {
+        FakeKms kms = FakeKms.builder().build();
+        KmsClient kmsClient = kms.client();
+        String keyArn = kms.createKey();
+        byte[] foreignCiphertext = new KMSEncrypt(kmsClient, kms.createKey()).encrypt("secret".getBytes());
+
+        // the alias does not exist (yet), so the allowed keys are not known and any key may be the right one
+        NegativeCachingKeyDecrypt unresolved = new NegativeCachingKeyDecrypt(
+                new KMSDecrypt(kmsClient, Set.of("alias/tokens")), 100, Duration.ofSeconds(30), clock, MetricsListener.NOOP);
+        assertThrows(KeyOperationException.class, () -> unresolved.decrypt(foreignCiphertext));
+        assertThrows(KeyOperationException.class, () -> unresolved.decrypt(foreignCiphertext));
+        assertThat(kms.requests(FakeKms.Api.DECRYPT), is(2L));
+        assertThat(unresolved.size(), is(0));
+
+        NegativeCachingKeyDecrypt resolved = new NegativeCachingKeyDecrypt(
+                new KMSDecrypt(kmsClient, Set.of(keyArn)), 100, Duration.ofSeconds(30), clock, MetricsListener.NOOP);
+        assertThrows(KMSDecrypt.UnexpectedKeyException.class, () -> resolved.decrypt(foreignCiphertext));
+        assertThrows(KeyOperationException.class, () -> resolved.decrypt(foreignCiphertext));
+        assertThat(kms.requests(FakeKms.Api.DECRYPT), is(3L));
+    }
+
+    @Test
+    void rate_limited_calls_are_not_remembered() throws Exception {
+        DummyKeyProtection dummyKeyProtection = new DummyKeyProtection();
+        RateLimitedKeyDecrypt rateLimited = new RateLimitedKeyDecrypt(dummyKeyProtection, 1, 1, clock);
+        NegativeCachingKeyDecrypt negativeCache = new NegativeCachingKeyDecrypt(
+                rateLimited, 100, Duration.ofSeconds(30), clock, MetricsListener.NOOP);
+        byte[] ciphertext = dummyKeyProtection.encrypt("secret".getBytes());
+
+        negativeCache.decrypt(ciphertext);
+        assertThrows(RateLimitedKeyDecrypt.RateLimitExceededException.class, () -> negativeCache.decrypt(ciphertext));
+        clock.advance(Duration.ofSeconds(1));
+
+        assertThat(new String(negativeCache.decrypt(ciphertext)), is("secret"));
+    }
+
+    private NegativeCachingKeyDecrypt negativeCacheFailingWith(KeyOperationException failure) {
+        KeyDecrypt failing = ciphertext -> {
+            delegateCalls.incrementAndGet();
+            throw failure;
+        };
+        return new NegativeCachingKeyDecrypt(failing, 100, Duration.ofSeconds(30), clock,
+                MetricsListener.NOOP);
+    }
+}
@@ -0,0 +1,77 @@
+package io.accelerate.auth.kmsjwt.key;
+
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RateLimitedKeyDecryptTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    private AtomicInteger delegateCalls;
+    private KeyDecrypt countingDelegate;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        delegateCalls = new AtomicInteger();
+        countingDelegate = ciphertext -> {
+            delegateCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+        clock = new MutableClock();
+    }
+
+    @Test
+    void allows_a_burst_then_refills_at_the_configured_rate() throws Exception {
+        RateLimitedKeyDecrypt limited = new RateLimitedKeyDecrypt(countingDelegate, 10, 5, clock);
+        byte[] ciphertext = DUMMY_KEY_PROTECTION.encrypt("secret".getBytes());
+
+        for (int i = 0; i < 5; i++) {
+            limited.decrypt(ciphertext);
+        }
+        assertThrows(KeyOperationException.class, () -> limited.decrypt(ciphertext));
+
+        clock.advance(Duration.ofMillis(200));
+        limited.decrypt(ciphertext);
+        limited.decrypt(ciphertext);
+        assertThrows(KeyOperationException.class, () -> limited.decrypt(ciphertext));
+
+        assertThat(delegateCalls.get(), is(7));
+        assertThat(limited.rejections(), is(2L));
+    }
+
+    @Test
+    void flood_of_random_key_ids_degrades_into_local_rejects() throws Exception {
+        JWTDecoder decoder = JWTDecoder.builder(countingDelegate)
+                .keyCache(100, Duration.ofMinutes(5))
+                .negativeKeyCache(1_000, Duration.ofSeconds(30))
+                .keyDecryptRateLimit(10, 10)
+                .clock(clock)
+                .build();
+        String legitimate = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+        decoder.decodeAndVerify(legitimate);
+
+        for (int i = 0; i < 1_000; i++) {
+            String garbage = JWTEncoder.builder(ciphertext -> ("garbage" + ciphertext.length).getBytes())
+                    .header().add("kid", Base64.getEncoder().encodeToString(("random" + i).getBytes())).and()
+                    .compact();
+            assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(garbage));
+        }
+
+        assertThat(delegateCalls.get(), is(10));
+        assertThat(decoder.decodeAndVerify(legitimate).get("usr"), is("friendly_name"));
+    }
+}
@@ -0,0 +1,115 @@
+package io.accelerate.auth.kmsjwt.metrics;
+
+import io.accelerate.auth.kmsjwt.key.CachingKeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.token.JWTDecoder;
+import io.accelerate.auth.kmsjwt.token.JWTEncoder;
+import io.accelerate.auth.kmsjwt.token.JWTVerificationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemoryMetricsTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    private InMemoryMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        metrics = new InMemoryMetrics();
+    }
+
+    @Test
+    void histogram_percentiles_are_within_bucket_precision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.count(), is(10_000L));
+        assertThat(snapshot.max(), is(10_000_000L));
+        assertThat(snapshot.percentile(50), greaterThanOrEqualTo(5_000_000L));
+        assertThat(snapshot.percentile(50), lessThanOrEqualTo(5_320_000L));
+        assertThat(snapshot.percentile(99), greaterThanOrEqualTo(9_900_000L));
+        assertThat(snapshot.percentile(99), lessThanOrEqualTo(10_000_000L));
+        assertThat(snapshot.percentile(100), is(10_000_000L));
+    }
+
+    @Test
+    void decoder_records_successes_and_cache_hits() throws Exception {
+        JWTDecoder decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION)
+                .keyCache(10, Duration.ofMinutes(5))
+                .metrics(metrics)
+                .build();
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION, metrics)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        decoder.decodeAndVerify(jwt);
+        decoder.decodeAndVerify(jwt);
+        decoder.decodeAndVerifyAsync(jwt).get();
+
+        assertThat(metrics.count(Operation.JWT_BUILDER, Outcome.SUCCESS), is(1L));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.SUCCESS), is(3L));
+        assertThat(metrics.latency(Operation.JWT_VERIFY).count(), is(3L));
+        assertThat(metrics.cacheMisses(CachingKeyDecrypt.CACHE_NAME), is(1L));
+        assertThat(metrics.cacheHits(CachingKeyDecrypt.CACHE_NAME), is(2L));
+    }
+
+    @Test
+    void decoder_records_rejection_reasons() throws Exception {
+        JWTDecoder decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION)
+                .metrics(metrics)
+                .build();
+        String expired = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .expiration(new Date(System.currentTimeMillis() - Duration.ofHours(1).toMillis()))
+                .compact();
+        String tampered = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact() + "x";
+        String withoutKeyId = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9"
+                              + ".eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZSI6IkpvaG4gRG9lIiwiYWRtaW4iOnRydWV9"
+                              + ".TJVA95OrM7E2cBab30RMHrHDcEfxjoYZgeFONFh7HgQ";
+
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(""));
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(expired));
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(tampered));
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(withoutKeyId));
+        assertThrows(ExecutionException.class, () -> decoder.decodeAndVerifyAsync(withoutKeyId).get());
+
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.EMPTY_TOKEN), is(1L));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.EXPIRED), is(1L));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.INVALID_SIGNATURE), is(1L));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.MISSING_KEY_ID), is(2L));
+    }
+
+    @Test
+    void decoder_records_unavailable_keys() {
+        KeyDecrypt unavailable = ciphertext -> {
+            throw new KeyOperationException("KMS unavailable");
+        };
+        JWTDecoder decoder = JWTDecoder.builder(unavailable)
+                .metrics(metrics)
+                .build();
+        String validKeySignedBySecret = "eyJhbGciOiJIUzI1NiIsImtpZCI6Ik1ERXlNelExTmpjNE9VRkNRMFJGUmpBeE1qTTBOVFkzT0RsQlFrTkVSVVk9In0" +
+                                        ".eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZSI6IkpvaG4gRG9lIiwiYWRtaW4iOnRydWV9" +
+                                        ".IzAFrMM0MbFJB9a35yQcp-jLSk7pBJP036CK5C144cI";
+
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(validKeySignedBySecret));
+
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.KEY_UNAVAILABLE), is(1L));
+    }
+}
@@ -0,0 +1,186 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static io.accelerate.auth.kmsjwt.token.FastHs256VerifierTest.NOW;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClaimsReaderTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final byte[] SECRET = "0123456789ABCDEF0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+    private static final String KID = Base64.getEncoder().encodeToString(DUMMY_KEY_PROTECTION.encrypt(SECRET));
+    private static final ClaimsReader<UserClaims> USER_CLAIMS = ClaimsReader.forRecord(UserClaims.class);
+
+    private JWTDecoder decoder;
+    private List<Outcome> outcomes;
+
+    record UserClaims(@Claim("usr") String username, Instant exp, Instant nbf, long count, boolean admin) {
+    }
+
+    record Unsupported(Date exp) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        outcomes = new ArrayList<>();
+        decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION)
+                .clock(Clock.fixed(NOW, ZoneOffset.UTC))
+                .metrics(new MetricsListener() {
+                    @Override
+                    public void operationCompleted(Operation operation, String keyArn, long durationNanos, Outcome outcome) {
+                        outcomes.add(outcome);
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    void reads_tdl_claims_of_encoder_tokens() throws Exception {
+        Instant expiration = NOW.plus(Duration.ofDays(1));
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .expiration(Date.from(expiration))
+                .claim("usr", "friendly_name")
+                .claim("tdl_wrm", List.of("SUM", "HLO"))
+                .claim("tdl_chx", "CHK")
+                .claim("other", List.of(1, 2))
+                .compact();
+
+        TdlClaims claims = decoder.decodeAndVerify(jwt, TdlClaims.READER);
+
+        assertThat(claims, is(new TdlClaims("friendly_name", List.of("SUM", "HLO"), "CHK", expiration)));
+        assertThat(outcomes, is(List.of(Outcome.SUCCESS)));
+    }
+
+    @Test
+    void lazy_claims_are_read_on_access() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .claim("tdl_wrm", List.of("SUM"))
+                .claim("count", 3)
+                .compact();
+
+        LazyClaims claims = decoder.decodeAndVerify(jwt, ClaimsReader.lazy("usr", "tdl_wrm", "count", "tdl_chx"));
+
+        assertThat(claims.getString("usr"), is("friendly_name"));
+        assertThat(claims.getStringList("tdl_wrm"), is(List.of("SUM")));
+        assertThat(claims.getLong("count"), is(3L));
+        assertThat(claims.has("tdl_chx"), is(false));
+        assertThat(claims.getString("tdl_chx"), is(nullValue()));
+        IllegalArgumentException mismatch = assertThrows(IllegalArgumentException.class, () -> claims.getString("count"));
+        assertThat(mismatch.getMessage(), is("Claim count is not a string"));
+        IllegalArgumentException unregistered = assertThrows(IllegalArgumentException.class, () -> claims.getString("jti"));
+        assertThat(unregistered.getMessage(), is("Claim jti was not registered with this reader"));
+    }
+
+    @Test
+    void rejects_claims_of_an_unexpected_type() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", 42)
+                .compact();
+
+        JWTVerificationException ex = assertThrows(JWTVerificationException.class,
+                () -> decoder.decodeAndVerify(jwt, USER_CLAIMS));
+
+        assertThat(ex.getMessage(), containsString("Claim usr is not a string"));
+        assertThat(outcomes, is(List.of(Outcome.MALFORMED_TOKEN)));
+    }
+
+    @Test
+    void rejects_expired_tokens_like_map_based_decoding() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .expiration(Date.from(NOW.minus(Duration.ofHours(1))))
+                .claim("usr", "friendly_name")
+                .compact();
+
+        JWTVerificationException ex = assertThrows(JWTVerificationException.class,
+                () -> decoder.decodeAndVerify(jwt, USER_CLAIMS));
+
+        assertThat(outcomes, is(List.of(Outcome.EXPIRED)));
+        assertThat("REJECTED " + ex.getMessage(), is(describe(jwt)));
+    }
+
+    @Test
+    void agrees_with_map_based_decoding_on_differential_corpus() throws Exception {
+        List<String> corpus = new ArrayList<>(FastHs256VerifierTest.corpus());
+        String header = "{\"kid\":\"" + KID + "\",\"alg\":\"HS256\"}";
+        for (String payload : List.of(
+                "{\"usr\":\"friendly_name\",\"count\":3,\"admin\":true,\"nbf\":" + NOW.getEpochSecond() + "}",
+                "{\"count\":3.5}",
+                "{\"count\":01}",
+                "{\"count\":9223372036854775808}",
+                "{\"admin\":\"yes\"}",
+                "{\"usr\":null,\"exp\":null}",
+                "{\"u\\u0073r\":\"escaped\"}",
+                "{\"usr\":\"a\",\"other\":1,\"other\":2}",
+                "{\"usr\":\"a\"} trailing",
+                "{\"usr\":\"a\",\"x\":{\"a\":[1,-2.5e3,{\"b\":null}],\"c\":\"d\",\"e\":[]}}",
+                "{\"usr\":\"a\",\"x\":[}}",
+                "{\"usr\":\"a\",\"x\":{]}",
+                "{\"usr\":\"a\",\"x\":[garbage]}",
+                "{\"usr\":\"a\",\"x\":[1,]}",
+                "{\"usr\":\"a\",\"x\":[1 2]}",
+                "{\"usr\":\"a\",\"x\":{\"a\"}}",
+                "{\"usr\":\"a\",\"x\":{\"a\":1,}}",
+                "{\"usr\":\"a\",\"x\":{a:1}}",
+                "{\"usr\":\"a\",\"x\":{\"a\":1,\"a\":2}}",
+                "{\"usr\":\"a\",\"x\":[{\"a\":1,\"a\":2}]}",
+                "{\"usr\":\"a\",\"x\":" + "[".repeat(40) + "]".repeat(40) + "}")) {
+            corpus.add(FastHs256VerifierTest.sign(header, payload, SECRET));
+        }
+
+        int accepted = 0;
+        for (String jwt : corpus) {
+            String expected = describe(jwt);
+            assertThat("token: " + jwt, describe(() -> decoder.decodeAndVerify(jwt, USER_CLAIMS)), is(expected));
+            if (expected.startsWith("OK")) {
+                accepted++;
+            }
+        }
+        assertThat(accepted, greaterThan(5));
+    }
+
+    @Test
+    void rejects_unsupported_component_types() {
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> ClaimsReader.forRecord(Unsupported.class));
+
+        assertThat(ex.getMessage(), containsString("Unsupported claim type java.util.Date"));
+    }
+
+    private String describe(String jwt) {
+        return describe(() -> USER_CLAIMS.fromClaims(decoder.decodeAndVerify(jwt)));
+    }
+
+    private static String describe(Decoding decoding) {
+        try {
+            return "OK " + decoding.decode();
+        } catch (JWTVerificationException e) {
+            return "REJECTED " + e.getMessage();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Decoding {
+        UserClaims decode() throws JWTVerificationException;
+    }
+}
@@ -0,0 +1,124 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+class DataKeyPoolTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    @Test
+    void pool_fills_up_in_the_background() throws Exception {
+        try (DataKeyPool pool = new DataKeyPool(DUMMY_KEY_PROTECTION, 50, 10, 2)) {
+            assertThat(pool.awaitFull(5, TimeUnit.SECONDS), is(true));
+
+            DataKeyPool.Stats stats = pool.stats();
+            assertThat(stats.depth(), is(50));
+            assertThat(stats.keysRefilled(), greaterThan(49L));
+        }
+    }
+
+    @Test
+    void every_issued_key_is_unique() throws Exception {
+        try (DataKeyPool pool = new DataKeyPool(DUMMY_KEY_PROTECTION, 20, 5, 2)) {
+            Set<String> kids = new HashSet<>();
+            for (int i = 0; i < 500; i++) {
+                kids.add(pool.next().kid());
+            }
+
+            assertThat(kids.size(), is(500));
+        }
+    }
+
+    @Test
+    void falls_back_to_synchronous_encrypt_when_pool_is_empty() throws Exception {
+        KeyEncrypt failsInBackground = plaintext -> {
+            if (Thread.currentThread().getName().startsWith("data-key-pool-refill")) {
+                throw new KeyOperationException("KMS unavailable");
+            }
+            return DUMMY_KEY_PROTECTION.encrypt(plaintext);
+        };
+        try (DataKeyPool pool = new DataKeyPool(failsInBackground, 10, 2, 1)) {
+            DataKey dataKey = pool.next();
+
+            byte[] decryptedKey = DUMMY_KEY_PROTECTION.decrypt(Base64.getDecoder().decode(dataKey.kid()));
+            assertThat(decryptedKey, is(dataKey.secretKey().getEncoded()));
+            assertThat(pool.stats().synchronousKeysIssued(), is(1L));
+            assertThat(pool.stats().pooledKeysIssued(), is(0L));
+        }
+    }
+
+    @Test
+    void backs_off_refills_while_kms_keeps_failing() throws Exception {
+        MutableClock clock = new MutableClock();
+        AtomicInteger refillCalls = new AtomicInteger();
+        AtomicBoolean kmsDown = new AtomicBoolean(true);
+        KeyEncrypt failsInBackground = plaintext -> {
+            if (Thread.currentThread().getName().startsWith("data-key-pool-refill")) {
+                refillCalls.incrementAndGet();
+                if (kmsDown.get()) {
+                    throw new KeyOperationException("Rate exceeded");
+                }
+            }
+            return DUMMY_KEY_PROTECTION.encrypt(plaintext);
+        };
+        try (DataKeyPool pool = new DataKeyPool(failsInBackground, 10, 2, 1, clock)) {
+            awaitRefillFailures(pool, 1);
+            for (int i = 0; i < 100; i++) {
+                pool.next();
+            }
+            assertThat(refillCalls.get(), is(1));
+
+            clock.advance(Duration.ofSeconds(1));
+            pool.next();
+            awaitRefillFailures(pool, 2);
+            clock.advance(Duration.ofSeconds(1));
+            pool.next();
+            assertThat(refillCalls.get(), is(2));
+
+            clock.advance(Duration.ofSeconds(1));
+            pool.next();
+            awaitRefillFailures(pool, 3);
+            assertThat(refillCalls.get(), is(3));
+
+            kmsDown.set(false);
+            clock.advance(Duration.ofSeconds(4));
+            pool.next();
+            assertThat(pool.awaitFull(5, TimeUnit.SECONDS), is(true));
+            assertThat(pool.stats().refillFailures(), is(3L));
+        }
+    }
+
+    @Test
+    void tokens_minted_from_pool_verify_with_existing_decoder() throws Exception {
+        try (DataKeyPool pool = new DataKeyPool(DUMMY_KEY_PROTECTION, 10, 2, 1)) {
+            String jwt = JWTEncoder.builder(pool)
+                    .claim("usr", "friendly_name")
+                    .compact();
+
+            assertThat(new JWTDecoder(DUMMY_KEY_PROTECTION).decodeAndVerify(jwt).get("usr"), is("friendly_name"));
+        }
+    }
+
+    private static void awaitRefillFailures(DataKeyPool pool, long failures) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.stats().refillFailures() < failures && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(pool.stats().refillFailures(), is(failures));
+    }
+}
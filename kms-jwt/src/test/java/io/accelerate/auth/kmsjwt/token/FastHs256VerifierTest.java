@@ -0,0 +1,196 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Differential tests: the fast path must accept and reject exactly the tokens jjwt does.
+ */
+class FastHs256VerifierTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    static final Instant NOW = Instant.parse("2024-06-01T12:00:00Z");
+    private static final byte[] SECRET = "0123456789ABCDEF0123456789ABCDEF".getBytes(StandardCharsets.UTF_8);
+    private static final String KID = Base64.getEncoder().encodeToString(DUMMY_KEY_PROTECTION.encrypt(SECRET));
+    private static final String BASE64_URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private JWTDecoder reference;
+    private JWTDecoder fastPath;
+
+    @BeforeEach
+    void setUp() {
+        Clock clock = Clock.fixed(NOW, ZoneOffset.UTC);
+        reference = JWTDecoder.builder(DUMMY_KEY_PROTECTION).clock(clock).build();
+        fastPath = JWTDecoder.builder(DUMMY_KEY_PROTECTION).clock(clock).fastPathVerification().build();
+    }
+
+    @Test
+    void accepts_tokens_produced_by_encoder() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .claim("jrn", "SUM,HLO")
+                .expiration(Date.from(NOW.plus(Duration.ofDays(1))))
+                .compact();
+
+        Claims claims = fastPath.decodeAndVerify(jwt);
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+        assertThat(claims.getExpiration(), is(Date.from(NOW.plus(Duration.ofDays(1)))));
+        assertThat(describe(fastPath, jwt), is(describe(reference, jwt)));
+    }
+
+    @Test
+    void rejects_tampered_signature_like_jjwt() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+        String tampered = jwt.substring(0, jwt.length() - 2) + (jwt.charAt(jwt.length() - 2) == 'A' ? 'B' : 'A') + jwt.charAt(jwt.length() - 1);
+
+        JWTVerificationException ex = assertThrows(JWTVerificationException.class, () -> fastPath.decodeAndVerify(tampered));
+
+        assertThat(ex.getMessage(), containsString("should not be trusted"));
+        assertThat(describe(fastPath, tampered), is(describe(reference, tampered)));
+    }
+
+    @Test
+    void agrees_with_jjwt_on_differential_corpus() throws Exception {
+        List<String> corpus = corpus();
+
+        int accepted = 0;
+        for (String jwt : corpus) {
+            String expected = describe(reference, jwt);
+            assertThat("token: " + jwt, describe(fastPath, jwt), is(expected));
+            if (expected.startsWith("OK")) {
+                accepted++;
+            }
+        }
+        assertThat(accepted, greaterThan(5));
+        assertThat(corpus.size() - accepted, greaterThan(100));
+    }
+
+    static List<String> corpus() throws Exception {
+        List<String> corpus = new ArrayList<>();
+        String header = "{\"kid\":\"" + KID + "\",\"alg\":\"HS256\"}";
+        long now = NOW.getEpochSecond();
+
+        List<String> payloads = List.of(
+                "{}",
+                "{\"usr\":\"friendly_name\"}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now + 3600) + "}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now - 30) + "}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now - 60) + "}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now - 61) + "}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now - 3600) + "}",
+                "{\"usr\":\"friendly_name\",\"nbf\":" + (now + 30) + "}",
+                "{\"usr\":\"friendly_name\",\"nbf\":" + (now + 61) + "}",
+                "{\"usr\":\"friendly_name\",\"iat\":" + now + ",\"exp\":" + (now + 60) + "}",
+                "{\"usr\":\"friendly_name\",\"exp\":\"" + (now + 3600) + "\"}",
+                "{\"usr\":\"friendly_name\",\"exp\":" + (now + 3600) + ".5}",
+                "{\"usr\":\"friendly_name\",\"exp\":\"tomorrow\"}",
+                "{\"usr\":\"friendly_name\",\"iat\":\"yesterday\"}",
+                "{\"aud\":\"service\",\"sub\":\"user\",\"jti\":\"abc\"}",
+                "{\"aud\":[\"a\",\"b\"],\"nested\":{\"k\":[1,2,{\"x\":null}]}}",
+                "{\"aud\":5}",
+                "{\"usr\":\"fr\\u00efendly \\ud83d\\ude00\"}",
+                "{\"usr\":\"friendly_name\",\"usr\":\"duplicate\"}",
+                "[1,2,3]",
+                "\"just a string\"",
+                "null",
+                "not json",
+                "");
+        for (String payload : payloads) {
+            corpus.add(sign(header, payload, SECRET));
+        }
+
+        String payload = "{\"usr\":\"friendly_name\",\"exp\":" + (now + 3600) + "}";
+        List<String> headers = List.of(
+                "{\"alg\":\"HS256\",\"kid\":\"" + KID + "\",\"typ\":\"JWT\"}",
+                "{\"alg\":\"HS256\",\"kid\":\"" + KID + "\",\"typ\":5}",
+                "{\"alg\":\"HS256\",\"kid\":\"" + KID + "\",\"crit\":[\"exp\"]}",
+                "{\"alg\":\"HS256\",\"kid\":\"" + KID + "\",\"zip\":\"DEF\"}",
+                "{\"alg\":\"HS256\",\"kid\":\"" + KID + "\",\"b64\":false}",
+                "{\"alg\":\"HS384\",\"kid\":\"" + KID + "\"}",
+                "{\"alg\":\"none\",\"kid\":\"" + KID + "\"}",
+                "{\"alg\":\"HS256\"}",
+                "{\"alg\":\"HS256\",\"kid\":\"\"}",
+                "{\"alg\":\"HS256\",\"kid\":42}",
+                "{\"alg\":\"HS256\",\"kid\":\"not base64!\"}",
+                "{\"kid\":\"" + KID + "\"}",
+                "[]",
+                "not json");
+        for (String otherHeader : headers) {
+            corpus.add(sign(otherHeader, payload, SECRET));
+        }
+
+        String weakKid = Base64.getEncoder().encodeToString(DUMMY_KEY_PROTECTION.encrypt("too-short".getBytes()));
+        corpus.add(sign("{\"alg\":\"HS256\",\"kid\":\"" + weakKid + "\"}", payload, "too-short".getBytes()));
+        corpus.add(sign(header, payload, "FEDCBA9876543210FEDCBA9876543210".getBytes(StandardCharsets.UTF_8)));
+
+        String valid = sign(header, payload, SECRET);
+        int signatureStart = valid.lastIndexOf('.') + 1;
+        for (int i = 0; i < valid.length(); i++) {
+            char original = valid.charAt(i);
+            if (original == '.') {
+                continue;
+            }
+            char replacement = BASE64_URL_ALPHABET.charAt((BASE64_URL_ALPHABET.indexOf(original) + 1) % 64);
+            corpus.add(valid.substring(0, i) + replacement + valid.substring(i + 1));
+        }
+        char lastSignatureChar = valid.charAt(valid.length() - 1);
+        corpus.add(valid.substring(0, valid.length() - 1)
+                   + BASE64_URL_ALPHABET.charAt(BASE64_URL_ALPHABET.indexOf(lastSignatureChar) | 1));
+        corpus.add(valid + "=");
+        corpus.add(valid + "A");
+        corpus.add(valid.substring(0, valid.length() - 1));
+        corpus.add(valid.substring(0, signatureStart));
+        corpus.add(valid.substring(0, signatureStart - 1));
+        corpus.add(valid + ".");
+        corpus.add(" " + valid);
+        corpus.add(valid.replace('-', '+').replace('_', '/'));
+        corpus.add(valid.substring(0, 10) + " " + valid.substring(10));
+        corpus.add(valid.substring(signatureStart - 1) + valid.substring(0, signatureStart - 1));
+        corpus.add("..");
+        corpus.add("a.b.c");
+        return corpus;
+    }
+
+    private static String describe(JWTDecoder decoder, String jwt) {
+        try {
+            return "OK " + new TreeMap<>(decoder.decodeAndVerify(jwt));
+        } catch (JWTVerificationException e) {
+            return "REJECTED " + e.getMessage();
+        }
+    }
+
+    static String sign(String header, String payload, byte[] secret) throws Exception {
+        String signingInput = base64Url(header.getBytes(StandardCharsets.UTF_8)) + "."
+                              + base64Url(payload.getBytes(StandardCharsets.UTF_8));
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        return signingInput + "." + base64Url(mac.doFinal(signingInput.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String base64Url(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -5,12 +5,19 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
 import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyDecryptAsync;
+import io.accelerate.auth.kmsjwt.key.KeyEncryptAsync;
 import io.accelerate.auth.kmsjwt.key.KeyOperationException;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
@@ -143,4 +150,112 @@ class JWTEncodeDecodeTest {
 
         jwtDecoder.decodeAndVerify(validKeySignedBySecret);
     }
+
+    @Test
+    void decode_with_key_cache_decrypts_each_key_id_once() throws Exception {
+        KeyDecrypt keyDecrypt = mock(KeyDecrypt.class);
+        when(keyDecrypt.decrypt(any())).thenReturn(SECRET_AS_BYTE_ARRAY);
+        jwtDecoder = JWTDecoder.builder(keyDecrypt)
+                .keyCache(100, Duration.ofMinutes(5))
+                .build();
+        String validKeySignedBySecret = "eyJhbGciOiJIUzI1NiIsImtpZCI6Ik1ERXlNelExTmpjNE9VRkNRMFJGUmpBeE1qTTBOVFkzT0RsQlFrTkVSVVk9In0" +
+                                        ".eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZSI6IkpvaG4gRG9lIiwiYWRtaW4iOnRydWV9" +
+                                        ".IzAFrMM0MbFJB9a35yQcp-jLSk7pBJP036CK5C144cI";
+
+        jwtDecoder.decodeAndVerify(validKeySignedBySecret);
+        jwtDecoder.decodeAndVerify(validKeySignedBySecret);
+
+        verify(keyDecrypt, times(1)).decrypt(any());
+    }
+
+    @Test
+    void async_encode_and_decode_work_together() throws Exception {
+        KeyEncryptAsync keyEncryptAsync = plaintext -> CompletableFuture.completedFuture(DUMMY_KEY_PROTECTION.encrypt(plaintext));
+        KeyDecryptAsync keyDecryptAsync = ciphertext -> CompletableFuture.completedFuture(DUMMY_KEY_PROTECTION.decrypt(ciphertext));
+
+        String jwt = JWTEncoder.builderAsync(keyEncryptAsync).get()
+                .claim("usr", "friendly_name")
+                .compact();
+        Claims claims = JWTDecoder.builder(keyDecryptAsync).build()
+                .decodeAndVerifyAsync(jwt)
+                .get();
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+    }
+
+    @Test
+    void async_decoder_applies_key_cache_to_the_async_source() throws Exception {
+        AtomicInteger decrypts = new AtomicInteger();
+        KeyDecryptAsync keyDecryptAsync = ciphertext -> {
+            decrypts.incrementAndGet();
+            return CompletableFuture.completedFuture(DUMMY_KEY_PROTECTION.decrypt(ciphertext));
+        };
+        JWTDecoder decoder = JWTDecoder.builder(keyDecryptAsync)
+                .keyCache(10, Duration.ofMinutes(1))
+                .build();
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(decoder.decodeAndVerifyAsync(jwt).get().get("usr"), is("friendly_name"));
+        }
+        assertThat(decoder.decodeAndVerify(jwt).get("usr"), is("friendly_name"));
+
+        assertThat(decrypts.get(), is(1));
+    }
+
+    @Test
+    void async_decode_of_blocking_decoder_verifies_token() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        Claims claims = jwtDecoder.decodeAndVerifyAsync(jwt).get();
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+    }
+
+    @Test
+    void async_decode_fails_with_verification_exception_if_key_cannot_be_decoded() throws Exception {
+        KeyDecryptAsync keyDecryptAsync = ciphertext -> CompletableFuture.failedFuture(new KeyOperationException("X"));
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        ExecutionException ex = assertThrows(
+                ExecutionException.class,
+                () -> JWTDecoder.builder(keyDecryptAsync).build().decodeAndVerifyAsync(jwt).get()
+        );
+        assertThat(ex.getCause(), instanceOf(JWTVerificationException.class));
+        assertThat(ex.getCause().getMessage(), containsString("Key decryption failed"));
+        assertThat(ex.getCause().getCause(), instanceOf(KeyOperationException.class));
+    }
+
+    @Test
+    void async_decode_rejects_token_without_key_id() {
+        String validTokenWithoutKeyId = "eyJhbGciOiJIUzI1NiIsInR5cCI6IkpXVCJ9"
+                                        +".eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZSI6IkpvaG4gRG9lIiwiYWRtaW4iOnRydWV9"
+                                        +".TJVA95OrM7E2cBab30RMHrHDcEfxjoYZgeFONFh7HgQ";
+
+        ExecutionException ex = assertThrows(
+                ExecutionException.class,
+                () -> jwtDecoder.decodeAndVerifyAsync(validTokenWithoutKeyId).get()
+        );
+        assertThat(ex.getCause().getMessage(), containsString("No key ID"));
+    }
+
+    @Test
+    void async_decode_rejects_if_keys_do_not_match() {
+        String validKeySignedBySecret = "eyJhbGciOiJIUzI1NiIsImtpZCI6Ik1ERXlNelExTmpjNE9VRkNRMFJGUmpBeE1qTTBOVFkzT0RsQlFrTkVSVVk9In0" +
+                                        ".eyJzdWIiOiIxMjM0NTY3ODkwIiwibmFtZSI6IkpvaG4gRG9lIiwiYWRtaW4iOnRydWV9" +
+                                        ".IzAFrMM0MbFJB9a35yQcp-jLSk7pBJP036CK5C144cI";
+        KeyDecryptAsync keyDecryptAsync = ciphertext -> CompletableFuture.completedFuture(OTHER_SECRET_AS_BYTE_ARRAY);
+
+        ExecutionException ex = assertThrows(
+                ExecutionException.class,
+                () -> JWTDecoder.builder(keyDecryptAsync).build().decodeAndVerifyAsync(validKeySignedBySecret).get()
+        );
+        assertThat(ex.getCause().getMessage(), containsString("should not be trusted"));
+    }
 }
@@ -0,0 +1,221 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.key.KeySign;
+import io.accelerate.auth.kmsjwt.key.PublicKeyLookup;
+import io.accelerate.auth.kmsjwt.key.SigningAlgorithm;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class KmsSignedTokenTest {
+    private static final String EC_KEY_ARN = "arn:aws:kms:eu-west-2:000000000000:key/11111111-1111-1111-1111-111111111111";
+    private static final String RSA_KEY_ARN = "arn:aws:kms:eu-west-2:000000000000:key/22222222-2222-2222-2222-222222222222";
+    private static final byte[] SHA256_DIGEST_INFO_PREFIX = HexFormat.of().parseHex("3031300d060960864801650304020105000420");
+
+    private static KeyPair ecKeyPair;
+    private static KeyPair rsaKeyPair;
+    private static PublicKeyLookup publicKeys;
+
+    @BeforeAll
+    static void generateKeys() throws GeneralSecurityException {
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(new ECGenParameterSpec("secp256r1"));
+        ecKeyPair = ec.generateKeyPair();
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        rsaKeyPair = rsa.generateKeyPair();
+        publicKeys = (keyArn, algorithm) -> switch (keyArn) {
+            case EC_KEY_ARN -> ecKeyPair.getPublic();
+            case RSA_KEY_ARN -> rsaKeyPair.getPublic();
+            default -> throw new KeyOperationException("Token signed by unexpected key");
+        };
+    }
+
+    @Test
+    void es256_tokens_are_verified_with_the_public_key_only() throws Exception {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+
+        Claims claims = JWTDecoder.builder(publicKeys).build().decodeAndVerify(jwt);
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+        assertThat(CompactJws.header(jwt).get("alg"), is("ES256"));
+        assertThat(CompactJws.header(jwt).get("kid"), is(EC_KEY_ARN));
+    }
+
+    @Test
+    void rs256_tokens_are_verified_with_the_public_key_only() throws Exception {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.RS256)));
+
+        Claims claims = JWTDecoder.builder(publicKeys).build().decodeAndVerify(jwt);
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+        assertThat(CompactJws.header(jwt).get("alg"), is("RS256"));
+    }
+
+    @Test
+    void es256_signatures_are_standard_jws_signatures() {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+
+        Claims claims = Jwts.parser().verifyWith(ecKeyPair.getPublic()).build().parseSignedClaims(jwt).getPayload();
+
+        assertThat(claims.get("usr"), is("friendly_name"));
+    }
+
+    @Test
+    void rejects_signed_token_with_tampered_payload() {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+        String otherPayload = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)).claim("usr", "admin")).split("\\.")[1];
+        String[] parts = jwt.split("\\.");
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        JWTDecoder decoder = JWTDecoder.builder(publicKeys).metrics(metrics).build();
+
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(parts[0] + "." + otherPayload + "." + parts[2]));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.INVALID_SIGNATURE), is(1L));
+    }
+
+    @Test
+    void decoder_with_public_keys_only_rejects_hs256_tokens() throws Exception {
+        String jwt = JWTEncoder.builder(new DummyKeyProtection()).claim("usr", "friendly_name").compact();
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        JWTDecoder decoder = JWTDecoder.builder(publicKeys).metrics(metrics).build();
+
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.KEY_UNAVAILABLE), is(1L));
+    }
+
+    @Test
+    void decoder_without_public_keys_rejects_signed_tokens() {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+
+        JWTVerificationException e = assertThrows(JWTVerificationException.class,
+                () -> new JWTDecoder(new DummyKeyProtection()).decodeAndVerify(jwt));
+
+        assertThat(e.getMessage(), containsString("not accepted"));
+    }
+
+    @Test
+    void one_decoder_accepts_both_token_modes_on_every_path() throws Exception {
+        DummyKeyProtection keyProtection = new DummyKeyProtection();
+        String hs256 = JWTEncoder.builder(keyProtection).claim("usr", "hs256_user").compact();
+        String es256 = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+        JWTDecoder decoder = JWTDecoder.builder(keyProtection)
+                .publicKeys(publicKeys)
+                .preValidation(PreValidation.builder().allowedAlgorithms(Set.of("HS256", "ES256")).build())
+                .fastPathVerification()
+                .build();
+
+        assertThat(decoder.decodeAndVerify(hs256).get("usr"), is("hs256_user"));
+        assertThat(decoder.decodeAndVerify(es256).get("usr"), is("friendly_name"));
+        assertThat(decoder.decodeAndVerify(es256, TdlClaims.READER).username(), is("friendly_name"));
+        assertThat(decoder.decodeAndVerify(es256, TdlClaims.READER).warmupChallenges(), is(List.of("SUM")));
+        assertThat(decoder.decodeAndVerifyAsync(es256).get().get("usr"), is("friendly_name"));
+    }
+
+    @Test
+    void async_rejection_of_signed_token_fails_the_future() {
+        String jwt = token(JWTEncoder.builder(localKeySign(SigningAlgorithm.ES256)));
+        JWTDecoder decoder = JWTDecoder.builder(publicKeys).build();
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> decoder.decodeAndVerifyAsync(jwt.substring(0, jwt.length() - 4) + "AAAA").get());
+
+        assertThat(e.getCause(), instanceOf(JWTVerificationException.class));
+    }
+
+    @Test
+    void kms_sign_failure_is_reported_by_compact() {
+        KeySign failing = new LocalKeySign(SigningAlgorithm.ES256) {
+            @Override
+            public byte[] sign(byte[] digest) throws KeyOperationException {
+                throw new KeyOperationException("Throttled");
+            }
+        };
+
+        SignatureException e = assertThrows(SignatureException.class, () -> token(JWTEncoder.builder(failing)));
+
+        assertThat(e.getCause(), instanceOf(KeyOperationException.class));
+    }
+
+    private static String token(JwtBuilder builder) {
+        return builder
+                .expiration(Date.from(Instant.now().plus(Duration.ofHours(1))))
+                .claim("usr", "friendly_name")
+                .claim("tdl_wrm", List.of("SUM"))
+                .claim("tdl_chx", "UPR")
+                .compact();
+    }
+
+    private static KeySign localKeySign(SigningAlgorithm algorithm) {
+        return new LocalKeySign(algorithm);
+    }
+
+    /**
+     * Signs digests the way KMS does, with a local key pair.
+     */
+    private static class LocalKeySign implements KeySign {
+        private final SigningAlgorithm algorithm;
+
+        LocalKeySign(SigningAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String keyArn() {
+            return algorithm == SigningAlgorithm.ES256 ? EC_KEY_ARN : RSA_KEY_ARN;
+        }
+
+        @Override
+        public SigningAlgorithm algorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public byte[] sign(byte[] digest) throws KeyOperationException {
+            try {
+                if (algorithm == SigningAlgorithm.ES256) {
+                    Signature ecdsa = Signature.getInstance("NONEwithECDSA");
+                    ecdsa.initSign(ecKeyPair.getPrivate());
+                    ecdsa.update(digest);
+                    return ecdsa.sign();
+                }
+                Signature rsa = Signature.getInstance("NONEwithRSA");
+                rsa.initSign(rsaKeyPair.getPrivate());
+                rsa.update(ByteBuffer.allocate(SHA256_DIGEST_INFO_PREFIX.length + digest.length)
+                        .put(SHA256_DIGEST_INFO_PREFIX)
+                        .put(digest)
+                        .array());
+                return rsa.sign();
+            } catch (GeneralSecurityException e) {
+                throw new KeyOperationException(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreValidationTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    private AtomicInteger decryptCalls;
+    private PreValidation preValidation;
+    private JWTDecoder decoder;
+
+    @BeforeEach
+    void setUp() {
+        decryptCalls = new AtomicInteger();
+        KeyDecrypt countingKeyDecrypt = ciphertext -> {
+            decryptCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+        preValidation = PreValidation.builder()
+                .maxTokenLength(2048)
+                .build();
+        decoder = JWTDecoder.builder(countingKeyDecrypt)
+                .preValidation(preValidation)
+                .build();
+    }
+
+    @Test
+    void valid_token_reaches_key_decrypt() throws Exception {
+        String jwt = tokenExpiringIn(Duration.ofMinutes(5));
+
+        assertThat(decoder.decodeAndVerify(jwt).get("usr"), is("friendly_name"));
+        assertThat(decryptCalls.get(), is(1));
+        assertThat(preValidation.rejections(), is(Map.of()));
+    }
+
+    @Test
+    void expired_token_is_rejected_before_key_decrypt() throws Exception {
+        String jwt = tokenExpiringIn(Duration.ofMinutes(-5));
+
+        JWTVerificationException ex = assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+
+        assertThat(ex.getMessage(), containsString("expired"));
+        assertThat(decryptCalls.get(), is(0));
+        assertThat(preValidation.rejections(PreValidation.Rejection.EXPIRED), is(1L));
+    }
+
+    @Test
+    void token_within_clock_skew_is_not_rejected_early() throws Exception {
+        String jwt = tokenExpiringIn(Duration.ofSeconds(-30));
+
+        assertThat(decoder.decodeAndVerify(jwt).get("usr"), is("friendly_name"));
+        assertThat(decryptCalls.get(), is(1));
+    }
+
+    @Test
+    void not_yet_valid_token_is_rejected_before_key_decrypt() throws Exception {
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .notBefore(new Date(System.currentTimeMillis() + Duration.ofHours(1).toMillis()))
+                .compact();
+
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+
+        assertThat(decryptCalls.get(), is(0));
+        assertThat(preValidation.rejections(PreValidation.Rejection.NOT_YET_VALID), is(1L));
+    }
+
+    @Test
+    void structural_problems_are_rejected_and_counted() {
+        String kid = Base64.getEncoder().encodeToString("kid".getBytes(StandardCharsets.UTF_8));
+        String payload = base64Url("{\"usr\":\"friendly_name\"}");
+
+        rejectBeforeDecrypt(base64Url("{\"alg\":\"none\",\"kid\":\"" + kid + "\"}") + "." + payload + ".");
+        rejectBeforeDecrypt(base64Url("{\"alg\":\"HS512\",\"kid\":\"" + kid + "\"}") + "." + payload + ".c2ln");
+        rejectBeforeDecrypt(base64Url("{\"alg\":\"HS256\"}") + "." + payload + ".c2ln");
+        rejectBeforeDecrypt(base64Url("{\"alg\":\"HS256\",\"kid\":\"" + "k".repeat(600) + "\"}") + "." + payload + ".c2ln");
+        rejectBeforeDecrypt("not-a-token");
+        rejectBeforeDecrypt("a".repeat(3000));
+
+        assertThat(decryptCalls.get(), is(0));
+        assertThat(preValidation.rejections(), is(Map.of(
+                PreValidation.Rejection.ALGORITHM_NOT_ALLOWED, 2L,
+                PreValidation.Rejection.MISSING_KEY_ID, 1L,
+                PreValidation.Rejection.KEY_ID_TOO_LONG, 1L,
+                PreValidation.Rejection.MALFORMED, 1L,
+                PreValidation.Rejection.TOKEN_TOO_LONG, 1L)));
+    }
+
+    @Test
+    void async_decode_applies_the_same_checks() throws Exception {
+        String jwt = tokenExpiringIn(Duration.ofMinutes(-5));
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> decoder.decodeAndVerifyAsync(jwt).get());
+
+        assertThat(ex.getCause().getMessage(), containsString("expired"));
+        assertThat(decryptCalls.get(), is(0));
+    }
+
+    private void rejectBeforeDecrypt(String jwt) {
+        assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+    }
+
+    private static String tokenExpiringIn(Duration lifetime) throws Exception {
+        return JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .expiration(new Date(System.currentTimeMillis() + lifetime.toMillis()))
+                .compact();
+    }
+
+    private static String base64Url(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
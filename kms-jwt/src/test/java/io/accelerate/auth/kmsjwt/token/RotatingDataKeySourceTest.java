@@ -0,0 +1,117 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyEncrypt;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+class RotatingDataKeySourceTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    private AtomicInteger encryptCalls;
+    private KeyEncrypt countingKeyEncrypt;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        encryptCalls = new AtomicInteger();
+        countingKeyEncrypt = plaintext -> {
+            encryptCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.encrypt(plaintext);
+        };
+        clock = new MutableClock();
+    }
+
+    @Test
+    void reuses_key_until_max_uses_reached() throws Exception {
+        RotatingDataKeySource source = new RotatingDataKeySource(countingKeyEncrypt, 3, Duration.ofHours(1), clock);
+
+        DataKey first = source.next();
+        assertThat(source.next(), is(first));
+        assertThat(source.next(), is(first));
+        DataKey rotated = source.next();
+
+        assertThat(rotated.kid(), is(not(first.kid())));
+        assertThat(encryptCalls.get(), is(2));
+    }
+
+    @Test
+    void rotates_key_when_max_age_elapsed() throws Exception {
+        RotatingDataKeySource source = new RotatingDataKeySource(countingKeyEncrypt, 1000, Duration.ofMinutes(5), clock);
+
+        DataKey first = source.next();
+        clock.advance(Duration.ofMinutes(5));
+        DataKey rotated = source.next();
+
+        assertThat(rotated.kid(), is(not(first.kid())));
+        assertThat(encryptCalls.get(), is(2));
+    }
+
+    @Test
+    void tokens_minted_with_shared_key_verify_with_existing_decoder() throws Exception {
+        RotatingDataKeySource source = new RotatingDataKeySource(countingKeyEncrypt, 100, Duration.ofHours(1), clock);
+        JWTDecoder decoder = new JWTDecoder(DUMMY_KEY_PROTECTION);
+
+        for (int i = 0; i < 10; i++) {
+            String jwt = JWTEncoder.builder(source)
+                    .claim("usr", "user" + i)
+                    .compact();
+            Claims claims = decoder.decodeAndVerify(jwt);
+            assertThat(claims.get("usr"), is("user" + i));
+        }
+        assertThat(encryptCalls.get(), is(1));
+    }
+
+    @Test
+    void concurrent_minting_threads_share_the_current_key() throws Exception {
+        int threads = 8;
+        int tokensPerThread = 250;
+        int maxUses = 100;
+        RotatingDataKeySource source = new RotatingDataKeySource(countingKeyEncrypt, maxUses, Duration.ofHours(1), clock);
+        Set<String> kids = ConcurrentHashMap.newKeySet();
+        ConcurrentHashMap<String, AtomicInteger> usesPerKid = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < tokensPerThread; i++) {
+                        String kid = source.next().kid();
+                        kids.add(kid);
+                        usesPerKid.computeIfAbsent(kid, k -> new AtomicInteger()).incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int totalTokens = threads * tokensPerThread;
+        assertThat(kids.size(), is(totalTokens / maxUses));
+        assertThat(encryptCalls.get(), is(totalTokens / maxUses));
+        for (AtomicInteger uses : usesPerKid.values()) {
+            assertThat(uses.get(), is(maxUses));
+        }
+    }
+}
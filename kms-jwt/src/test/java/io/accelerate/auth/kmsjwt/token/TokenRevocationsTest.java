@@ -0,0 +1,187 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.metrics.InMemoryMetrics;
+import io.accelerate.auth.kmsjwt.metrics.Operation;
+import io.accelerate.auth.kmsjwt.metrics.Outcome;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenRevocationsTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+
+    @TempDir
+    Path directory;
+
+    private MutableClock clock;
+    private TokenRevocations revocations;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock();
+        revocations = TokenRevocations.builder()
+                .bucketDuration(Duration.ofHours(1))
+                .retainAfterExpiry(Duration.ofMinutes(5))
+                .filterSize(1_000, 0.01)
+                .clock(clock)
+                .build();
+    }
+
+    @Test
+    void finds_revoked_ids_and_nothing_else() {
+        Instant expiry = clock.instant().plus(Duration.ofMinutes(30));
+        for (int i = 0; i < 5_000; i++) {
+            revocations.revoke("revoked-" + i, expiry.plusSeconds(i));
+        }
+
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(revocations.isRevoked("revoked-" + i, expiry.plusSeconds(i)), is(true));
+        }
+        for (int i = 0; i < 5_000; i++) {
+            assertThat(revocations.isRevoked(UUID.randomUUID().toString(), expiry.plusSeconds(i)), is(false));
+        }
+        assertThat(revocations.size(), is(5_000));
+    }
+
+    @Test
+    void revoking_twice_keeps_one_entry() {
+        Instant expiry = clock.instant().plus(Duration.ofMinutes(30));
+
+        assertThat(revocations.revoke("jti", expiry), is(true));
+        assertThat(revocations.revoke("jti", expiry), is(false));
+        assertThat(revocations.size(), is(1));
+    }
+
+    @Test
+    void id_revoked_without_an_expiry_matches_tokens_that_have_one() throws Exception {
+        Instant expiry = clock.instant().plus(Duration.ofHours(1));
+        String jwt = JWTEncoder.withTokenId(JWTEncoder.builder(DUMMY_KEY_PROTECTION))
+                .expiration(Date.from(expiry))
+                .claim("usr", "friendly_name")
+                .compact();
+        JWTDecoder decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION).revocations(revocations).clock(clock).build();
+        Claims claims = decoder.decodeAndVerify(jwt);
+        revocations.revoke("other", expiry);
+
+        revocations.revoke(claims.getId(), null);
+
+        assertThat(revocations.isRevoked(claims.getId(), expiry), is(true));
+        assertThat(revocations.isRevoked("other", null), is(false));
+        JWTVerificationException e = assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+        assertThat(e.getMessage(), containsString("revoked"));
+    }
+
+    @Test
+    void drops_buckets_once_their_tokens_have_expired() {
+        revocations.revoke("soon", clock.instant().plus(Duration.ofMinutes(30)));
+        revocations.revoke("later", clock.instant().plus(Duration.ofHours(5)));
+        revocations.revoke("never", null);
+        assertThat(revocations.bucketCount(), is(3));
+
+        clock.advance(Duration.ofHours(2));
+        assertThat(revocations.isRevoked("later", clock.instant().plus(Duration.ofHours(3))), is(true));
+
+        assertThat(revocations.bucketCount(), is(2));
+        assertThat(revocations.isRevoked("never", null), is(true));
+    }
+
+    @Test
+    void snapshot_can_be_loaded_with_another_bucket_duration() throws Exception {
+        Path file = directory.resolve("revoked.txt");
+        Instant expiry = clock.instant().plus(Duration.ofHours(3));
+        revocations.revoke("first", expiry);
+        revocations.revoke("with spaces", expiry.plusSeconds(1));
+        revocations.revoke("never", null);
+        revocations.snapshot(file);
+
+        TokenRevocations loaded = TokenRevocations.builder()
+                .bucketDuration(Duration.ofMinutes(10))
+                .clock(clock)
+                .build();
+
+        assertThat(loaded.load(file), is(3));
+        assertThat(loaded.isRevoked("first", expiry), is(true));
+        assertThat(loaded.isRevoked("with spaces", expiry.plusSeconds(1)), is(true));
+        assertThat(loaded.isRevoked("never", null), is(true));
+    }
+
+    @Test
+    void load_skips_expired_ids_and_ignores_a_missing_file() throws Exception {
+        Path file = directory.resolve("revoked.txt");
+        revocations.revoke("expired", clock.instant().plus(Duration.ofMinutes(1)));
+        revocations.revoke("current", clock.instant().plus(Duration.ofHours(1)));
+        revocations.snapshot(file);
+        clock.advance(Duration.ofMinutes(10));
+
+        TokenRevocations loaded = TokenRevocations.builder().clock(clock).build();
+
+        assertThat(loaded.load(file), is(1));
+        assertThat(loaded.load(directory.resolve("missing.txt")), is(0));
+    }
+
+    @Test
+    void rejects_malformed_snapshot() throws Exception {
+        Path file = Files.writeString(directory.resolve("revoked.txt"), "soon jti\n");
+
+        Exception e = assertThrows(IOException.class, () -> revocations.load(file));
+
+        assertThat(e.getMessage(), containsString(":1"));
+    }
+
+    @Test
+    void rejects_ids_that_do_not_fit_on_one_line() {
+        assertThrows(IllegalArgumentException.class, () -> revocations.revoke("two\nlines", null));
+    }
+
+    @Test
+    void decoder_rejects_revoked_tokens_on_every_path() throws Exception {
+        String jwt = JWTEncoder.withTokenId(JWTEncoder.builder(DUMMY_KEY_PROTECTION))
+                .expiration(Date.from(clock.instant().plus(Duration.ofHours(1))))
+                .claim("usr", "friendly_name")
+                .claim("tdl_wrm", List.of("SUM"))
+                .claim("tdl_chx", "UPR")
+                .compact();
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        JWTDecoder decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION)
+                .claimsCache(100, 1_000_000)
+                .fastPathVerification()
+                .revocations(revocations)
+                .clock(clock)
+                .metrics(metrics)
+                .build();
+        JWTDecoder uncached = JWTDecoder.builder(DUMMY_KEY_PROTECTION).revocations(revocations).clock(clock).build();
+        Claims claims = decoder.decodeAndVerify(jwt);
+        assertThat(claims.getId(), notNullValue());
+
+        revocations.revoke(claims.getId(), claims.getExpiration().toInstant());
+
+        JWTVerificationException e = assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+        assertThat(e.getMessage(), containsString("revoked"));
+        assertThat(metrics.count(Operation.JWT_VERIFY, Outcome.REVOKED), is(1L));
+        assertThrows(JWTVerificationException.class, () -> uncached.decodeAndVerify(jwt));
+        assertThrows(JWTVerificationException.class, () -> uncached.decodeAndVerify(jwt, TdlClaims.READER));
+        assertThrows(JWTVerificationException.class, () -> uncached.decodeAndVerify(jwt, ClaimsReader.lazy("usr")));
+        ExecutionException async = assertThrows(ExecutionException.class, () -> uncached.decodeAndVerifyAsync(jwt).get());
+        assertThat(async.getCause(), instanceOf(JWTVerificationException.class));
+    }
+}
@@ -0,0 +1,190 @@
+package io.accelerate.auth.kmsjwt.token;
+
+import io.accelerate.auth.kmsjwt.key.DummyKeyProtection;
+import io.accelerate.auth.kmsjwt.key.KeyDecrypt;
+import io.accelerate.auth.kmsjwt.key.KeyOperationException;
+import io.accelerate.auth.kmsjwt.metrics.MetricsListener;
+import io.accelerate.auth.kmsjwt.testing.MutableClock;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VerifiedClaimsCacheTest {
+    private static final DummyKeyProtection DUMMY_KEY_PROTECTION = new DummyKeyProtection();
+    private static final Duration CLOCK_SKEW = Duration.ofSeconds(60);
+
+    private AtomicInteger decryptCalls;
+    private KeyDecrypt countingKeyDecrypt;
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        decryptCalls = new AtomicInteger();
+        countingKeyDecrypt = ciphertext -> {
+            decryptCalls.incrementAndGet();
+            return DUMMY_KEY_PROTECTION.decrypt(ciphertext);
+        };
+        clock = new MutableClock();
+    }
+
+    @Test
+    void repeated_verifications_are_served_from_cache() throws Exception {
+        JWTDecoder decoder = decoderWithClaimsCache(100, 1_000_000);
+        String jwt = tokenExpiringIn(Duration.ofMinutes(5));
+
+        Claims first = decoder.decodeAndVerify(jwt);
+        Claims second = decoder.decodeAndVerify(jwt);
+        Claims third = decoder.decodeAndVerifyAsync(jwt).get();
+
+        assertThat(second, sameInstance(first));
+        assertThat(third, sameInstance(first));
+        assertThat(decryptCalls.get(), is(1));
+    }
+
+    @Test
+    void expired_token_is_not_served_from_cache() throws Exception {
+        JWTDecoder decoder = decoderWithClaimsCache(100, 1_000_000);
+        String jwt = tokenExpiringIn(Duration.ofMinutes(5));
+        decoder.decodeAndVerify(jwt);
+
+        clock.advance(Duration.ofMinutes(5).plus(CLOCK_SKEW).plusSeconds(1));
+
+        JWTVerificationException ex = assertThrows(JWTVerificationException.class, () -> decoder.decodeAndVerify(jwt));
+        assertThat(ex.getMessage(), containsString("expired"));
+    }
+
+    @Test
+    void cache_is_bounded_by_entries_and_bytes() throws Exception {
+        VerifiedClaimsCache byEntries = new VerifiedClaimsCache(10, 1_000_000, CLOCK_SKEW.toMillis(), clock, MetricsListener.NOOP);
+        VerifiedClaimsCache byBytes = new VerifiedClaimsCache(1_000, 4_096, CLOCK_SKEW.toMillis(), clock, MetricsListener.NOOP);
+        JWTDecoder decoder = JWTDecoder.builder(DUMMY_KEY_PROTECTION).clock(clock).build();
+
+        for (int i = 0; i < 100; i++) {
+            String jwt = tokenExpiringIn(Duration.ofMinutes(5), "user" + i);
+            Claims claims = decoder.decodeAndVerify(jwt);
+            byEntries.put(jwt, claims);
+            byBytes.put(jwt, claims);
+        }
+
+        assertThat(byEntries.size(), is(10));
+        assertThat(byBytes.approximateBytes(), lessThanOrEqualTo(4_096L));
+        assertThat(byBytes.size(), greaterThan(0));
+        assertThat(byBytes.size(), lessThan(100));
+    }
+
+    @Test
+    void inputs_differing_only_in_non_ascii_characters_have_separate_entries() throws Exception {
+        VerifiedClaimsCache cache = new VerifiedClaimsCache(10, 1_000_000, CLOCK_SKEW.toMillis(), clock, MetricsListener.NOOP);
+        String jwt = tokenExpiringIn(Duration.ofMinutes(5));
+        Claims claims = JWTDecoder.builder(DUMMY_KEY_PROTECTION).clock(clock).build().decodeAndVerify(jwt);
+
+        cache.put(jwt + "\u00e9", claims);
+
+        assertThat(cache.get(jwt + "\u00e8"), nullValue());
+        assertThat(cache.get(jwt + "\u00e9"), sameInstance(claims));
+    }
+
+    @Test
+    void tokens_without_expiry_are_not_cached() throws Exception {
+        JWTDecoder decoder = decoderWithClaimsCache(100, 1_000_000);
+        String jwt = JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", "friendly_name")
+                .compact();
+
+        decoder.decodeAndVerify(jwt);
+        decoder.decodeAndVerify(jwt);
+
+        assertThat(decryptCalls.get(), is(2));
+    }
+
+    @Test
+    void concurrent_readers_never_see_a_token_past_its_expiry() throws Exception {
+        JWTDecoder decoder = decoderWithClaimsCache(100, 1_000_000);
+        Duration lifetime = Duration.ofSeconds(2);
+        String jwt = tokenExpiringIn(lifetime);
+        long rejectedFromMillis = clock.millis() + lifetime.plus(CLOCK_SKEW).toMillis() + 1;
+        int readers = 8;
+        AtomicLong acceptedAfterExpiry = new AtomicLong();
+        AtomicLong rejections = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    while (clock.millis() < rejectedFromMillis + 1_000) {
+                        long before = clock.millis();
+                        try {
+                            decoder.decodeAndVerify(jwt);
+                            if (before >= rejectedFromMillis) {
+                                acceptedAfterExpiry.incrementAndGet();
+                            }
+                        } catch (JWTVerificationException e) {
+                            rejections.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            results.add(executor.submit(() -> {
+                start.await();
+                while (clock.millis() < rejectedFromMillis + 1_000) {
+                    clock.advance(Duration.ofMillis(1));
+                    Thread.onSpinWait();
+                }
+                return null;
+            }));
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(acceptedAfterExpiry.get(), is(0L));
+        assertThat(rejections.get(), greaterThan(0L));
+    }
+
+    private JWTDecoder decoderWithClaimsCache(int maxEntries, long maxBytes) {
+        return JWTDecoder.builder(countingKeyDecrypt)
+                .claimsCache(maxEntries, maxBytes)
+                .clockSkew(CLOCK_SKEW)
+                .clock(clock)
+                .build();
+    }
+
+    private String tokenExpiringIn(Duration lifetime) throws KeyOperationException {
+        return tokenExpiringIn(lifetime, "friendly_name");
+    }
+
+    private String tokenExpiringIn(Duration lifetime, String username) throws KeyOperationException {
+        return JWTEncoder.builder(DUMMY_KEY_PROTECTION)
+                .claim("usr", username)
+                .expiration(Date.from(clock.instant().plus(lifetime)))
+                .compact();
+    }
+}